@@ -0,0 +1,709 @@
+package program.telephone;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+/**
+ * Локальный HTTP/JSON-сервер для программного доступа к телефонной книге.
+ * <p>
+ * Сервер построен на {@link HttpServer} из JDK и слушает только адрес обратной петли.
+ * Все операции выполняются через {@link ContactDirectory}, поэтому проверки, события
+ * и история изменений работают так же, как в интерфейсе. Поиск по имени и обратный поиск
+ * по номеру используют {@link ContactIndex} и не просматривают список.
+ * </p>
+ * <p>Конечные точки:
+ * <ul>
+ *   <li>{@code GET /api/contacts?q=&offset=&limit=} &mdash; поиск (без {@code q} &mdash; все контакты)</li>
+ *   <li>{@code POST /api/contacts} &mdash; создание контакта {@code {"name": ..., "numbers": [...]}}</li>
+ *   <li>{@code GET|PUT|DELETE /api/contacts/{name}} &mdash; чтение, переименование
+ *   ({@code {"name": ...}}) и удаление контакта</li>
+ *   <li>{@code POST /api/contacts/{name}/numbers} &mdash; добавление номера {@code {"number": ..., "type": ...}}</li>
+ *   <li>{@code DELETE /api/contacts/{name}/numbers/{number}} &mdash; удаление номера</li>
+ *   <li>{@code GET /api/lookup?number=} &mdash; обратный поиск по номеру</li>
+ *   <li>{@code GET /api/export} и {@code POST /api/import} &mdash; массовая выгрузка и загрузка</li>
+ * </ul>
+ * Списки контактов передаются потоком (chunked transfer encoding), поэтому большие выборки
+ * не собираются в памяти целиком; если клиент передал {@code Accept-Encoding: gzip}, поток
+ * сжимается на лету. Соединения HTTP/1.1 переиспользуются (keep-alive).
+ * Изменения сохраняются в хранилище с задержкой {@link #SAVE_DELAY_MS}, чтобы серия запросов
+ * приводила к одной записи. Изменения, которые другие экземпляры приложения записывают
+ * в тот же каталог, применяются к телефонной книге сразу после записи.
+ * </p>
+ */
+public class ApiServer {
+    /** Логгер для класса ApiServer. */
+    private static final Logger logger = LogManager.getLogger(ApiServer.class);
+    /** Системное свойство с номером порта. */
+    public static final String PORT_PROPERTY = "telephone.api.port";
+    /** Порт по умолчанию. */
+    public static final int DEFAULT_PORT = 8089;
+    /** Задержка сохранения после изменения (мс). */
+    public static final long SAVE_DELAY_MS = 1_000;
+    /** Размер очереди входящих соединений. */
+    private static final int BACKLOG = 1_024;
+    /** Размер буфера потоковых ответов. */
+    private static final int STREAM_BUFFER = 16 * 1024;
+    /** Свойство JDK, включающее TCP_NODELAY для соединений {@link HttpServer}. */
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    /** Телефонная книга. */
+    private final ContactDirectory directory;
+    /** Индексы по имени и номеру. */
+    private final ContactIndex index;
+    /** HTTP-сервер. */
+    private final HttpServer server;
+    /** Исполнитель запросов. */
+    private final ExecutorService requests;
+    /** Поток отложенного сохранения. */
+    private final ScheduledExecutorService saver;
+    /** Признак запланированного сохранения. */
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    /** Наблюдение за изменениями других экземпляров, работающих с тем же хранилищем. */
+    private final Closeable storageWatch;
+    /**
+     * Создает сервер для телефонной книги. Контакты должны быть уже загружены.
+     *
+     * @param directory телефонная книга
+     * @param port порт на адресе обратной петли (0 &mdash; любой свободный)
+     * @throws IOException если порт не удалось занять
+     */
+    public ApiServer(ContactDirectory directory, int port) throws IOException {
+        this.directory = directory;
+        this.index = directory.getIndex();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.requests = newRequestExecutor();
+        this.saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "api-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.storageWatch = directory.watchStorage(Runnable::run);
+        server.setExecutor(requests);
+        server.createContext("/api/contacts", this::handleContacts);
+        server.createContext("/api/lookup", this::handleLookup);
+        server.createContext("/api/export", this::handleExport);
+        server.createContext("/api/import", this::handleImport);
+    }
+    /**
+     * Создает исполнитель запросов: виртуальные потоки, если их поддерживает среда выполнения
+     * (Java 21+), иначе пул обычных потоков.
+     *
+     * @return исполнитель запросов
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            logger.info("Запросы API обрабатываются виртуальными потоками");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+            logger.info("Запросы API обрабатываются пулом из {} потоков", threads);
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "api-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    /**
+     * Запускает сервер.
+     */
+    public void start() {
+        server.start();
+        logger.info("HTTP API запущен на http://localhost:{}/api", getPort());
+    }
+    /**
+     * Останавливает сервер и сохраняет несохраненные изменения.
+     */
+    public void stop() {
+        server.stop(1);
+        try {
+            storageWatch.close();
+        } catch (IOException e) {
+            logger.warn("Не удалось остановить наблюдение за хранилищем", e);
+        }
+        requests.shutdown();
+        saver.shutdown();
+        save();
+        logger.info("HTTP API остановлен");
+    }
+    /**
+     * Возвращает порт, на котором слушает сервер.
+     *
+     * @return номер порта
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    /**
+     * Обрабатывает запросы к {@code /api/contacts}.
+     */
+    private void handleContacts(HttpExchange exchange) throws IOException {
+        handle(exchange, () -> {
+            String method = exchange.getRequestMethod();
+            List<String> path = pathSegments(exchange, "/api/contacts");
+            if (path.isEmpty()) {
+                if ("GET".equals(method)) {
+                    searchContacts(exchange);
+                } else if ("POST".equals(method)) {
+                    createContact(exchange);
+                } else {
+                    throw new ApiException(405, "Метод не поддерживается");
+                }
+            } else if (path.size() == 1) {
+                String name = path.get(0);
+                switch (method) {
+                    case "GET":
+                        sendJson(exchange, 200, contactJson(requireContact(name)));
+                        break;
+                    case "PUT":
+                        renameContact(exchange, name);
+                        break;
+                    case "DELETE":
+                        deleteContact(exchange, name);
+                        break;
+                    default:
+                        throw new ApiException(405, "Метод не поддерживается");
+                }
+            } else if (path.size() == 2 && "numbers".equals(path.get(1)) && "POST".equals(method)) {
+                addNumber(exchange, path.get(0));
+            } else if (path.size() == 3 && "numbers".equals(path.get(1)) && "DELETE".equals(method)) {
+                deleteNumber(exchange, path.get(0), path.get(2));
+            } else {
+                throw new ApiException(404, "Неизвестный адрес");
+            }
+        });
+    }
+    /**
+     * {@code GET /api/contacts}: поиск с постраничной выборкой.
+     */
+    private void searchContacts(HttpExchange exchange) throws IOException {
+        Map<String, String> query = queryParameters(exchange);
+        String request = query.getOrDefault("q", "").toLowerCase().trim();
+        int offset = intParameter(query, "offset", 0);
+        int limit = intParameter(query, "limit", Integer.MAX_VALUE);
+        List<Contact> found = request.isEmpty() ? directory.copyContacts() : directory.search(request);
+        int from = Math.min(offset, found.size());
+        int to = (int) Math.min((long) from + limit, found.size());
+        streamContacts(exchange, found.subList(from, to));
+    }
+    /**
+     * {@code POST /api/contacts}: создание контакта с номерами.
+     */
+    private void createContact(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = readObject(exchange);
+        String name = requireString(body, "name").trim();
+        List<PhoneNumber> numbers = parseNumbers(body.get("numbers"));
+        Contact[] created = new Contact[1];
+        directory.batch(() -> created[0] = addWithNumbers(name, numbers));
+        if (created[0] == null) {
+            throw new ApiException(409, "Контакт с таким именем уже существует");
+        }
+        scheduleSave();
+        sendJson(exchange, 201, contactJson(created[0]));
+    }
+    /**
+     * Создает контакт и добавляет ему номера; вызывается внутри {@link ContactDirectory#batch(Runnable)}.
+     *
+     * Номера запроса проверяются и друг с другом по тому же правилу, что и
+     * {@link ContactDirectory#verifyNumber(String, String, Contact)}: номера одной длины,
+     * совпадающие без первой цифры, считаются одним номером.
+     *
+     * @return созданный контакт или null, если контакт с таким именем уже есть
+     * @throws ApiException если один из номеров некорректен, уже занят или повторяется в запросе
+     */
+    private Contact addWithNumbers(String name, List<PhoneNumber> numbers) {
+        if (name.isEmpty()) {
+            throw new ApiException(400, "Имя контакта не может быть пустым");
+        }
+        Set<String> requested = new HashSet<>();
+        for (PhoneNumber number : numbers) {
+            if (!directory.verifyNumber(number.getNumber(), number.getType(), null)) {
+                throw new ApiException(400, "Некорректный или уже существующий номер: " + number.getNumber());
+            }
+            // Проверенный номер содержит хотя бы шесть цифр, а равные хвосты означают равную длину
+            if (!requested.add(number.getNumber().replaceAll("[^0-9]", "").substring(1))) {
+                throw new ApiException(400, "Номер повторяется в запросе: " + number.getNumber());
+            }
+        }
+        Optional<Contact> created = directory.addContact(name);
+        if (created.isEmpty()) {
+            return null;
+        }
+        Contact contact = created.get();
+        for (PhoneNumber number : numbers) {
+            if (!directory.addNumber(contact, number)) {
+                directory.removeContact(contact);
+                throw new ApiException(409, "Номер не удалось добавить: " + number.getNumber());
+            }
+        }
+        return contact;
+    }
+    /**
+     * {@code PUT /api/contacts/{name}}: переименование контакта.
+     */
+    private void renameContact(HttpExchange exchange, String name) throws IOException {
+        String newName = requireString(readObject(exchange), "name").trim();
+        if (newName.isEmpty()) {
+            throw new ApiException(400, "Имя контакта не может быть пустым");
+        }
+        Contact[] renamed = new Contact[1];
+        directory.batch(() -> {
+            Contact contact = requireContact(name);
+            Contact existing = index.findByName(newName);
+            if (existing != null && existing != contact) {
+                throw new ApiException(409, "Контакт с таким именем уже существует");
+            }
+            directory.renameContact(contact, newName);
+            renamed[0] = contact;
+        });
+        scheduleSave();
+        sendJson(exchange, 200, contactJson(renamed[0]));
+    }
+    /**
+     * {@code DELETE /api/contacts/{name}}: удаление контакта.
+     */
+    private void deleteContact(HttpExchange exchange, String name) throws IOException {
+        drain(exchange);
+        directory.batch(() -> directory.removeContact(requireContact(name)));
+        scheduleSave();
+        sendEmpty(exchange, 204);
+    }
+    /**
+     * {@code POST /api/contacts/{name}/numbers}: добавление номера.
+     */
+    private void addNumber(HttpExchange exchange, String name) throws IOException {
+        PhoneNumber number = parseNumber(readObject(exchange));
+        Contact[] updated = new Contact[1];
+        directory.batch(() -> {
+            Contact contact = requireContact(name);
+            if (!directory.verifyNumber(number.getNumber(), number.getType(), contact)) {
+                throw new ApiException(400, "Некорректный или уже существующий номер: " + number.getNumber());
+            }
+            if (!directory.addNumber(contact, number)) {
+                throw new ApiException(409, "Этот номер уже есть у контакта");
+            }
+            updated[0] = contact;
+        });
+        scheduleSave();
+        sendJson(exchange, 201, contactJson(updated[0]));
+    }
+    /**
+     * {@code DELETE /api/contacts/{name}/numbers/{number}}: удаление номера.
+     */
+    private void deleteNumber(HttpExchange exchange, String name, String number) throws IOException {
+        drain(exchange);
+        directory.batch(() -> {
+            Contact contact = requireContact(name);
+            PhoneNumber existing = contact.getPhoneNumbers().stream()
+                    .filter(n -> n.getNumber().equals(number))
+                    .findFirst()
+                    .orElseThrow(() -> new ApiException(404, "Номер не найден"));
+            directory.removeNumber(contact, existing);
+        });
+        scheduleSave();
+        sendEmpty(exchange, 204);
+    }
+    /**
+     * Обрабатывает {@code GET /api/lookup?number=}: обратный поиск по номеру.
+     */
+    private void handleLookup(HttpExchange exchange) throws IOException {
+        handle(exchange, () -> {
+            requireMethod(exchange, "GET");
+            String number = queryParameters(exchange).get("number");
+            if (number == null || number.isEmpty()) {
+                throw new ApiException(400, "Не указан параметр number");
+            }
+            List<Contact> found = index.findByNumber(number);
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < found.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                Json.writeContact(json, found.get(i));
+            }
+            sendJson(exchange, 200, json.append(']').toString());
+        });
+    }
+    /**
+     * Обрабатывает {@code GET /api/export}: выгрузка всех контактов.
+     */
+    private void handleExport(HttpExchange exchange) throws IOException {
+        handle(exchange, () -> {
+            requireMethod(exchange, "GET");
+            streamContacts(exchange, directory.copyContacts());
+        });
+    }
+    /**
+     * Обрабатывает {@code POST /api/import}: массовая загрузка массива контактов.
+     * <p>
+     * Новые контакты добавляются вместе с номерами, существующим контактам добавляются
+     * недостающие номера. Некорректные и занятые номера пропускаются. Вся загрузка
+     * выполняется одним пакетом изменений.
+     */
+    private void handleImport(HttpExchange exchange) throws IOException {
+        handle(exchange, () -> {
+            requireMethod(exchange, "POST");
+            Object parsed = Json.parse(readBody(exchange));
+            if (!(parsed instanceof List)) {
+                throw new ApiException(400, "Ожидался массив контактов");
+            }
+            List<Map<String, Object>> items = new ArrayList<>();
+            for (Object item : (List<?>) parsed) {
+                items.add(asObject(item));
+            }
+            int[] counts = new int[3];
+            directory.batch(() -> {
+                for (Map<String, Object> item : items) {
+                    importContact(item, counts);
+                }
+            });
+            logger.info("Импорт: контактов добавлено {}, номеров добавлено {}, пропущено {}",
+                    counts[0], counts[1], counts[2]);
+            if (counts[0] + counts[1] > 0) {
+                scheduleSave();
+            }
+            sendJson(exchange, 200, "{\"contactsAdded\":" + counts[0]
+                    + ",\"numbersAdded\":" + counts[1] + ",\"skipped\":" + counts[2] + "}");
+        });
+    }
+    /**
+     * Загружает один контакт при импорте.
+     *
+     * @param item объект контакта
+     * @param counts счетчики: добавленные контакты, добавленные номера, пропущенные записи
+     */
+    private void importContact(Map<String, Object> item, int[] counts) {
+        Object rawName = item.get("name");
+        String name = rawName instanceof String ? ((String) rawName).trim() : "";
+        if (name.isEmpty()) {
+            counts[2]++;
+            return;
+        }
+        Contact contact = index.findByName(name);
+        if (contact == null) {
+            contact = directory.addContact(name).orElse(null);
+            if (contact == null) {
+                counts[2]++;
+                return;
+            }
+            counts[0]++;
+        }
+        for (PhoneNumber number : parseNumbers(item.get("numbers"))) {
+            if (directory.verifyNumber(number.getNumber(), number.getType(), contact)
+                    && directory.addNumber(contact, number)) {
+                counts[1]++;
+            } else {
+                counts[2]++;
+            }
+        }
+    }
+    /**
+     * Передает список контактов JSON-массивом по частям.
+     */
+    private void streamContacts(HttpExchange exchange, List<Contact> contacts) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        boolean gzip = acceptsGzip(exchange);
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = gzip
+                ? new GZIPOutputStream(exchange.getResponseBody(), STREAM_BUFFER)
+                : exchange.getResponseBody();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), STREAM_BUFFER)) {
+            out.write('[');
+            boolean first = true;
+            for (Contact contact : contacts) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                Json.writeContact(out, contact);
+            }
+            out.write(']');
+        }
+    }
+    /**
+     * Проверяет, принимает ли клиент ответ, сжатый gzip.
+     */
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        List<String> values = exchange.getRequestHeaders().get("Accept-Encoding");
+        return values != null && values.stream().anyMatch(v -> v.toLowerCase(Locale.ROOT).contains("gzip"));
+    }
+    /**
+     * Выполняет обработчик, преобразуя ошибки в HTTP-ответы, и завершает обмен.
+     */
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            handler.run();
+        } catch (ApiException e) {
+            sendError(exchange, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Ошибка обработки запроса {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, "Внутренняя ошибка сервера");
+        } finally {
+            exchange.close();
+        }
+    }
+    /**
+     * Отправляет ответ с ошибкой, если заголовки еще не были отправлены.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        try {
+            drain(exchange);
+        } catch (IOException e) {
+            // Тело уже прочитано обработчиком
+        }
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.writeString(json, message);
+        sendJson(exchange, status, json.append('}').toString());
+    }
+    /**
+     * Отправляет JSON-ответ известной длины.
+     */
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    /**
+     * Отправляет ответ без тела.
+     */
+    private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+    /**
+     * Возвращает контакт в виде JSON.
+     */
+    private static String contactJson(Contact contact) throws IOException {
+        StringBuilder json = new StringBuilder();
+        Json.writeContact(json, contact);
+        return json.toString();
+    }
+    /**
+     * Находит контакт по имени.
+     *
+     * @throws ApiException 404, если контакта нет
+     */
+    private Contact requireContact(String name) {
+        Contact contact = index.findByName(name);
+        if (contact == null) {
+            throw new ApiException(404, "Контакт не найден: " + name);
+        }
+        return contact;
+    }
+    /**
+     * Проверяет метод запроса.
+     *
+     * @throws ApiException 405, если метод другой
+     */
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!method.equals(exchange.getRequestMethod())) {
+            throw new ApiException(405, "Метод не поддерживается");
+        }
+    }
+    /**
+     * Разбирает номера из JSON-массива; отсутствующий массив означает отсутствие номеров.
+     */
+    private static List<PhoneNumber> parseNumbers(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (!(value instanceof List)) {
+            throw new ApiException(400, "Поле numbers должно быть массивом");
+        }
+        List<PhoneNumber> numbers = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            numbers.add(parseNumber(asObject(item)));
+        }
+        return numbers;
+    }
+    /**
+     * Разбирает номер из объекта {@code {"number": ..., "type": ...}}; тип по умолчанию &mdash; «Мобильный».
+     */
+    private static PhoneNumber parseNumber(Map<String, Object> object) {
+        String number = requireString(object, "number");
+        Object type = object.get("type");
+        return new PhoneNumber(number, type instanceof String ? (String) type : "Мобильный");
+    }
+    /**
+     * Читает тело запроса как JSON-объект.
+     */
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+        return asObject(Json.parse(readBody(exchange)));
+    }
+    /**
+     * Приводит разобранное значение к JSON-объекту.
+     *
+     * @throws ApiException 400, если значение не является объектом
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        if (!(value instanceof Map)) {
+            throw new ApiException(400, "Ожидался JSON-объект");
+        }
+        return (Map<String, Object>) value;
+    }
+    /**
+     * Возвращает обязательное строковое поле объекта.
+     *
+     * @throws ApiException 400, если поля нет или оно не строка
+     */
+    private static String requireString(Map<String, Object> object, String field) {
+        Object value = object.get(field);
+        if (!(value instanceof String)) {
+            throw new ApiException(400, "Не указано поле " + field);
+        }
+        return (String) value;
+    }
+    /**
+     * Читает тело запроса целиком.
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    /**
+     * Дочитывает тело запроса, чтобы соединение можно было использовать повторно.
+     */
+    private static void drain(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+    /**
+     * Возвращает декодированные сегменты пути после префикса контекста.
+     */
+    private static List<String> pathSegments(HttpExchange exchange, String prefix) {
+        String rest = exchange.getRequestURI().getPath().substring(prefix.length());
+        List<String> segments = new ArrayList<>();
+        for (String segment : rest.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+    /**
+     * Разбирает параметры строки запроса.
+     */
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+    /**
+     * Возвращает неотрицательный целочисленный параметр запроса.
+     *
+     * @throws ApiException 400, если значение не является числом
+     */
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Некорректное значение параметра " + name);
+        }
+    }
+    /**
+     * Планирует сохранение; изменения, сделанные до него, записываются одним вызовом.
+     */
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            saver.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    /**
+     * Сохраняет телефонную книгу.
+     */
+    private void save() {
+        savePending.set(false);
+        try {
+            directory.save();
+        } catch (IOException e) {
+            logger.error("Ошибка сохранения контактов из API", e);
+        }
+    }
+    /**
+     * Запускает сервер без графического интерфейса.
+     * Порт задается свойством {@value #PORT_PROPERTY}, хранилище и бюджет памяти
+     * ({@value ContactMemory#BUDGET_PROPERTY}) &mdash; как в приложении.
+     *
+     * @param args не используются
+     * @throws IOException если контакты не удалось загрузить или порт занят
+     */
+    public static void main(String[] args) throws IOException {
+        // Без TCP_NODELAY заголовки и тело ответа на keep-alive соединении уходят разными
+        // сегментами, и алгоритм Нейгла задерживает каждый ответ примерно на 40 мс.
+        // Свойство глобально для JVM, поэтому оно задается только в отдельном процессе сервера
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        Files.createDirectories(Paths.get(ContactStorage.DEFAULT_DIRECTORY));
+        ContactDirectory directory = new ContactDirectory(ContactStorage.open(
+                Paths.get(ContactStorage.DEFAULT_DIRECTORY), Paths.get(ContactStorage.LEGACY_FILE)));
+        directory.load();
+        ContactMemory.install(directory);
+        ApiServer server = new ApiServer(directory, Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "api-shutdown"));
+        server.start();
+    }
+    /**
+     * Обработчик запроса, который может бросать исключения ввода-вывода.
+     */
+    private interface Handler {
+        void run() throws IOException;
+    }
+    /**
+     * Ошибка запроса с HTTP-статусом.
+     */
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = -1846629205730331187L;
+        /** HTTP-статус ответа. */
+        private final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+/**
+ * Блочный формат файла шарда с контрольными суммами и сжатием.
+ * <p>
+ * Файл начинается с заголовка: сигнатуры и кода алгоритма сжатия ({@link Codec}), за которым
+ * следуют блоки. Каждый блок содержит записи о контактах и предваряется маркером
+ * синхронизации, количеством записей, длиной сохраненных данных, длиной данных до сжатия
+ * и контрольной суммой CRC32C сохраненных данных. Сжимается каждый блок отдельно, поэтому
+ * при чтении поврежденный блок пропускается, а разбор продолжается со следующего маркера:
+ * все записи из неповрежденных блоков восстанавливаются.
+ * </p>
+ * <p>
+ * Алгоритм сжатия новых файлов задается системным свойством {@value #CODEC_PROPERTY}
+ * ({@code none} или {@code deflate}); читаются файлы с любым алгоритмом, а также файлы
+ * первой версии формата без сжатия. В третьей версии количество номеров контакта
+ * записывается четырьмя байтами вместо двух, поэтому оно не ограничено 65&nbsp;535. Если разбор выполняется в потоке {@link ForkJoinPool}
+ * (как при загрузке шардов), блоки распаковываются параллельно в этом же пуле.
+ * </p>
+ * <p>
+ * Файл читается из канала блок за блоком: в памяти одновременно находятся только блоки,
+ * которые еще распаковываются, а не весь файл.
+ * </p>
+ * @see ShardedStorage
+ */
+final class BlockFile {
+    /** Логгер для класса BlockFile. */
+    private static final Logger logger = LogManager.getLogger(BlockFile.class);
+    /** Системное свойство, задающее алгоритм сжатия новых файлов. */
+    static final String CODEC_PROPERTY = "telephone.storage.codec";
+    /** Сигнатура файла первой версии без сжатия ("TPB1"). */
+    static final int MAGIC_V1 = 0x54504231;
+    /** Сигнатура файла с кодом алгоритма сжатия и двухбайтовым количеством номеров ("TPB2"). */
+    static final int MAGIC_V2 = 0x54504232;
+    /** Сигнатура файла с кодом алгоритма сжатия и четырехбайтовым количеством номеров ("TPB3"). */
+    static final int MAGIC = 0x54504233;
+    /** Маркер начала блока. */
+    private static final int SYNC = 0x7E1EB10C;
+    /** Размер заголовка блока первой версии: маркер, число записей, длина данных, контрольная сумма. */
+    private static final int BLOCK_HEADER_V1 = 16;
+    /** Размер заголовка блока: маркер, число записей, длина данных, длина до сжатия, контрольная сумма. */
+    private static final int BLOCK_HEADER = 20;
+    /** Максимальное количество записей в одном блоке. */
+    private static final int MAX_RECORDS_PER_BLOCK = 1024;
+    /** Максимальная длина блока до сжатия. */
+    private static final int MAX_RAW_LENGTH = 64 * 1024 * 1024;
+    /** Размер окна поиска маркера блока после поврежденных данных. */
+    private static final int SCAN_WINDOW = 64 * 1024;
+
+    private BlockFile() {
+    }
+    /**
+     * Алгоритм сжатия блоков.
+     */
+    enum Codec {
+        /** Без сжатия. */
+        NONE(0, 64),
+        /** Deflate из JDK ({@link Deflater}) без заголовков zlib. */
+        DEFLATE(1, 1024);
+
+        /** Код алгоритма в заголовке файла. */
+        final int id;
+        /** Количество записей в блоке: крупные блоки сжимаются лучше. */
+        final int recordsPerBlock;
+
+        Codec(int id, int recordsPerBlock) {
+            this.id = id;
+            this.recordsPerBlock = recordsPerBlock;
+        }
+        /**
+         * Возвращает алгоритм по коду из заголовка файла.
+         *
+         * @param id код алгоритма
+         * @return алгоритм
+         * @throws IOException если код неизвестен
+         */
+        static Codec byId(int id) throws IOException {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            throw new IOException("Неизвестный алгоритм сжатия: " + id);
+        }
+        /**
+         * Возвращает алгоритм, заданный свойством {@value #CODEC_PROPERTY}.
+         *
+         * @return алгоритм для новых файлов
+         * @throws IllegalArgumentException если указан неизвестный алгоритм
+         */
+        static Codec configured() {
+            String name = System.getProperty(CODEC_PROPERTY, "none");
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестный алгоритм сжатия: " + name, e);
+            }
+        }
+    }
+    /**
+     * Результат чтения файла шарда.
+     */
+    static final class Contents {
+        /** Прочитанные контакты. */
+        final List<Contact> contacts;
+        /** Количество поврежденных блоков, пропущенных при чтении. */
+        final int corruptBlocks;
+        /** Алгоритм сжатия файла текущей версии формата (null для файлов прежних версий). */
+        final Codec codec;
+
+        Contents(List<Contact> contacts, int corruptBlocks) {
+            this(contacts, corruptBlocks, null);
+        }
+
+        Contents(List<Contact> contacts, int corruptBlocks, Codec codec) {
+            this.contacts = contacts;
+            this.corruptBlocks = corruptBlocks;
+            this.codec = codec;
+        }
+    }
+    /**
+     * Проверяет, записан ли файл в блочном формате. Позиция канала не меняется.
+     *
+     * @param channel канал файла
+     * @return true, если файл начинается с сигнатуры блочного формата любой версии
+     * @throws IOException при ошибке чтения
+     */
+    static boolean isBlockFile(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(4);
+        return readFully(channel, start, 0) == 4 && isMagic(start.getInt(0));
+    }
+    /**
+     * Проверяет, является ли число сигнатурой блочного формата любой версии.
+     */
+    private static boolean isMagic(int magic) {
+        return magic == MAGIC || magic == MAGIC_V2 || magic == MAGIC_V1;
+    }
+    /**
+     * Кодирует список контактов в блочный формат с алгоритмом из {@value #CODEC_PROPERTY}.
+     *
+     * @param contacts контакты для записи
+     * @return содержимое файла
+     * @throws IOException при ошибке кодирования
+     */
+    static byte[] encode(List<Contact> contacts) throws IOException {
+        return encode(contacts, Codec.configured());
+    }
+    /**
+     * Кодирует список контактов в блочный формат.
+     * <p>
+     * Блок закрывается, когда в нем {@link Codec#recordsPerBlock} записей или когда следующая
+     * запись не помещается в {@value #MAX_RAW_LENGTH} байт: блоки больше этого размера при
+     * чтении считаются поврежденными.
+     *
+     * @param contacts контакты для записи
+     * @param codec алгоритм сжатия блоков
+     * @return содержимое файла
+     * @throws IOException при ошибке кодирования или если один контакт занимает больше
+     *         {@value #MAX_RAW_LENGTH} байт
+     */
+    static byte[] encode(List<Contact> contacts, Codec codec) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream(64 + contacts.size() * 48);
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(MAGIC);
+        out.writeByte(codec.id);
+        ByteArrayOutputStream block = new ByteArrayOutputStream(4096);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        CRC32C crc = new CRC32C();
+        Deflater deflater = codec == Codec.DEFLATE ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        try {
+            int count = 0;
+            for (Contact contact : contacts) {
+                record.reset();
+                writeContact(recordOut, contact);
+                recordOut.flush();
+                if (record.size() > MAX_RAW_LENGTH) {
+                    throw new IOException("Контакт '" + contact.getName() + "' занимает " + record.size()
+                            + " байт, больше предельного размера блока " + MAX_RAW_LENGTH);
+                }
+                if (count == codec.recordsPerBlock || count > 0 && block.size() + record.size() > MAX_RAW_LENGTH) {
+                    writeBlock(out, block, count, deflater, crc);
+                    count = 0;
+                }
+                record.writeTo(block);
+                count++;
+            }
+            if (count > 0) {
+                writeBlock(out, block, count, deflater, crc);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        out.flush();
+        return file.toByteArray();
+    }
+    /**
+     * Записывает накопленный блок с заголовком и очищает буфер блока.
+     *
+     * @param out поток файла
+     * @param block данные блока до сжатия
+     * @param count количество записей в блоке
+     * @param deflater компрессор или null, если блоки не сжимаются
+     * @param crc переиспользуемый счетчик контрольной суммы
+     * @throws IOException при ошибке записи
+     */
+    private static void writeBlock(DataOutputStream out, ByteArrayOutputStream block, int count,
+                                   Deflater deflater, CRC32C crc) throws IOException {
+        byte[] raw = block.toByteArray();
+        block.reset();
+        byte[] stored = deflater != null ? deflate(deflater, raw) : raw;
+        crc.reset();
+        crc.update(stored, 0, stored.length);
+        out.writeInt(SYNC);
+        out.writeInt(count);
+        out.writeInt(stored.length);
+        out.writeInt(raw.length);
+        out.writeInt((int) crc.getValue());
+        out.write(stored);
+    }
+    /**
+     * Сжимает данные блока.
+     *
+     * @param deflater компрессор, переиспользуемый между блоками
+     * @param raw данные блока
+     * @return сжатые данные
+     */
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            compressed.write(chunk, 0, n);
+        }
+        return compressed.toByteArray();
+    }
+    /**
+     * Распаковывает данные блока.
+     *
+     * @param data содержимое файла
+     * @param length длина сжатых данных
+     * @param rawLength длина данных до сжатия
+     * @return распакованные данные
+     * @throws IOException если данные не распаковываются или имеют неверную длину
+     */
+    private static byte[] inflate(byte[] data, int length, int rawLength) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, 0, length);
+            byte[] raw = new byte[rawLength];
+            int filled = 0;
+            while (filled < rawLength) {
+                int n = inflater.inflate(raw, filled, rawLength - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += n;
+            }
+            if (filled != rawLength) {
+                throw new IOException("Неверная длина распакованного блока");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Поврежденные сжатые данные блока", e);
+        } finally {
+            inflater.end();
+        }
+    }
+    /**
+     * Декодирует файл блочного формата, пропуская поврежденные блоки.
+     * <p>
+     * Блоки читаются из канала по одному; каждый блок с верной контрольной суммой сразу
+     * отдается на распаковку и разбор &mdash; параллельно, если метод вызван в потоке
+     * {@link ForkJoinPool}, &mdash; и его данные освобождаются после разбора.
+     *
+     * @param channel канал файла
+     * @param name имя файла для сообщений в логе
+     * @return прочитанные контакты и число поврежденных блоков
+     * @throws IOException если у файла неверная сигнатура, неизвестный алгоритм сжатия
+     *         или файл не читается
+     */
+    static Contents decode(FileChannel channel, String name) throws IOException {
+        long size = channel.size();
+        ByteBuffer start = ByteBuffer.allocate(5);
+        int read = readFully(channel, start, 0);
+        if (read < 4 || !isMagic(start.getInt(0))) {
+            throw new IOException("Неверная сигнатура файла " + name);
+        }
+        boolean v1 = start.getInt(0) == MAGIC_V1;
+        boolean shortCounts = start.getInt(0) != MAGIC;
+        if (!v1 && read < 5) {
+            throw new IOException("Обрезанный заголовок файла " + name);
+        }
+        Codec codec = v1 ? Codec.NONE : Codec.byId(start.get(4) & 0xFF);
+        int header = v1 ? BLOCK_HEADER_V1 : BLOCK_HEADER;
+        boolean parallel = ForkJoinTask.inForkJoinPool();
+        List<Block> blocks = new ArrayList<>();
+        ByteBuffer blockHeader = ByteBuffer.allocate(header);
+        CRC32C crc = new CRC32C();
+        int corrupt = 0;
+        long pos = v1 ? 4 : 5;
+        while (pos + header <= size) {
+            blockHeader.clear();
+            readFully(channel, blockHeader, pos);
+            if (blockHeader.getInt(0) != SYNC) {
+                pos = nextSync(channel, pos + 1, size);
+                continue;
+            }
+            int count = blockHeader.getInt(4);
+            int length = blockHeader.getInt(8);
+            int rawLength = v1 ? length : blockHeader.getInt(12);
+            int checksum = blockHeader.getInt(header - 4);
+            long payload = pos + header;
+            boolean valid = count > 0 && count <= MAX_RECORDS_PER_BLOCK
+                    && length >= 0 && length <= size - payload
+                    && rawLength >= 0 && rawLength <= MAX_RAW_LENGTH
+                    && (codec != Codec.NONE || rawLength == length);
+            byte[] data = null;
+            if (valid) {
+                data = new byte[length];
+                valid = readFully(channel, ByteBuffer.wrap(data), payload) == length;
+            }
+            if (valid) {
+                crc.reset();
+                crc.update(data, 0, length);
+                valid = (int) crc.getValue() == checksum;
+            }
+            if (valid) {
+                Block block = new Block(data, codec, shortCounts, pos, length, rawLength, count, name);
+                if (parallel) {
+                    block.fork();
+                } else {
+                    block.invoke();
+                }
+                blocks.add(block);
+                pos = payload + length;
+                continue;
+            }
+            corrupt++;
+            logger.warn("Поврежденный блок по смещению {} в файле {} пропущен", pos, name);
+            pos = nextSync(channel, pos + 1, size);
+        }
+        if (pos < size) {
+            corrupt++;
+            logger.warn("Обрезанный хвост файла {} ({} байт) пропущен", name, size - pos);
+        }
+
+        List<Contact> contacts = new ArrayList<>();
+        for (Block block : blocks) {
+            List<Contact> decoded = parallel ? block.join() : block.getRawResult();
+            if (decoded != null) {
+                contacts.addAll(decoded);
+            } else {
+                corrupt++;
+            }
+        }
+        return new Contents(contacts, corrupt, shortCounts ? null : codec);
+    }
+    /**
+     * Задача распаковки и разбора одного блока с верной контрольной суммой.
+     * Результат равен null, если блок не удалось разобрать.
+     */
+    private static final class Block extends RecursiveTask<List<Contact>> {
+        private static final long serialVersionUID = 2950317754188630521L;
+        /** Данные блока; освобождаются после разбора. */
+        private byte[] data;
+        private final Codec codec;
+        private final boolean shortCounts;
+        private final long pos;
+        private final int length;
+        private final int rawLength;
+        private final int count;
+        private final String name;
+
+        Block(byte[] data, Codec codec, boolean shortCounts, long pos, int length, int rawLength,
+              int count, String name) {
+            this.data = data;
+            this.codec = codec;
+            this.shortCounts = shortCounts;
+            this.pos = pos;
+            this.length = length;
+            this.rawLength = rawLength;
+            this.count = count;
+            this.name = name;
+        }
+
+        @Override
+        protected List<Contact> compute() {
+            try {
+                DataInputStream in;
+                if (codec == Codec.DEFLATE) {
+                    in = new DataInputStream(new ByteArrayInputStream(inflate(data, length, rawLength)));
+                } else {
+                    in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+                }
+                List<Contact> block = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    block.add(readContact(in, shortCounts));
+                }
+                return block;
+            } catch (IOException e) {
+                logger.warn("Не удалось разобрать блок по смещению {} в файле {}", pos, name);
+                return null;
+            } finally {
+                data = null;
+            }
+        }
+    }
+    /**
+     * Ищет ближайший маркер начала блока, читая файл окнами по {@value #SCAN_WINDOW} байт.
+     *
+     * @param channel канал файла
+     * @param from смещение, с которого начинается поиск
+     * @param size размер файла
+     * @return смещение маркера или размер файла, если маркер не найден
+     * @throws IOException при ошибке чтения
+     */
+    private static long nextSync(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW);
+        // Соседние окна перекрываются на 3 байта, чтобы не пропустить маркер на их границе
+        for (long start = from; start + 4 <= size; start += SCAN_WINDOW - 3) {
+            window.clear();
+            int read = readFully(channel, window, start);
+            for (int i = 0; i + 4 <= read; i++) {
+                if (window.getInt(i) == SYNC) {
+                    return start + i;
+                }
+            }
+            if (read < SCAN_WINDOW) {
+                break;
+            }
+        }
+        return size;
+    }
+    /**
+     * Читает данные из канала с указанной позиции, пока буфер не заполнится или файл
+     * не закончится. Позиция канала не меняется.
+     *
+     * @param channel канал файла
+     * @param buffer буфер для данных
+     * @param position смещение в файле
+     * @return количество прочитанных байт
+     * @throws IOException при ошибке чтения
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+    /**
+     * Записывает контакт в поток.
+     *
+     * @param out поток данных
+     * @param contact контакт
+     * @throws IOException при ошибке записи
+     */
+    static void writeContact(DataOutput out, Contact contact) throws IOException {
+        writeString(out, contact.getName());
+        List<PhoneNumber> numbers = contact.peekPhoneNumbers();
+        out.writeInt(numbers.size());
+        for (PhoneNumber number : numbers) {
+            writeString(out, number.getNumber());
+            writeString(out, number.getType());
+        }
+    }
+    /**
+     * Читает контакт из потока.
+     *
+     * @param in поток данных
+     * @param shortCounts количество номеров записано двумя байтами (файлы до третьей версии)
+     * @return прочитанный контакт
+     * @throws IOException при ошибке чтения
+     */
+    static Contact readContact(DataInput in, boolean shortCounts) throws IOException {
+        Contact contact = new Contact(readString(in));
+        int count = shortCounts ? in.readUnsignedShort() : in.readInt();
+        if (count < 0) {
+            throw new IOException("Неверное количество номеров: " + count);
+        }
+        List<PhoneNumber> numbers = new ArrayList<>(Math.min(count, MAX_RECORDS_PER_BLOCK));
+        for (int i = 0; i < count; i++) {
+            numbers.add(new PhoneNumber(readString(in), readString(in)));
+        }
+        contact.setPhoneNumbers(numbers);
+        return contact;
+    }
+    /**
+     * Записывает строку, допускающую значение null.
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    /**
+     * Читает строку, записанную {@link #writeString(DataOutput, String)}.
+     */
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
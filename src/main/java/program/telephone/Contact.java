@@ -1,6 +1,10 @@
 package program.telephone;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -9,12 +13,25 @@ import org.apache.logging.log4j.Logger;
  * <p>
  * Содержит информацию о имени контакта и списке его телефонных номеров.
  * Реализует интерфейс Serializable для возможности сериализации.
+ * </p>
+ * <p>
+ * Список номеров неизменяем: каждое изменение заменяет его новым списком. Поэтому снимок
+ * контакта ({@link #snapshot()}) разделяет список номеров с оригиналом без копирования.
+ * </p>
+ * <p>
+ * Список номеров холодного контакта может быть вытеснен в {@link NumberSpill}
+ * (см. {@link ContactMemory}); {@link #getPhoneNumbers()} прозрачно возвращает его в кучу.
+ * Массовые проходы по книге (поиск, сохранение, индексы) читают номера через
+ * {@link #peekPhoneNumbers()} и {@link #hasNumberContaining(String)}, которые не возвращают
+ * список в кучу и не считаются обращением к контакту.
  * @see PhoneNumber
  * @see Serializable
  * </p>
  */
 
 public class Contact implements Serializable {
+    /** Версия формата сериализации, совпадающая с исходной версией класса. */
+    private static final long serialVersionUID = -4681942908988913811L;
     /**
      * Логгер для класса Contact.
      * <p>
@@ -34,18 +51,49 @@ public class Contact implements Serializable {
      */
     private String name;
     /**
-     * Список телефонных номеров, связанных с контактом.
+     * Неизменяемый список телефонных номеров, связанных с контактом (null, если он вытеснен).
      */
-    private List<PhoneNumber> phoneNumbers;
+    private volatile List<PhoneNumber> phoneNumbers;
+    /** Файл, в который вытеснен список номеров (null, если копии на диске нет). */
+    private transient NumberSpill spill;
+    /** Адрес копии списка номеров в {@link #spill}. */
+    private transient long spillAddress;
+    /** Эпоха последнего обращения к номерам контакта. */
+    private transient volatile int lastAccess = accessEpoch;
+    /**
+     * Номер изменения: растет при каждом изменении имени, номеров или удалении из книги.
+     * Увеличивается только под монитором контакта, читается без блокировки.
+     */
+    private transient volatile int version;
+    /** Текущая эпоха обращений; увеличивается {@link ContactMemory}. */
+    private static volatile int accessEpoch;
     /**
      * Создает новый контакт.
      * @param fullName полное имя контакта
      */
     public Contact(String fullName) {
         this.name = fullName;
-        this.phoneNumbers = new ArrayList<>();
+        this.phoneNumbers = Collections.emptyList();
         logger.debug("Создан новый контакт: {}", fullName);
     }
+    /**
+     * Создает контакт с готовым неизменяемым списком номеров без записи в лог.
+     *
+     * @param name имя контакта
+     * @param phoneNumbers неизменяемый список номеров
+     */
+    private Contact(String name, List<PhoneNumber> phoneNumbers) {
+        this.name = name;
+        this.phoneNumbers = phoneNumbers;
+    }
+    /**
+     * Начинает новую эпоху обращений.
+     *
+     * @return номер новой эпохи
+     */
+    static int advanceAccessEpoch() {
+        return ++accessEpoch;
+    }
     /**
      * Возвращает полное имя контакта.
      *
@@ -58,26 +106,211 @@ public class Contact implements Serializable {
      * @param name новое имя контакта
      */
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.name = name;
+        version++;
+    }
+    /**
+     * Возвращает номер изменения контакта: хранилища сравнивают его с номером при последнем
+     * сохранении, чтобы записывать только измененные контакты.
+     *
+     * @return номер изменения
+     */
+    int getVersion() {
+        return version;
+    }
+    /**
+     * Отмечает изменение контакта, не затрагивающее его поля, например удаление из книги.
+     */
+    synchronized void markChanged() {
+        version++;
     }
     /**
      * Возвращает список телефонных номеров контакта.
      *
-     * @return список объектов PhoneNumber, связанных с этим контактом.
+     * @return неизменяемый список объектов PhoneNumber, связанных с этим контактом.
      *         Если номеров нет, возвращается пустой список (не null).
      */
     public List<PhoneNumber> getPhoneNumbers() {
-        return phoneNumbers;
+        int epoch = accessEpoch;
+        if (lastAccess != epoch) {
+            lastAccess = epoch;
+        }
+        List<PhoneNumber> numbers = phoneNumbers;
+        return numbers != null ? numbers : faultIn();
+    }
+    /**
+     * Возвращает список номеров, не возвращая вытесненный список в кучу и не отмечая обращение.
+     *
+     * @return неизменяемый список номеров
+     */
+    List<PhoneNumber> peekPhoneNumbers() {
+        List<PhoneNumber> numbers = phoneNumbers;
+        if (numbers != null) {
+            return numbers;
+        }
+        synchronized (this) {
+            numbers = phoneNumbers;
+            return numbers != null ? numbers : Collections.unmodifiableList(spill.read(spillAddress));
+        }
+    }
+    /**
+     * Проверяет, содержит ли один из номеров контакта строку; вытесненный список
+     * просматривается прямо в файле.
+     *
+     * @param request искомая строка
+     * @return true, если строка входит в один из номеров
+     */
+    boolean hasNumberContaining(String request) {
+        List<PhoneNumber> numbers = phoneNumbers;
+        if (numbers == null) {
+            synchronized (this) {
+                numbers = phoneNumbers;
+                if (numbers == null) {
+                    return spill.contains(spillAddress, request);
+                }
+            }
+        }
+        for (PhoneNumber number : numbers) {
+            if (number.getNumber().contains(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Возвращает эпоху последнего обращения к номерам контакта.
+     *
+     * @return номер эпохи
+     */
+    int getLastAccess() {
+        return lastAccess;
+    }
+    /**
+     * Проверяет, вытеснен ли список номеров.
+     *
+     * @return true, если номера находятся только в файле вытеснения
+     */
+    boolean isEvicted() {
+        return phoneNumbers == null;
+    }
+    /**
+     * Вытесняет список номеров в файл. Если неизмененная копия списка уже записана
+     * в этот файл, она используется повторно.
+     *
+     * @param target файл вытеснения
+     * @return вытесненный список или null, если вытеснять нечего или список не помещается в файл
+     */
+    synchronized List<PhoneNumber> evict(NumberSpill target) {
+        List<PhoneNumber> numbers = phoneNumbers;
+        if (numbers == null || numbers.isEmpty()) {
+            return null;
+        }
+        if (spill != target) {
+            long address = target.write(numbers);
+            if (address < 0) {
+                return null;
+            }
+            spill = target;
+            spillAddress = address;
+        }
+        phoneNumbers = null;
+        return numbers;
+    }
+    /**
+     * Возвращает вытесненный список номеров в кучу.
+     */
+    private synchronized List<PhoneNumber> faultIn() {
+        List<PhoneNumber> numbers = phoneNumbers;
+        if (numbers == null) {
+            numbers = Collections.unmodifiableList(spill.read(spillAddress));
+            phoneNumbers = numbers;
+            spill.faulted(numbers);
+        }
+        return numbers;
+    }
+    /**
+     * Заменяет список номеров; копия в файле вытеснения становится недействительной.
+     * Вызывается под монитором контакта.
+     */
+    private void replacePhoneNumbers(List<PhoneNumber> numbers) {
+        phoneNumbers = Collections.unmodifiableList(numbers);
+        spill = null;
+        version++;
+    }
+    /**
+     * Заменяет список телефонных номеров контакта.
+     *
+     * @param phoneNumbers новые номера; список копируется
+     */
+    synchronized void setPhoneNumbers(List<PhoneNumber> phoneNumbers) {
+        replacePhoneNumbers(new ArrayList<>(phoneNumbers));
     }
     /**
      * Добавляет новый телефонный номер к контакту.
      * @param phoneNumber номер телефона для добавления
      */
     public void addPhoneNumber(PhoneNumber phoneNumber) {
-        phoneNumbers.add(phoneNumber);
+        insertPhoneNumber(getPhoneNumbers().size(), phoneNumber);
         logger.debug("Добавлен номер телефона: {} (тип: {})", phoneNumber.getNumber(), phoneNumber.getType());
     }
+    /**
+     * Вставляет телефонный номер в указанную позицию списка номеров.
+     *
+     * @param index позиция от 0 до количества номеров включительно
+     * @param phoneNumber номер телефона
+     */
+    synchronized void insertPhoneNumber(int index, PhoneNumber phoneNumber) {
+        List<PhoneNumber> current = getPhoneNumbers();
+        List<PhoneNumber> updated = new ArrayList<>(current.size() + 1);
+        updated.addAll(current);
+        updated.add(index, phoneNumber);
+        replacePhoneNumbers(updated);
+    }
+    /**
+     * Удаляет телефонный номер из указанной позиции списка номеров.
+     *
+     * @param index позиция номера
+     * @return удаленный номер
+     */
+    synchronized PhoneNumber removePhoneNumber(int index) {
+        List<PhoneNumber> updated = new ArrayList<>(getPhoneNumbers());
+        PhoneNumber removed = updated.remove(index);
+        replacePhoneNumbers(updated);
+        return removed;
+    }
+    /**
+     * Возвращает снимок контакта: новый объект с текущим именем и тем же списком номеров.
+     * <p>
+     * Последующие изменения контакта на снимок не влияют, а сам снимок создается за O(1):
+     * снимок вытесненного контакта ссылается на ту же запись в файле вытеснения.
+     *
+     * @return снимок контакта
+     */
+    public synchronized Contact snapshot() {
+        Contact copy = new Contact(name, phoneNumbers);
+        copy.spill = spill;
+        copy.spillAddress = spillAddress;
+        return copy;
+    }
+    /**
+     * Восстанавливает контакт после десериализации, делая список номеров неизменяемым
+     * (в старых файлах он хранится как {@link ArrayList}).
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        phoneNumbers = Collections.unmodifiableList(new ArrayList<>(phoneNumbers));
+        lastAccess = accessEpoch;
+    }
+    /**
+     * Сериализует контакт в прежнем формате; вытесненный список номеров читается из файла.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("phoneNumbers", peekPhoneNumbers());
+        out.writeFields();
+    }
     /**
      * Возвращает строковое представление контакта.
      */
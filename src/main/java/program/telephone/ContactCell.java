@@ -0,0 +1,24 @@
+package program.telephone;
+import javafx.scene.control.ListCell;
+/**
+ * Ячейка списка контактов.
+ * <p>
+ * Показывает имя контакта напрямую, без {@link Contact#toString()} и записи в лог.
+ * Имя &mdash; неизменяемая строка, которая заменяется при переименовании, поэтому она
+ * сама служит версией текста: при прокрутке ячейка только переключает ссылку на строку
+ * и ничего не выделяет, а повторная установка той же строки не вызывает перерисовки.
+ * </p>
+ */
+class ContactCell extends ListCell<Contact> {
+    /**
+     * Обновляет ячейку при смене отображаемого контакта.
+     *
+     * @param item контакт или null
+     * @param empty true, если ячейка пуста
+     */
+    @Override
+    protected void updateItem(Contact item, boolean empty) {
+        super.updateItem(item, empty);
+        setText(empty || item == null ? null : item.getName());
+    }
+}
@@ -0,0 +1,664 @@
+package program.telephone;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+/**
+ * Телефонная книга без пользовательского интерфейса.
+ * <p>
+ * Хранит список контактов, выполняет все изменения над ним с проверками и после каждого
+ * изменения публикует {@link ContactEvent} в {@link ContactEventBus}. Контроллер
+ * {@link PhoneBook} и другие потребители работают с книгой только через этот класс,
+ * поэтому индексы, кэши и внешние подписчики узнают о каждом изменении.
+ * </p>
+ * <p>
+ * Методы класса можно вызывать из нескольких потоков: изменения выполняются под блокировкой
+ * записи, а поиск и проверки &mdash; под блокировкой чтения, поэтому читатели не мешают друг
+ * другу. Синхронные слушатели событий вызываются под блокировкой записи и видят согласованный
+ * список. Если список отображается в JavaFX, изменять его следует из потока JavaFX.
+ * </p>
+ * <p>
+ * Если хранилище &mdash; {@link ShardedStorage}, с тем же каталогом могут работать другие
+ * экземпляры приложения: при сохранении их изменения объединяются с локальными
+ * (см. {@link InstanceSync}), а {@link #watchStorage(Executor)} применяет их сразу после записи.
+ * </p>
+ * @see ContactStorage
+ * @see ContactEventBus
+ */
+public class ContactDirectory {
+    /** Логгер для класса ContactDirectory. */
+    private static final Logger logger = LogManager.getLogger(ContactDirectory.class);
+    /** Параллельный просмотр для проверки уникальности имени. */
+    private static final ParallelScan NAME_CHECK = new ParallelScan("name-check");
+    /** Параллельный просмотр для проверки уникальности номера. */
+    private static final ParallelScan NUMBER_CHECK = new ParallelScan("number-check");
+    /** Хранилище контактов. */
+    private final ContactStorage storage;
+    /** Шина событий изменения. */
+    private final ContactEventBus events = new ContactEventBus();
+    /** Наблюдаемый список контактов. */
+    private final ObservableList<Contact> contacts = FXCollections.observableArrayList();
+    /** Кэш результатов поиска. */
+    private final SearchCache searchCache = new SearchCache(SearchCache.DEFAULT_CAPACITY);
+    /** Блокировка списка контактов. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Согласование с другими экземплярами (null, если хранилище его не поддерживает). */
+    private final InstanceSync sync;
+    /** Признак того, что контакты были загружены из хранилища. */
+    private volatile boolean loaded;
+    /** Индексы по имени и номеру (null, пока не запрошены). */
+    private volatile ContactIndex index;
+    /** Монитор создания индексов. */
+    private final Object indexLock = new Object();
+    /**
+     * Создает телефонную книгу поверх указанного хранилища.
+     *
+     * @param storage хранилище контактов
+     */
+    public ContactDirectory(ContactStorage storage) {
+        this.storage = storage;
+        this.sync = storage instanceof ShardedStorage ? new InstanceSync(this, (ShardedStorage) storage) : null;
+        events.addListener(searchCache::onEvent);
+    }
+    /**
+     * Возвращает наблюдаемый список контактов.
+     * <p>
+     * Список предназначен для отображения; изменять его следует только методами этого класса.
+     *
+     * @return список контактов
+     */
+    public ObservableList<Contact> getContacts() {
+        return contacts;
+    }
+    /**
+     * Возвращает индексы по имени и номеру; они создаются при первом вызове и дальше
+     * обновляются по событиям.
+     *
+     * @return индексы телефонной книги
+     */
+    public ContactIndex getIndex() {
+        ContactIndex current = index;
+        if (current == null) {
+            synchronized (indexLock) {
+                current = index;
+                if (current == null) {
+                    current = new ContactIndex(this);
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+    /**
+     * Возвращает шину событий изменения.
+     *
+     * @return шина событий
+     */
+    public ContactEventBus getEvents() {
+        return events;
+    }
+    /**
+     * Сообщает, загружались ли контакты из хранилища.
+     *
+     * @return true, если {@link #load()} уже вызывался
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+    /**
+     * Сообщает, были ли данные восстановлены после повреждения при загрузке.
+     *
+     * @return true, если хранилище восстановило часть данных
+     */
+    public boolean isRecovered() {
+        return storage.isRecovered();
+    }
+    /**
+     * Загружает контакты из хранилища, заменяя текущий список.
+     *
+     * @throws IOException если данные не удалось прочитать; список при этом остается пустым
+     */
+    public void load() throws IOException {
+        if (sync != null) {
+            sync.load();
+        } else {
+            loadFromStorage();
+        }
+    }
+    /**
+     * Читает контакты из хранилища и заменяет ими текущий список.
+     * Хранилище читается до блокировки списка, чтобы блокировки всегда брались в одном порядке:
+     * согласование экземпляров, хранилище, список.
+     *
+     * @return загруженные контакты
+     * @throws IOException если данные не удалось прочитать; список при этом остается пустым
+     */
+    List<Contact> loadFromStorage() throws IOException {
+        List<Contact> loadedContacts = null;
+        try {
+            loadedContacts = storage.load();
+            return loadedContacts;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                loaded = true;
+                contacts.clear();
+                if (loadedContacts != null) {
+                    contacts.setAll(loadedContacts);
+                    events.publish(ContactEvent.reloaded());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+    /**
+     * Сохраняет непустые контакты в хранилище.
+     * <p>
+     * Если данные в общем каталоге изменил другой экземпляр, его изменения сначала
+     * объединяются с локальными.
+     *
+     * @throws IOException если данные не удалось записать
+     */
+    public void save() throws IOException {
+        if (sync != null) {
+            sync.save(savableContacts());
+        } else {
+            storage.save(savableContacts());
+        }
+    }
+    /**
+     * Возвращает непустые контакты для сохранения.
+     *
+     * @return новый список контактов
+     */
+    List<Contact> savableContacts() {
+        lock.readLock().lock();
+        try {
+            return contacts.stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Начинает применять изменения, которые другие экземпляры приложения записывают
+     * в тот же каталог хранилища.
+     *
+     * @param applier исполнитель, в котором изменяется телефонная книга (для JavaFX &mdash;
+     *                {@code Platform::runLater})
+     * @return объект, закрытие которого останавливает наблюдение
+     * @throws IOException если каталог не удалось наблюдать
+     */
+    public Closeable watchStorage(Executor applier) throws IOException {
+        if (sync == null) {
+            return () -> { };
+        }
+        return sync.watch(applier);
+    }
+    /**
+     * Вытесняет номера копий контактов, которые хранятся для объединения изменений
+     * с другими экземплярами (см. {@link ContactMemory}).
+     *
+     * @param spill файл вытеснения
+     */
+    void evictSyncCopies(NumberSpill spill) {
+        if (sync != null) {
+            sync.evictBase(spill);
+        }
+    }
+    /**
+     * Выполняет несколько изменений атомарно: под одной блокировкой записи и одним пакетом событий.
+     *
+     * @param action действие, вызывающее методы изменения этой телефонной книги
+     */
+    public void batch(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            events.batch(action);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Возвращает копию текущего списка контактов.
+     * <p>
+     * В отличие от {@link #snapshot()}, копия содержит те же объекты контактов, поэтому
+     * результаты поиска по ней можно передавать в методы изменения.
+     *
+     * @return новый список контактов
+     */
+    public List<Contact> copyContacts() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(contacts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Добавляет новый контакт в конец списка.
+     *
+     * @param name имя контакта
+     * @return созданный контакт или {@code Optional.empty()}, если контакт с таким именем
+     *         (без учета регистра) уже существует
+     */
+    public Optional<Contact> addContact(String name) {
+        lock.writeLock().lock();
+        try {
+            boolean exists = NAME_CHECK.anyMatch(contacts, c -> c.getName().equalsIgnoreCase(name));
+            if (exists) {
+                logger.warn("Попытка добавить уже существующий контакт: {}", name);
+                return Optional.empty();
+            }
+            Contact contact = new Contact(name);
+            contacts.add(contact);
+            events.publish(ContactEvent.contactAdded(contact, contacts.size() - 1));
+            return Optional.of(contact);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Вставляет существующий контакт в указанную позицию списка, например при отмене удаления.
+     *
+     * @param index позиция от 0 до размера списка включительно
+     * @param contact контакт
+     */
+    public void insertContact(int index, Contact contact) {
+        lock.writeLock().lock();
+        try {
+            contacts.add(index, contact);
+            contact.markChanged();
+            events.publish(ContactEvent.contactAdded(contact, index));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Переименовывает контакт.
+     *
+     * @param contact контакт
+     * @param newName новое имя
+     */
+    public void renameContact(Contact contact, String newName) {
+        lock.writeLock().lock();
+        try {
+            String oldName = contact.getName();
+            contact.setName(newName);
+            events.publish(ContactEvent.contactRenamed(contact, oldName));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Удаляет контакт из списка.
+     *
+     * @param contact контакт
+     */
+    public void removeContact(Contact contact) {
+        lock.writeLock().lock();
+        try {
+            int index = contacts.indexOf(contact);
+            if (index < 0) {
+                return;
+            }
+            contacts.remove(index);
+            contact.markChanged();
+            events.publish(ContactEvent.contactRemoved(contact, index));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Удаляет несколько контактов за один проход по списку.
+     * <p>
+     * События удаления публикуются одним пакетом в порядке списка; позиция в каждом событии
+     * указана с учетом предыдущих удалений, как при поочередном вызове {@link #removeContact(Contact)}.
+     * Контакты, которых нет в списке, пропускаются.
+     *
+     * @param removed удаляемые контакты
+     * @return количество удаленных контактов
+     */
+    public int removeContacts(Collection<Contact> removed) {
+        Set<Contact> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        targets.addAll(removed);
+        lock.writeLock().lock();
+        try {
+            List<ContactEvent> batch = new ArrayList<>();
+            for (int i = 0; i < contacts.size(); i++) {
+                Contact contact = contacts.get(i);
+                if (targets.contains(contact)) {
+                    batch.add(ContactEvent.contactRemoved(contact, i - batch.size()));
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            // removeAll списка JavaFX удаляет элементы за один проход и одним изменением
+            contacts.removeAll(targets);
+            events.batch(() -> {
+                for (ContactEvent event : batch) {
+                    event.getContact().markChanged();
+                    events.publish(event);
+                }
+            });
+            return batch.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Меняет порядок контактов в списке, например после сортировки.
+     *
+     * @param order те же контакты в новом порядке
+     * @throws IllegalArgumentException если {@code order} содержит другой набор контактов
+     */
+    public void reorder(List<Contact> order) {
+        lock.writeLock().lock();
+        try {
+            Set<Contact> current = Collections.newSetFromMap(new IdentityHashMap<>());
+            current.addAll(contacts);
+            if (order.size() != contacts.size() || !current.containsAll(order)) {
+                throw new IllegalArgumentException("Новый порядок должен содержать те же контакты");
+            }
+            contacts.setAll(order);
+            events.publish(ContactEvent.reordered());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Проверяет валидность номера телефона и его уникальность среди контактов.
+     *
+     * <p>Метод выполняет следующие проверки:
+     * <ol>
+     *   <li>Проверяет, что номер не null и не пустой</li>
+     *   <li>Очищает номер от всех нецифровых символов</li>
+     *   <li>Проверяет соответствие формату номера в зависимости от типа телефона</li>
+     *   <li>Проверяет уникальность номера среди всех контактов (игнорируя текущий контакт);
+     *   большой список контактов просматривается параллельно</li>
+     * </ol>
+     *
+     * @param number проверяемый номер телефона (может содержать нецифровые символы)
+     * @param type тип телефона ("Мобильный", "Домашний", "Рабочий")
+     * @param currentContact текущий контакт, который исключается из проверки на уникальность
+     * @return true если номер валиден и уникален, false в противном случае
+     */
+    public boolean verifyNumber(String number, String type, Contact currentContact) {
+        lock.readLock().lock();
+        try {
+            if (number == null || number.isEmpty()) {
+                return false;
+            }
+
+            String cleanNumber = number.replaceAll("[^0-9]", "");
+
+            boolean formatValid;
+            switch(type) {
+                case "Мобильный":
+                    formatValid = cleanNumber.matches("^[78]\\d{10}$");
+                    break;
+                case "Домашний":
+                    formatValid = cleanNumber.matches("^\\d{6,7}$");
+                    break;
+                case "Рабочий":
+                    formatValid = cleanNumber.matches("^\\d{6,11}$");
+                    break;
+                default:
+                    formatValid = cleanNumber.matches("^\\d{6,11}$");
+            }
+
+            if (!formatValid) {
+                return false;
+            }
+
+            String numberWithoutFirstDigit = cleanNumber.substring(1);
+            boolean duplicate = NUMBER_CHECK.anyMatch(contacts, contact -> {
+                if (contact == currentContact) {
+                    return false;
+                }
+
+                for (PhoneNumber existingNumber : contact.peekPhoneNumbers()) {
+                    String existingCleanNumber = existingNumber.getNumber().replaceAll("[^0-9]", "");
+                    if (existingCleanNumber.length() == cleanNumber.length() &&
+                            existingCleanNumber.substring(1).equals(numberWithoutFirstDigit)) {
+                        return true; // Найден похожий номер
+                    }
+                }
+                return false;
+            });
+
+            return !duplicate;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Добавляет номер контакту, если у него еще нет такого номера.
+     *
+     * @param contact контакт
+     * @param phoneNumber номер
+     * @return true, если номер добавлен; false, если такой номер у контакта уже есть
+     */
+    public boolean addNumber(Contact contact, PhoneNumber phoneNumber) {
+        lock.writeLock().lock();
+        try {
+            boolean exists = contact.getPhoneNumbers().stream()
+                    .anyMatch(n -> n.getNumber().equals(phoneNumber.getNumber()));
+            if (exists) {
+                logger.warn("Попытка добавить уже существующий номер: {}", phoneNumber.getNumber());
+                return false;
+            }
+            contact.addPhoneNumber(phoneNumber);
+            events.publish(ContactEvent.numberAdded(contact, phoneNumber));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Заменяет номер контакта новым; новый номер добавляется в конец списка номеров.
+     *
+     * @param contact контакт
+     * @param oldNumber заменяемый номер
+     * @param newNumber новый номер
+     */
+    public void editNumber(Contact contact, PhoneNumber oldNumber, PhoneNumber newNumber) {
+        lock.writeLock().lock();
+        try {
+            int index = contact.getPhoneNumbers().indexOf(oldNumber);
+            if (index < 0) {
+                return;
+            }
+            contact.removePhoneNumber(index);
+            contact.insertPhoneNumber(contact.getPhoneNumbers().size(), newNumber);
+            events.publish(ContactEvent.numberEdited(contact, oldNumber, newNumber, index));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Удаляет номер у контакта.
+     *
+     * @param contact контакт
+     * @param phoneNumber удаляемый номер
+     */
+    public void removeNumber(Contact contact, PhoneNumber phoneNumber) {
+        lock.writeLock().lock();
+        try {
+            int index = contact.getPhoneNumbers().indexOf(phoneNumber);
+            if (index < 0) {
+                return;
+            }
+            contact.removePhoneNumber(index);
+            events.publish(ContactEvent.numberRemoved(contact, phoneNumber, index));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Вставляет номер в указанную позицию списка номеров контакта, например при отмене удаления.
+     *
+     * @param contact контакт
+     * @param index позиция от 0 до количества номеров включительно
+     * @param phoneNumber номер
+     */
+    public void insertNumber(Contact contact, int index, PhoneNumber phoneNumber) {
+        lock.writeLock().lock();
+        try {
+            contact.insertPhoneNumber(index, phoneNumber);
+            events.publish(ContactEvent.numberAdded(contact, phoneNumber));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    /**
+     * Возвращает согласованный снимок телефонной книги.
+     * <p>
+     * Снимок состоит из снимков контактов ({@link Contact#snapshot()}), которые разделяют
+     * неизменяемые списки номеров с оригиналами, поэтому глубокое копирование не требуется.
+     * Снимок можно передавать фоновым задачам сохранения или поиска.
+     *
+     * @return неизменяемый список снимков контактов
+     */
+    public List<Contact> snapshot() {
+        lock.readLock().lock();
+        try {
+            List<Contact> snapshot = new ArrayList<>(contacts.size());
+            for (Contact contact : contacts) {
+                snapshot.add(contact.snapshot());
+            }
+            return Collections.unmodifiableList(snapshot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Ищет контакты, у которых имя или один из номеров содержит запрос.
+     * <p>
+     * Повторный запрос возвращается из кэша, а уточняющий (например, «ива» после «ив»)
+     * просматривает только закэшированный результат префикса.
+     *
+     * @param request поисковый запрос в нижнем регистре
+     * @return неизменяемый список подходящих контактов в порядке списка
+     * @throws IOException если запрос к хранилищу завершился ошибкой
+     * @see SearchCache
+     */
+    public List<Contact> search(String request) throws IOException {
+        return prepareSearch(request).run(() -> false);
+    }
+    /**
+     * Запускает поиск в фоновом потоке.
+     * <p>
+     * Поиск идет по копии текущего списка (или закэшированного результата префикса),
+     * сделанной в вызывающем потоке, поэтому список можно продолжать изменять. Если результат
+     * уже есть в кэше, возвращается завершенный результат. Когда {@code cancelled} становится
+     * истинным (например, пользователь ввел следующий символ запроса), просмотр прекращается
+     * и результат завершается {@link java.util.concurrent.CancellationException}.
+     *
+     * @param request поисковый запрос в нижнем регистре
+     * @param cancelled признак отмены поиска
+     * @return будущий список подходящих контактов в порядке списка
+     */
+    public CompletableFuture<List<Contact>> searchAsync(String request, BooleanSupplier cancelled) {
+        SearchPlan plan = prepareSearch(request);
+        if (plan.cached != null) {
+            return CompletableFuture.completedFuture(plan.cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return plan.run(cancelled);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ParallelScan.executor());
+    }
+    /**
+     * Выбирает источник для поиска: кэш, результат префикса или весь список.
+     *
+     * @param request поисковый запрос в нижнем регистре
+     * @return план поиска
+     */
+    private SearchPlan prepareSearch(String request) {
+        lock.readLock().lock();
+        try {
+            List<Contact> cached = searchCache.get(request);
+            if (cached != null) {
+                logger.trace("Результат запроса '{}' взят из кэша", request);
+                return new SearchPlan(request, cached, null, null, 0);
+            }
+            long version = searchCache.version();
+            List<Contact> parent = searchCache.findParent(request);
+            if (parent != null) {
+                logger.trace("Запрос '{}' уточняет закэшированный результат из {} контактов", request, parent.size());
+                return new SearchPlan(request, null, parent, null, version);
+            }
+            return new SearchPlan(request, null, null, new ArrayList<>(contacts), version);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * Поиск, подготовленный под блокировкой чтения и выполняемый без нее.
+     */
+    private final class SearchPlan {
+        /** Поисковый запрос. */
+        private final String request;
+        /** Готовый результат из кэша. */
+        private final List<Contact> cached;
+        /** Закэшированный результат префикса, который нужно уточнить. */
+        private final List<Contact> parent;
+        /** Копия всего списка для поиска в хранилище. */
+        private final List<Contact> scope;
+        /** Версия кэша на момент подготовки. */
+        private final long version;
+
+        SearchPlan(String request, List<Contact> cached, List<Contact> parent, List<Contact> scope, long version) {
+            this.request = request;
+            this.cached = cached;
+            this.parent = parent;
+            this.scope = scope;
+            this.version = version;
+        }
+
+        List<Contact> run(BooleanSupplier cancelled) throws IOException {
+            if (cached != null) {
+                return cached;
+            }
+            List<Contact> result = parent != null
+                    ? ContactQueries.search(parent, request, cancelled)
+                    : storage.search(scope, request, cancelled);
+            return searchCache.put(request, result, version);
+        }
+    }
+    /**
+     * Возвращает контакты, отсортированные по имени.
+     *
+     * @param descending true для порядка Я-А, false для А-Я
+     * @return отсортированный список
+     * @throws IOException если запрос к хранилищу завершился ошибкой
+     */
+    public List<Contact> sorted(boolean descending) throws IOException {
+        return storage.sorted(copyContacts(), descending);
+    }
+}
@@ -0,0 +1,211 @@
+package program.telephone;
+/**
+ * Событие изменения телефонной книги.
+ * <p>
+ * Публикуется {@link ContactDirectory} после каждого изменения через {@link ContactEventBus}.
+ * Событие содержит значения до и после изменения, поэтому подписчики могут обновлять
+ * свое состояние инкрементально, не просматривая весь список контактов.
+ * </p>
+ * @see ContactEventBus
+ * @see ContactDirectory
+ */
+public final class ContactEvent {
+    /**
+     * Тип события.
+     */
+    public enum Type {
+        /** Контакт добавлен в позицию {@link #getIndex()}. */
+        CONTACT_ADDED,
+        /** Контакт переименован из {@link #getOldName()} в {@link #getNewName()}. */
+        CONTACT_RENAMED,
+        /** Контакт удален из позиции {@link #getIndex()}. */
+        CONTACT_REMOVED,
+        /** Номер {@link #getNumber()} добавлен контакту. */
+        NUMBER_ADDED,
+        /** Номер {@link #getOldNumber()} из позиции {@link #getIndex()} заменен на {@link #getNumber()}. */
+        NUMBER_EDITED,
+        /** Номер {@link #getNumber()} удален из позиции {@link #getIndex()}. */
+        NUMBER_REMOVED,
+        /** Список контактов полностью заменен (например, загружен из хранилища). */
+        RELOADED,
+        /** Изменился только порядок контактов в списке (например, после сортировки). */
+        REORDERED,
+        /** Пакет содержит изменения другого экземпляра приложения, прочитанные из хранилища. */
+        SYNCED
+    }
+    /** Тип события. */
+    private final Type type;
+    /** Измененный контакт (null для {@link Type#RELOADED}, {@link Type#REORDERED} и {@link Type#SYNCED}). */
+    private final Contact contact;
+    /** Позиция контакта в списке или номера в списке номеров (-1, если не применимо). */
+    private final int index;
+    /** Прежнее имя контакта (для переименования). */
+    private final String oldName;
+    /** Новое имя контакта (для переименования). */
+    private final String newName;
+    /** Добавленный, новый или удаленный номер. */
+    private final PhoneNumber number;
+    /** Прежний номер (для редактирования). */
+    private final PhoneNumber oldNumber;
+
+    private ContactEvent(Type type, Contact contact, int index, String oldName,
+                         PhoneNumber number, PhoneNumber oldNumber) {
+        this.type = type;
+        this.contact = contact;
+        this.index = index;
+        this.oldName = oldName;
+        this.newName = type == Type.CONTACT_RENAMED ? contact.getName() : null;
+        this.number = number;
+        this.oldNumber = oldNumber;
+    }
+    /**
+     * Создает событие добавления контакта.
+     *
+     * @param contact добавленный контакт
+     * @param index позиция контакта в списке
+     * @return событие
+     */
+    public static ContactEvent contactAdded(Contact contact, int index) {
+        return new ContactEvent(Type.CONTACT_ADDED, contact, index, null, null, null);
+    }
+    /**
+     * Создает событие переименования контакта.
+     *
+     * @param contact контакт с уже измененным именем
+     * @param oldName прежнее имя
+     * @return событие
+     */
+    public static ContactEvent contactRenamed(Contact contact, String oldName) {
+        return new ContactEvent(Type.CONTACT_RENAMED, contact, -1, oldName, null, null);
+    }
+    /**
+     * Создает событие удаления контакта.
+     *
+     * @param contact удаленный контакт
+     * @param index позиция, которую контакт занимал в списке
+     * @return событие
+     */
+    public static ContactEvent contactRemoved(Contact contact, int index) {
+        return new ContactEvent(Type.CONTACT_REMOVED, contact, index, null, null, null);
+    }
+    /**
+     * Создает событие добавления номера.
+     *
+     * @param contact контакт
+     * @param number добавленный номер
+     * @return событие
+     */
+    public static ContactEvent numberAdded(Contact contact, PhoneNumber number) {
+        return new ContactEvent(Type.NUMBER_ADDED, contact, -1, null, number, null);
+    }
+    /**
+     * Создает событие замены номера.
+     *
+     * @param contact контакт
+     * @param oldNumber прежний номер
+     * @param number новый номер
+     * @param index позиция, которую прежний номер занимал в списке номеров контакта
+     * @return событие
+     */
+    public static ContactEvent numberEdited(Contact contact, PhoneNumber oldNumber, PhoneNumber number, int index) {
+        return new ContactEvent(Type.NUMBER_EDITED, contact, index, null, number, oldNumber);
+    }
+    /**
+     * Создает событие удаления номера.
+     *
+     * @param contact контакт
+     * @param number удаленный номер
+     * @param index позиция, которую номер занимал в списке номеров контакта
+     * @return событие
+     */
+    public static ContactEvent numberRemoved(Contact contact, PhoneNumber number, int index) {
+        return new ContactEvent(Type.NUMBER_REMOVED, contact, index, null, number, null);
+    }
+    /**
+     * Создает событие полной замены списка контактов.
+     *
+     * @return событие
+     */
+    public static ContactEvent reloaded() {
+        return new ContactEvent(Type.RELOADED, null, -1, null, null, null);
+    }
+    /**
+     * Создает событие изменения порядка контактов.
+     *
+     * @return событие
+     */
+    public static ContactEvent reordered() {
+        return new ContactEvent(Type.REORDERED, null, -1, null, null, null);
+    }
+    /**
+     * Создает событие-метку пакета изменений другого экземпляра.
+     *
+     * @return событие
+     */
+    public static ContactEvent synced() {
+        return new ContactEvent(Type.SYNCED, null, -1, null, null, null);
+    }
+    /**
+     * Возвращает тип события.
+     *
+     * @return тип события
+     */
+    public Type getType() {
+        return type;
+    }
+    /**
+     * Возвращает измененный контакт.
+     *
+     * @return контакт или null для {@link Type#RELOADED} и {@link Type#REORDERED}
+     */
+    public Contact getContact() {
+        return contact;
+    }
+    /**
+     * Возвращает позицию контакта в списке контактов или номера в списке номеров.
+     *
+     * @return позиция или -1, если для события она не определена
+     */
+    public int getIndex() {
+        return index;
+    }
+    /**
+     * Возвращает прежнее имя контакта.
+     *
+     * @return прежнее имя для {@link Type#CONTACT_RENAMED}, иначе null
+     */
+    public String getOldName() {
+        return oldName;
+    }
+    /**
+     * Возвращает новое имя контакта на момент события.
+     *
+     * @return новое имя для {@link Type#CONTACT_RENAMED}, иначе null
+     */
+    public String getNewName() {
+        return newName;
+    }
+    /**
+     * Возвращает добавленный, новый или удаленный номер.
+     *
+     * @return номер или null, если событие не касается номеров
+     */
+    public PhoneNumber getNumber() {
+        return number;
+    }
+    /**
+     * Возвращает прежний номер.
+     *
+     * @return прежний номер для {@link Type#NUMBER_EDITED}, иначе null
+     */
+    public PhoneNumber getOldNumber() {
+        return oldNumber;
+    }
+    /**
+     * Возвращает строковое представление события для логирования.
+     */
+    @Override
+    public String toString() {
+        return type + (contact != null ? " " + contact.getName() : "");
+    }
+}
@@ -0,0 +1,275 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+/**
+ * Шина событий изменения телефонной книги.
+ * <p>
+ * Поддерживает два вида получателей:
+ * <ul>
+ *   <li>синхронные слушатели ({@link #addListener(Consumer)}) вызываются в потоке, выполнившем
+ *   изменение, сразу после него &mdash; для индексов и кэшей, которые должны быть согласованы
+ *   со списком контактов;</li>
+ *   <li>асинхронные подписчики {@link Flow.Subscriber} получают события пакетами через
+ *   {@link SubmissionPublisher} с ограниченным буфером. Публикация выполняется под блокировкой
+ *   записи телефонной книги, часто в потоке JavaFX, поэтому она никогда не ждет подписчиков:
+ *   если подписчик отстал на {@code bufferCapacity} пакетов, новый пакет для него
+ *   пропускается, а в лог записывается предупреждение (см. {@link #getDroppedBatches()}).
+ *   Пропуск никогда не бывает незаметным: вместо следующего пакета подписчик получает
+ *   {@code onError} с {@link OverflowException}, и его подписка отменяется. Чтобы снова
+ *   получать события, подписчик должен подписаться заново и перечитать книгу.</li>
+ * </ul>
+ * События, опубликованные внутри {@link #batch(Runnable)}, доставляются подписчикам одним пакетом.
+ * Синхронные слушатели пакетов ({@link #addBatchListener(Consumer)}) получают каждый
+ * завершенный пакет целиком, например чтобы отменять его как одно действие.
+ * </p>
+ * @see ContactEvent
+ */
+public class ContactEventBus implements Flow.Publisher<List<ContactEvent>>, AutoCloseable {
+    /** Логгер для класса ContactEventBus. */
+    private static final Logger logger = LogManager.getLogger(ContactEventBus.class);
+    /** Размер буфера подписчика по умолчанию (в пакетах). */
+    public static final int DEFAULT_BUFFER_CAPACITY = 256;
+    /** Синхронные слушатели. */
+    private final List<Consumer<ContactEvent>> listeners = new CopyOnWriteArrayList<>();
+    /** Синхронные слушатели завершенных пакетов. */
+    private final List<Consumer<List<ContactEvent>>> batchListeners = new CopyOnWriteArrayList<>();
+    /** Издатель для асинхронных подписчиков. */
+    private final SubmissionPublisher<List<ContactEvent>> publisher;
+    /** Количество пакетов, пропущенных для отставших подписчиков. */
+    private final AtomicLong droppedBatches = new AtomicLong();
+    /** Накопленные события текущего пакета для каждого потока. */
+    private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(Batch::new);
+    /**
+     * Создает шину с буфером по умолчанию.
+     */
+    public ContactEventBus() {
+        this(DEFAULT_BUFFER_CAPACITY);
+    }
+    /**
+     * Создает шину с указанным размером буфера подписчика.
+     *
+     * @param bufferCapacity максимальное количество недоставленных пакетов на подписчика
+     */
+    public ContactEventBus(int bufferCapacity) {
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "contact-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+    }
+    /**
+     * Регистрирует синхронного слушателя.
+     *
+     * @param listener слушатель, вызываемый для каждого события
+     */
+    public void addListener(Consumer<ContactEvent> listener) {
+        listeners.add(listener);
+    }
+    /**
+     * Удаляет синхронного слушателя.
+     *
+     * @param listener ранее зарегистрированный слушатель
+     */
+    public void removeListener(Consumer<ContactEvent> listener) {
+        listeners.remove(listener);
+    }
+    /**
+     * Регистрирует синхронного слушателя завершенных пакетов.
+     * <p>
+     * Событие, опубликованное вне {@link #batch(Runnable)}, передается как пакет из одного события.
+     *
+     * @param listener слушатель, вызываемый для каждого пакета
+     */
+    public void addBatchListener(Consumer<List<ContactEvent>> listener) {
+        batchListeners.add(listener);
+    }
+    /**
+     * Подписывает асинхронного получателя пакетов событий.
+     * <p>
+     * Если для подписчика пришлось пропустить пакет, он получает {@code onError} с
+     * {@link OverflowException} и больше событий по этой подписке не получает.
+     *
+     * @param subscriber подписчик
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<ContactEvent>> subscriber) {
+        publisher.subscribe(new GuardedSubscriber(subscriber));
+    }
+    /**
+     * Публикует событие.
+     * <p>
+     * Синхронные слушатели вызываются немедленно. Подписчикам событие доставляется сразу
+     * или в составе пакета, если публикация идет внутри {@link #batch(Runnable)}.
+     *
+     * @param event событие
+     */
+    public void publish(ContactEvent event) {
+        logger.trace("Событие: {}", event);
+        for (Consumer<ContactEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                logger.error("Ошибка в обработчике события {}", event, e);
+            }
+        }
+        Batch batch = batches.get();
+        if (batch.depth > 0) {
+            batch.events.add(event);
+        } else {
+            submit(Collections.singletonList(event));
+        }
+    }
+    /**
+     * Выполняет действие, собирая все опубликованные в нем события в один пакет.
+     * Вложенные вызовы объединяются с внешним пакетом.
+     *
+     * @param action действие, изменяющее телефонную книгу
+     */
+    public void batch(Runnable action) {
+        Batch batch = batches.get();
+        batch.depth++;
+        try {
+            action.run();
+        } finally {
+            if (--batch.depth == 0 && !batch.events.isEmpty()) {
+                List<ContactEvent> events = batch.events;
+                batch.events = new ArrayList<>();
+                submit(Collections.unmodifiableList(events));
+            }
+        }
+    }
+    /**
+     * Передает пакет слушателям пакетов и асинхронным подписчикам, если они есть.
+     *
+     * @param events пакет событий
+     */
+    private void submit(List<ContactEvent> events) {
+        for (Consumer<List<ContactEvent>> listener : batchListeners) {
+            try {
+                listener.accept(events);
+            } catch (RuntimeException e) {
+                logger.error("Ошибка в обработчике пакета событий", e);
+            }
+        }
+        if (publisher.hasSubscribers()) {
+            publisher.offer(events, (subscriber, dropped) -> {
+                ((GuardedSubscriber) subscriber).overflow();
+                long total = droppedBatches.incrementAndGet();
+                // Отставший подписчик пропускает пакеты подряд: в лог попадает первый и каждый тысячный
+                if (total == 1 || total % 1_000 == 0) {
+                    logger.warn("Подписчик {} не успевает обрабатывать события, пакет из {} событий пропущен "
+                            + "(всего пропущено {})", subscriber, dropped.size(), total);
+                }
+                return false;
+            });
+        }
+    }
+    /**
+     * Возвращает количество пакетов, пропущенных для подписчиков с заполненным буфером.
+     *
+     * @return количество пропущенных пакетов
+     */
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+    /**
+     * Завершает доставку: подписчики получают {@code onComplete} после оставшихся пакетов.
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+    /**
+     * Подписчик пропустил пакет событий, потому что его буфер был заполнен.
+     */
+    public static final class OverflowException extends RuntimeException {
+        private static final long serialVersionUID = -3370516233480581216L;
+
+        OverflowException(String message) {
+            super(message);
+        }
+    }
+    /**
+     * Обертка подписчика, сообщающая ему о пропущенных пакетах.
+     * <p>
+     * Пакет пропускается в потоке публикации, а {@code onError} должен вызываться в потоке
+     * доставки, последовательно с {@code onNext}. Поэтому пропуск только отмечается, а при
+     * следующей доставке (после пропуска буфер подписчика заполнен, так что она обязательно
+     * будет) подписка отменяется и подписчик получает ошибку вместо пакета.
+     */
+    private static final class GuardedSubscriber implements Flow.Subscriber<List<ContactEvent>> {
+        /** Исходный подписчик. */
+        private final Flow.Subscriber<? super List<ContactEvent>> delegate;
+        /** Признак пропущенного пакета. */
+        private final AtomicBoolean overflowed = new AtomicBoolean();
+        /** Подписка издателя. */
+        private volatile Flow.Subscription subscription;
+        /** Признак завершения: подписчик получил onError или onComplete. */
+        private boolean done;
+
+        GuardedSubscriber(Flow.Subscriber<? super List<ContactEvent>> delegate) {
+            this.delegate = delegate;
+        }
+        /**
+         * Отмечает, что для подписчика пропущен пакет; вызывается в потоке публикации.
+         */
+        void overflow() {
+            overflowed.set(true);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ContactEvent> events) {
+            if (done) {
+                return;
+            }
+            if (overflowed.get()) {
+                done = true;
+                subscription.cancel();
+                delegate.onError(new OverflowException("Подписчик не успевал обрабатывать события, "
+                        + "часть пакетов пропущена; нужно подписаться заново и перечитать книгу"));
+                return;
+            }
+            delegate.onNext(events);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!done) {
+                done = true;
+                delegate.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!done) {
+                done = true;
+                delegate.onComplete();
+            }
+        }
+    }
+    /**
+     * Состояние пакета в одном потоке.
+     */
+    private static final class Batch {
+        /** Глубина вложенности вызовов {@link #batch(Runnable)}. */
+        int depth;
+        /** Накопленные события. */
+        List<ContactEvent> events = new ArrayList<>();
+    }
+}
@@ -0,0 +1,167 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Индексы контактов по имени и по номеру телефона.
+ * <p>
+ * Индексы обновляются синхронным слушателем {@link ContactEventBus} под блокировкой записи
+ * {@link ContactDirectory}, поэтому всегда согласованы со списком контактов, а поиск по ним
+ * выполняется за O(1) без блокировок. Номера индексируются по ключу
+ * {@link Deduplicator#normalizeNumber(String)}, так что обратный поиск находит номер
+ * в любой записи («+7 900 111-22-33» и «89001112233»).
+ * </p>
+ */
+public class ContactIndex {
+    /** Логгер для класса ContactIndex. */
+    private static final Logger logger = LogManager.getLogger(ContactIndex.class);
+    /** Телефонная книга. */
+    private final ContactDirectory directory;
+    /** Имя в нижнем регистре -> контакты с этим именем. */
+    private final Map<String, List<Contact>> byName = new ConcurrentHashMap<>();
+    /** Ключ номера -> контакты с этим номером. */
+    private final Map<String, List<Contact>> byNumber = new ConcurrentHashMap<>();
+    /**
+     * Создает индексы, заполняет их текущим списком и подписывает на события.
+     *
+     * @param directory телефонная книга
+     */
+    public ContactIndex(ContactDirectory directory) {
+        this.directory = directory;
+        directory.batch(() -> {
+            rebuild();
+            directory.getEvents().addListener(this::onEvent);
+        });
+    }
+    /**
+     * Находит контакт по имени без учета регистра.
+     *
+     * @param name имя контакта
+     * @return контакт или null, если такого нет
+     */
+    public Contact findByName(String name) {
+        List<Contact> found = byName.get(name.toLowerCase(Locale.ROOT));
+        return found == null || found.isEmpty() ? null : found.get(0);
+    }
+    /**
+     * Находит контакты, у которых есть указанный номер.
+     *
+     * @param number номер в любой записи
+     * @return контакты с этим номером (возможно, пустой список)
+     */
+    public List<Contact> findByNumber(String number) {
+        String key = Deduplicator.normalizeNumber(number);
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        return byNumber.getOrDefault(key, Collections.emptyList());
+    }
+    /**
+     * Обновляет индексы по событию изменения.
+     *
+     * @param event событие
+     */
+    private void onEvent(ContactEvent event) {
+        Contact contact = event.getContact();
+        switch (event.getType()) {
+            case CONTACT_ADDED:
+                add(byName, nameKey(contact.getName()), contact);
+                for (PhoneNumber number : contact.peekPhoneNumbers()) {
+                    add(byNumber, Deduplicator.normalizeNumber(number.getNumber()), contact);
+                }
+                break;
+            case CONTACT_REMOVED:
+                remove(byName, nameKey(contact.getName()), contact);
+                for (PhoneNumber number : contact.peekPhoneNumbers()) {
+                    remove(byNumber, Deduplicator.normalizeNumber(number.getNumber()), contact);
+                }
+                break;
+            case CONTACT_RENAMED:
+                remove(byName, nameKey(event.getOldName()), contact);
+                add(byName, nameKey(event.getNewName()), contact);
+                break;
+            case NUMBER_ADDED:
+                add(byNumber, Deduplicator.normalizeNumber(event.getNumber().getNumber()), contact);
+                break;
+            case NUMBER_EDITED:
+                removeNumber(contact, event.getOldNumber());
+                add(byNumber, Deduplicator.normalizeNumber(event.getNumber().getNumber()), contact);
+                break;
+            case NUMBER_REMOVED:
+                removeNumber(contact, event.getNumber());
+                break;
+            case RELOADED:
+                rebuild();
+                break;
+            default:
+                break;
+        }
+    }
+    /**
+     * Убирает контакт из индекса номера, если у контакта не осталось других номеров с тем же ключом.
+     */
+    private void removeNumber(Contact contact, PhoneNumber number) {
+        String key = Deduplicator.normalizeNumber(number.getNumber());
+        boolean stillHas = contact.peekPhoneNumbers().stream()
+                .anyMatch(n -> key != null && key.equals(Deduplicator.normalizeNumber(n.getNumber())));
+        if (!stillHas) {
+            remove(byNumber, key, contact);
+        }
+    }
+    /**
+     * Перестраивает индексы по текущему списку контактов.
+     */
+    private void rebuild() {
+        byName.clear();
+        byNumber.clear();
+        for (Contact contact : directory.getContacts()) {
+            add(byName, nameKey(contact.getName()), contact);
+            for (PhoneNumber number : contact.peekPhoneNumbers()) {
+                add(byNumber, Deduplicator.normalizeNumber(number.getNumber()), contact);
+            }
+        }
+        logger.debug("Индексы перестроены: {} имен, {} номеров", byName.size(), byNumber.size());
+    }
+    /**
+     * Возвращает ключ имени: имя в нижнем регистре.
+     */
+    private static String nameKey(String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+    /**
+     * Добавляет контакт в список ключа; списки неизменяемы и заменяются целиком,
+     * чтобы читатели без блокировок видели согласованное состояние.
+     */
+    private static void add(Map<String, List<Contact>> index, String key, Contact contact) {
+        if (key == null) {
+            return;
+        }
+        index.compute(key, (k, list) -> {
+            if (list != null && list.contains(contact)) {
+                return list;
+            }
+            List<Contact> next = list == null ? new ArrayList<>(1) : new ArrayList<>(list);
+            next.add(contact);
+            return Collections.unmodifiableList(next);
+        });
+    }
+    /**
+     * Удаляет контакт из списка ключа; пустые списки удаляются из индекса.
+     */
+    private static void remove(Map<String, List<Contact>> index, String key, Contact contact) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (k, list) -> {
+            List<Contact> next = new ArrayList<>(list);
+            next.removeIf(c -> c == contact);
+            return next.isEmpty() ? null : Collections.unmodifiableList(next);
+        });
+    }
+}
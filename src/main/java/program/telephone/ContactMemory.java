@@ -0,0 +1,508 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+/**
+ * Учет памяти, занятой контактами, и вытеснение холодных номеров при превышении бюджета.
+ * <p>
+ * Ведет оценку памяти контактов в куче ({@link #estimate(Contact)}) и публикует ее через JMX
+ * ({@link ContactMemoryMXBean}). Оценка обновляется по событиям телефонной книги и при
+ * возврате вытесненных списков в кучу, поэтому контакты не просматриваются, пока бюджет
+ * не превышен; целиком оценка пересчитывается только при загрузке книги и перед вытеснением.
+ * Возвраты в кучу копий контактов, не входящих в книгу, тоже учитываются, так что между
+ * пересчетами оценка может быть завышена, но не занижена. Раз в секунду начинается новая
+ * эпоха обращений и, если задан бюджет
+ * ({@value #BUDGET_PROPERTY}, например {@code 256m} или {@code 30%} от максимального размера
+ * кучи) и оценка его превышает, списки номеров контактов, к которым не обращались
+ * {@value #COLD_EPOCHS} секунды и дольше, вытесняются в {@link NumberSpill}, пока оценка
+ * не опустится до {@value #LOW_WATER_PERCENT}% бюджета. Контакты просматриваются по кругу
+ * с места, где остановился предыдущий проход, поэтому вытесняются равномерно. Если холодных
+ * контактов не хватает, вытесняются и недавно использованные.
+ * </p>
+ * <p>
+ * Имена остаются в куче: по ним работают список в интерфейсе, индексы и поиск. Вытесненный
+ * список возвращается в кучу при первом обращении через {@link Contact#getPhoneNumbers()};
+ * поиск, проверки и сохранение читают его прямо из файла. Копии контактов, которые
+ * {@link InstanceSync} хранит для объединения изменений, вытесняются вместе с ними.
+ * </p>
+ */
+final class ContactMemory implements ContactMemoryMXBean, Closeable {
+    /** Логгер для класса ContactMemory. */
+    private static final Logger logger = LogManager.getLogger(ContactMemory.class);
+    /** Системное свойство с бюджетом памяти для контактов. */
+    static final String BUDGET_PROPERTY = "telephone.memory.budget";
+    /** Имя объекта JMX. */
+    static final String OBJECT_NAME = "program.telephone:type=ContactMemory";
+    /** Период проверки бюджета (мс). */
+    private static final long INTERVAL_MS = 1_000;
+    /** Сколько периодов без обращений контакт должен пролежать, чтобы считаться холодным. */
+    private static final int COLD_EPOCHS = 2;
+    /** До какой доли бюджета (в процентах) вытесняются номера. */
+    private static final int LOW_WATER_PERCENT = 90;
+    /** Размер объекта Contact вместе с его ячейкой в списке контактов. */
+    private static final long CONTACT_BYTES = 40 + 4;
+    /** Размер объекта PhoneNumber без строк. */
+    private static final long NUMBER_BYTES = 24;
+    /** Размер неизменяемой обертки вместе с ArrayList без массива. */
+    private static final long LIST_BYTES = 16 + 24;
+    /** Длина разделителя в тексте номера для отображения ({@code "Тип: Номер"}). */
+    private static final int DISPLAY_SEPARATOR_LENGTH = 2;
+    /** Размер объекта String без массива. */
+    private static final long STRING_BYTES = 24;
+    /** Заголовок массива. */
+    private static final long ARRAY_HEADER_BYTES = 16;
+    /** Телефонная книга. */
+    private final ContactDirectory directory;
+    /** Поток проверки бюджета и вытеснения. */
+    private final ScheduledExecutorService timer;
+    /** Слушатель событий телефонной книги, обновляющий оценку. */
+    private final Consumer<ContactEvent> listener = this::apply;
+    /** Имя, под которым объект зарегистрирован в JMX (null, если не зарегистрирован). */
+    private ObjectName registeredName;
+    /** Бюджет в байтах; 0 &mdash; без ограничения. */
+    private volatile long budgetBytes;
+    /** Файл вытеснения (создается при первом вытеснении). */
+    private volatile NumberSpill spill;
+    /** Позиция, с которой продолжается круговой просмотр контактов. */
+    private int cursor;
+    /** Признак того, что о невозможности уложиться в бюджет уже сообщено. */
+    private boolean overBudgetReported;
+    /** Количество контактов. */
+    private final AtomicInteger contactCount = new AtomicInteger();
+    /** Оценка памяти контактов. */
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    /** Количество контактов с вытесненными номерами. */
+    private final AtomicInteger evictedContacts = new AtomicInteger();
+    /** Общее количество вытеснений. */
+    private volatile long evictions;
+    /**
+     * Создает учет памяти для телефонной книги; оценка начинается после {@link #start()}.
+     *
+     * @param directory телефонная книга
+     * @param budgetBytes бюджет в байтах; 0 &mdash; только оценка
+     */
+    ContactMemory(ContactDirectory directory, long budgetBytes) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-budget");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    /**
+     * Создает учет памяти с бюджетом из {@value #BUDGET_PROPERTY}, регистрирует его в JMX
+     * и запускает.
+     *
+     * @param directory телефонная книга
+     * @return запущенный учет памяти
+     * @throws IllegalArgumentException если бюджет задан неверно
+     */
+    static ContactMemory install(ContactDirectory directory) {
+        ContactMemory memory = new ContactMemory(directory, parseBudget(System.getProperty(BUDGET_PROPERTY)));
+        memory.register();
+        memory.start();
+        return memory;
+    }
+    /**
+     * Разбирает размер бюджета: число байт с необязательным суффиксом {@code k}, {@code m},
+     * {@code g} или процент от максимального размера кучи.
+     *
+     * @param value значение свойства (null или пустая строка &mdash; без ограничения)
+     * @return бюджет в байтах
+     * @throws IllegalArgumentException если значение не удалось разобрать
+     */
+    static long parseBudget(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        try {
+            if (text.endsWith("%")) {
+                double percent = Double.parseDouble(text.substring(0, text.length() - 1));
+                return (long) (Runtime.getRuntime().maxMemory() * percent / 100);
+            }
+            long unit = 1;
+            switch (text.charAt(text.length() - 1)) {
+                case 'k':
+                    unit = 1L << 10;
+                    break;
+                case 'm':
+                    unit = 1L << 20;
+                    break;
+                case 'g':
+                    unit = 1L << 30;
+                    break;
+                default:
+                    break;
+            }
+            String number = unit == 1 ? text : text.substring(0, text.length() - 1);
+            return Math.multiplyExact(Long.parseLong(number.trim()), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Неверный бюджет памяти " + BUDGET_PROPERTY + ": " + value, e);
+        }
+    }
+    /**
+     * Регистрирует объект в JMX; если имя занято другой телефонной книгой, добавляет номер.
+     */
+    void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (int id = 1; registeredName == null; id++) {
+                ObjectName name = new ObjectName(id == 1 ? OBJECT_NAME : OBJECT_NAME + ",id=" + id);
+                try {
+                    server.registerMBean(this, name);
+                    registeredName = name;
+                } catch (InstanceAlreadyExistsException e) {
+                    logger.debug("Имя JMX {} занято", name);
+                }
+            }
+        } catch (JMException e) {
+            logger.warn("Не удалось зарегистрировать показатели памяти в JMX", e);
+        }
+    }
+    /**
+     * Подписывается на события телефонной книги, выполняет первую оценку и запускает
+     * периодическую проверку бюджета.
+     */
+    void start() {
+        directory.getEvents().addListener(listener);
+        // Под блокировкой записи оценка согласована с событиями, пришедшими после подписки
+        directory.batch(() -> recount(directory.getContacts()));
+        timer.scheduleWithFixedDelay(this::enforceQuietly, 0, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        logger.info("Учет памяти контактов запущен, бюджет: {}",
+                budgetBytes > 0 ? budgetBytes + " байт" : "не задан");
+    }
+    /**
+     * Останавливает оценку и снимает регистрацию в JMX. Вытесненные номера остаются
+     * доступными: файл вытеснения удаляется при завершении процесса.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        directory.getEvents().removeListener(listener);
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                logger.debug("Не удалось снять регистрацию {}", registeredName, e);
+            }
+            registeredName = null;
+        }
+    }
+    /**
+     * Выполняет {@link #enforce()}, записывая ошибку в лог: исключение остановило бы
+     * периодический запуск.
+     */
+    private void enforceQuietly() {
+        try {
+            enforce();
+        } catch (RuntimeException e) {
+            logger.error("Ошибка учета памяти контактов", e);
+        }
+    }
+    /**
+     * Начинает новую эпоху обращений и, если оценка превышает бюджет, уточняет ее
+     * по списку контактов и вытесняет номера.
+     */
+    synchronized void enforce() {
+        int epoch = Contact.advanceAccessEpoch();
+        long budget = budgetBytes;
+        if (budget <= 0 || estimatedBytes.get() <= budget) {
+            overBudgetReported = false;
+            return;
+        }
+        if (!openSpill()) {
+            return;
+        }
+        long before = estimatedBytes.get();
+        int evictedBefore = evictedContacts.get();
+        List<Contact> contacts = directory.copyContacts();
+        long total = 0;
+        int evicted = 0;
+        for (Contact contact : contacts) {
+            total += estimate(contact);
+            if (contact.isEvicted()) {
+                evicted++;
+            }
+        }
+        // Поправка, а не замена: изменения книги во время прохода уже учтены слушателем
+        total = estimatedBytes.addAndGet(total - before);
+        evictedContacts.addAndGet(evicted - evictedBefore);
+        if (total > budget) {
+            long target = budget / 100 * LOW_WATER_PERCENT;
+            evict(contacts, epoch, target, true);
+            if (estimatedBytes.get() > target) {
+                evict(contacts, epoch, target, false);
+            }
+            if (estimatedBytes.get() > budget && !overBudgetReported) {
+                overBudgetReported = true;
+                logger.warn("Контакты не помещаются в бюджет {} байт даже без номеров: {} байт",
+                        budget, estimatedBytes.get());
+            }
+            logger.debug("Вытеснение номеров: {} байт из {}, вытеснено контактов {}",
+                    estimatedBytes.get(), total, evictedContacts.get());
+        }
+        directory.evictSyncCopies(spill);
+    }
+    /**
+     * Обновляет оценку по событию телефонной книги. Вызывается синхронно под блокировкой
+     * записи книги, поэтому состояние контакта соответствует событию.
+     *
+     * @param event событие
+     */
+    private void apply(ContactEvent event) {
+        Contact contact = event.getContact();
+        switch (event.getType()) {
+            case CONTACT_ADDED:
+                estimatedBytes.addAndGet(estimate(contact));
+                contactCount.incrementAndGet();
+                if (contact.isEvicted()) {
+                    evictedContacts.incrementAndGet();
+                }
+                break;
+            case CONTACT_REMOVED:
+                estimatedBytes.addAndGet(-estimate(contact));
+                contactCount.decrementAndGet();
+                if (contact.isEvicted()) {
+                    evictedContacts.decrementAndGet();
+                }
+                break;
+            case CONTACT_RENAMED:
+                estimatedBytes.addAndGet(stringBytes(event.getNewName()) - stringBytes(event.getOldName()));
+                break;
+            case NUMBER_ADDED: {
+                int count = contact.peekPhoneNumbers().size();
+                estimatedBytes.addAndGet(numberBytes(event.getNumber())
+                        + shellBytes(count) - shellBytes(count - 1));
+                break;
+            }
+            case NUMBER_REMOVED: {
+                int count = contact.peekPhoneNumbers().size();
+                estimatedBytes.addAndGet(-numberBytes(event.getNumber())
+                        + shellBytes(count) - shellBytes(count + 1));
+                break;
+            }
+            case NUMBER_EDITED:
+                estimatedBytes.addAndGet(numberBytes(event.getNumber()) - numberBytes(event.getOldNumber()));
+                break;
+            case RELOADED:
+                recount(directory.getContacts());
+                break;
+            default:
+                break;
+        }
+    }
+    /**
+     * Пересчитывает оценку целиком; вызывается под блокировкой записи телефонной книги.
+     *
+     * @param contacts все контакты книги
+     */
+    private void recount(List<Contact> contacts) {
+        long total = 0;
+        int evicted = 0;
+        for (Contact contact : contacts) {
+            total += estimate(contact);
+            if (contact.isEvicted()) {
+                evicted++;
+            }
+        }
+        estimatedBytes.set(total);
+        evictedContacts.set(evicted);
+        contactCount.set(contacts.size());
+    }
+    /**
+     * Учитывает возврат вытесненного списка номеров в кучу.
+     *
+     * @param numbers возвращенный список
+     */
+    private void faulted(List<PhoneNumber> numbers) {
+        estimatedBytes.addAndGet(listBytes(numbers));
+        evictedContacts.updateAndGet(count -> Math.max(0, count - 1));
+    }
+    /**
+     * Вытесняет номера контактов по кругу, начиная с {@link #cursor}, пока оценка не опустится
+     * до {@code target}.
+     *
+     * @param contacts контакты
+     * @param epoch текущая эпоха обращений
+     * @param target целевая оценка
+     * @param coldOnly вытеснять только холодные контакты
+     */
+    private void evict(List<Contact> contacts, int epoch, long target, boolean coldOnly) {
+        int size = contacts.size();
+        long count = evictions;
+        for (int step = 0; step < size && estimatedBytes.get() > target; step++) {
+            if (cursor >= size) {
+                cursor = 0;
+            }
+            Contact contact = contacts.get(cursor++);
+            if (coldOnly && epoch - contact.getLastAccess() < COLD_EPOCHS) {
+                continue;
+            }
+            List<PhoneNumber> numbers = contact.evict(spill);
+            if (numbers != null) {
+                estimatedBytes.addAndGet(-listBytes(numbers));
+                evictedContacts.incrementAndGet();
+                count++;
+            }
+        }
+        evictions = count;
+    }
+    /**
+     * Создает файл вытеснения, если его еще нет.
+     *
+     * @return false, если файл не удалось создать
+     */
+    private boolean openSpill() {
+        if (spill == null) {
+            try {
+                NumberSpill created = new NumberSpill(Files.createTempFile("phonebook-spill-", ".bin"));
+                created.setFaultListener(this::faulted);
+                spill = created;
+            } catch (IOException e) {
+                logger.error("Не удалось создать файл вытеснения номеров, бюджет памяти отключен", e);
+                budgetBytes = 0;
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Оценивает память, которую удерживает контакт: сам объект, имя и, если номера
+     * не вытеснены, список номеров вместе с текстом номеров для отображения.
+     *
+     * @param contact контакт
+     * @return размер в байтах
+     */
+    static long estimate(Contact contact) {
+        long size = CONTACT_BYTES + stringBytes(contact.getName());
+        if (!contact.isEvicted()) {
+            List<PhoneNumber> numbers = contact.peekPhoneNumbers();
+            if (!numbers.isEmpty()) {
+                size += listBytes(numbers);
+            }
+        }
+        return size;
+    }
+    /**
+     * Оценивает память списка номеров вместе с номерами.
+     */
+    private static long listBytes(List<PhoneNumber> numbers) {
+        long size = shellBytes(numbers.size());
+        for (PhoneNumber number : numbers) {
+            size += numberBytes(number);
+        }
+        return size;
+    }
+    /**
+     * Оценивает память списка без номеров; пустой список не занимает отдельной памяти.
+     */
+    private static long shellBytes(int count) {
+        return count <= 0 ? 0 : LIST_BYTES + align(ARRAY_HEADER_BYTES + 4L * count);
+    }
+    /**
+     * Оценивает память номера с его строками. Текст для отображения
+     * ({@link PhoneNumber#getDisplayText()}) учитывается всегда: он создается при первом
+     * показе номера, и оценка не должна зависеть от того, показывался ли номер.
+     */
+    private static long numberBytes(PhoneNumber number) {
+        String type = String.valueOf(number.getType());
+        String text = number.getNumber();
+        boolean wide = isWide(type) || isWide(text);
+        long display = STRING_BYTES + align(ARRAY_HEADER_BYTES
+                + (long) (type.length() + DISPLAY_SEPARATOR_LENGTH + text.length()) * (wide ? 2 : 1));
+        return NUMBER_BYTES + stringBytes(text) + stringBytes(number.getType()) + display;
+    }
+    /**
+     * Оценивает память строки: однобайтовые строки хранят символ в байте, остальные &mdash;
+     * в двух.
+     */
+    private static long stringBytes(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int bytesPerChar = isWide(value) ? 2 : 1;
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + (long) value.length() * bytesPerChar);
+    }
+    /**
+     * Проверяет, хранит ли строка символы в двух байтах.
+     */
+    private static boolean isWide(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Выравнивает размер объекта до 8 байт.
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+    @Override
+    public int getContactCount() {
+        return contactCount.get();
+    }
+    @Override
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+    @Override
+    public long getAverageContactBytes() {
+        int count = contactCount.get();
+        return count == 0 ? 0 : estimatedBytes.get() / count;
+    }
+    @Override
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+    @Override
+    public void setBudgetBytes(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("Бюджет памяти не может быть отрицательным: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+        logger.info("Бюджет памяти контактов изменен: {} байт", budgetBytes);
+    }
+    @Override
+    public int getEvictedContacts() {
+        return evictedContacts.get();
+    }
+    @Override
+    public long getEvictions() {
+        return evictions;
+    }
+    @Override
+    public long getFaults() {
+        NumberSpill current = spill;
+        return current == null ? 0 : current.getFaults();
+    }
+    @Override
+    public long getSpillFileBytes() {
+        NumberSpill current = spill;
+        return current == null ? 0 : current.getWrittenBytes();
+    }
+    @Override
+    public long getHeapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
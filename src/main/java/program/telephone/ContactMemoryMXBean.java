@@ -0,0 +1,72 @@
+package program.telephone;
+/**
+ * Показатели памяти, занятой контактами телефонной книги, для JMX
+ * (объект {@value ContactMemory#OBJECT_NAME}).
+ * <p>
+ * Размеры &mdash; оценка удерживаемой памяти по размерам объектов JVM со сжатыми
+ * указателями; они обновляются при каждом изменении телефонной книги.
+ * </p>
+ * @see ContactMemory
+ */
+public interface ContactMemoryMXBean {
+    /**
+     * Возвращает количество контактов в телефонной книге.
+     *
+     * @return количество контактов
+     */
+    int getContactCount();
+    /**
+     * Возвращает оценку памяти, занятой контактами и их номерами в куче.
+     *
+     * @return размер в байтах
+     */
+    long getEstimatedBytes();
+    /**
+     * Возвращает средний размер контакта в куче.
+     *
+     * @return размер в байтах
+     */
+    long getAverageContactBytes();
+    /**
+     * Возвращает бюджет памяти для контактов.
+     *
+     * @return бюджет в байтах; 0 &mdash; без ограничения
+     */
+    long getBudgetBytes();
+    /**
+     * Устанавливает бюджет памяти для контактов.
+     *
+     * @param budgetBytes бюджет в байтах; 0 &mdash; без ограничения
+     */
+    void setBudgetBytes(long budgetBytes);
+    /**
+     * Возвращает количество контактов, номера которых вытеснены в файл.
+     *
+     * @return количество контактов
+     */
+    int getEvictedContacts();
+    /**
+     * Возвращает общее количество вытеснений списков номеров.
+     *
+     * @return количество вытеснений
+     */
+    long getEvictions();
+    /**
+     * Возвращает общее количество возвратов вытесненных списков в кучу.
+     *
+     * @return количество возвратов
+     */
+    long getFaults();
+    /**
+     * Возвращает объем данных в файле вытеснения, включая устаревшие записи.
+     *
+     * @return размер в байтах
+     */
+    long getSpillFileBytes();
+    /**
+     * Возвращает занятую память кучи JVM целиком, для сравнения с оценкой.
+     *
+     * @return размер в байтах
+     */
+    long getHeapUsedBytes();
+}
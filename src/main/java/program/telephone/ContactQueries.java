@@ -0,0 +1,64 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+/**
+ * Поиск и сортировка контактов в памяти.
+ * <p>
+ * Используется хранилищами, которые не умеют выполнять эти запросы сами.
+ * Большие списки обрабатываются параллельно через {@link ParallelScan}.
+ * @see ContactStorage
+ */
+final class ContactQueries {
+    /** Логгер для класса ContactQueries. */
+    private static final Logger logger = LogManager.getLogger(ContactQueries.class);
+    /** Параллельный просмотр для поиска. */
+    private static final ParallelScan SEARCH = new ParallelScan("search");
+    /** Параллельная сортировка. */
+    private static final ParallelScan SORT = new ParallelScan("sort");
+
+    private ContactQueries() {
+    }
+    /**
+     * Проверяет, подходит ли контакт под поисковый запрос.
+     *
+     * @param contact проверяемый контакт
+     * @param request поисковый запрос в нижнем регистре
+     * @return true, если имя или один из номеров содержит запрос
+     */
+    static boolean matches(Contact contact, String request) {
+        boolean nameMatch = contact.getName().toLowerCase().contains(request);
+        boolean numberMatch = contact.hasNumberContaining(request);
+
+        logger.trace("Contact '{}' - name match: {}, number match: {}",
+                contact.getName(), nameMatch, numberMatch);
+
+        return nameMatch || numberMatch;
+    }
+    /**
+     * Отбирает контакты, подходящие под поисковый запрос, сохраняя их порядок.
+     *
+     * @param contacts список контактов
+     * @param request поисковый запрос в нижнем регистре
+     * @param cancelled признак отмены поиска
+     * @return подходящие контакты
+     * @throws java.util.concurrent.CancellationException если поиск был отменен
+     */
+    static List<Contact> search(List<Contact> contacts, String request, BooleanSupplier cancelled) {
+        return SEARCH.filter(contacts, contact -> matches(contact, request), cancelled);
+    }
+    /**
+     * Сортирует контакты по имени.
+     *
+     * @param contacts список контактов
+     * @param descending true для порядка Я-А, false для А-Я
+     * @return новый отсортированный список
+     */
+    static List<Contact> sorted(List<Contact> contacts, boolean descending) {
+        Comparator<Contact> byName = Comparator.comparing(Contact::getName);
+        return SORT.sorted(contacts, descending ? byName.reversed() : byName);
+    }
+}
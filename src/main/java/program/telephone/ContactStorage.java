@@ -0,0 +1,100 @@
+package program.telephone;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+/**
+ * Интерфейс хранилища контактов телефонной книги.
+ * <p>
+ * Реализации отвечают за загрузку и сохранение списка контактов, а также могут
+ * выполнять поиск и сортировку на своей стороне. По умолчанию запросы выполняются
+ * над переданным списком в памяти.
+ * </p>
+ * <p>
+ * Реализация выбирается системным свойством {@value #STORAGE_PROPERTY}:
+ * <ul>
+ *   <li>{@code file} (по умолчанию) &mdash; шардированные файлы, см. {@link ShardedStorage}</li>
+ *   <li>{@code jdbc} &mdash; встраиваемая SQL-база, см. {@link JdbcStorage}; адрес базы задается
+ *   свойством {@value #URL_PROPERTY}</li>
+ * </ul>
+ * @see ShardedStorage
+ * @see JdbcStorage
+ */
+public interface ContactStorage {
+    /** Системное свойство, задающее тип хранилища. */
+    String STORAGE_PROPERTY = "telephone.storage";
+    /** Системное свойство с JDBC-адресом базы данных. */
+    String URL_PROPERTY = "telephone.storage.url";
+    /** JDBC-адрес встраиваемой базы по умолчанию. */
+    String DEFAULT_URL = "jdbc:h2:./phonebook-db";
+    /** Каталог шардированного хранилища телефонной книги по умолчанию. */
+    String DEFAULT_DIRECTORY = "phonebook-data";
+    /** Файл старого формата, из которого контакты переносятся в шардированное хранилище. */
+    String LEGACY_FILE = "phonebook.bin";
+    /**
+     * Загружает все контакты.
+     *
+     * @return список контактов в сохраненном порядке
+     * @throws IOException если данные не удалось прочитать
+     */
+    List<Contact> load() throws IOException;
+    /**
+     * Сохраняет список контактов.
+     *
+     * @param contacts контакты для сохранения
+     * @throws IOException если данные не удалось записать
+     */
+    void save(List<Contact> contacts) throws IOException;
+    /**
+     * Сообщает, были ли данные восстановлены после повреждения при последней загрузке.
+     *
+     * @return true, если часть данных была восстановлена
+     */
+    default boolean isRecovered() {
+        return false;
+    }
+    /**
+     * Ищет контакты, у которых имя или один из номеров содержит запрос.
+     *
+     * @param contacts текущий список контактов; может содержать несохраненные изменения
+     * @param request поисковый запрос в нижнем регистре
+     * @param cancelled признак отмены; поиск прекращается, когда он становится истинным
+     * @return подходящие контакты из списка {@code contacts} в исходном порядке
+     * @throws IOException если запрос к хранилищу завершился ошибкой
+     * @throws java.util.concurrent.CancellationException если поиск был отменен
+     */
+    default List<Contact> search(List<Contact> contacts, String request, BooleanSupplier cancelled) throws IOException {
+        return ContactQueries.search(contacts, request, cancelled);
+    }
+    /**
+     * Возвращает контакты, отсортированные по имени.
+     *
+     * @param contacts текущий список контактов; может содержать несохраненные изменения
+     * @param descending true для порядка Я-А, false для А-Я
+     * @return отсортированный список тех же объектов контактов
+     * @throws IOException если запрос к хранилищу завершился ошибкой
+     */
+    default List<Contact> sorted(List<Contact> contacts, boolean descending) throws IOException {
+        return ContactQueries.sorted(contacts, descending);
+    }
+    /**
+     * Создает хранилище согласно системным свойствам.
+     *
+     * @param directory каталог файлового хранилища
+     * @param legacyFile файл старого формата для миграции (может быть null)
+     * @return выбранная реализация хранилища
+     * @throws IllegalArgumentException если указан неизвестный тип хранилища
+     */
+    static ContactStorage open(Path directory, Path legacyFile) {
+        ShardedStorage files = new ShardedStorage(directory, legacyFile, ShardedStorage.DEFAULT_SHARD_COUNT);
+        String type = System.getProperty(STORAGE_PROPERTY, "file");
+        switch (type) {
+            case "file":
+                return files;
+            case "jdbc":
+                return new JdbcStorage(System.getProperty(URL_PROPERTY, DEFAULT_URL), files);
+            default:
+                throw new IllegalArgumentException("Неизвестный тип хранилища: " + type);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+/**
+ * Генератор синтетических телефонных книг для воспроизведения нагрузки.
+ * <p>
+ * Создает контакты с русскими и латинскими именами и от одного до трех номеров.
+ * Номера соответствуют правилам {@link ContactDirectory#verifyNumber}: мобильные &mdash;
+ * 11 цифр, начинающихся с 7 или 8, домашние &mdash; 6&ndash;7 цифр, рабочие &mdash;
+ * 6&ndash;11 цифр; все номера уникальны по тому же правилу сравнения. Имена уникальны
+ * без учета регистра, как требует {@link ContactDirectory#addContact(String)}.
+ * Генерация детерминирована при одинаковом зерне.
+ * </p>
+ * <p>Запуск: {@code gradle generateDataset -Pargs="--count 1000000 --format file --dir phonebook-data"}.
+ * Параметры:
+ * <ul>
+ *   <li>{@code --count} &mdash; количество контактов (по умолчанию 100000)</li>
+ *   <li>{@code --format} &mdash; {@code file} (шардированное хранилище; сжатие задается
+ *   {@code -Dtelephone.storage.codec}), {@code jdbc} (база из {@code -Dtelephone.storage.url})
+ *   или {@code legacy} (один файл старого формата phonebook.bin)</li>
+ *   <li>{@code --dir} &mdash; каталог хранилища или файл для {@code legacy}</li>
+ *   <li>{@code --seed} &mdash; зерно генератора случайных чисел</li>
+ * </ul>
+ * Существующие данные в выбранном хранилище заменяются.
+ * </p>
+ */
+public class DatasetGenerator {
+    /** Логгер для класса DatasetGenerator. */
+    private static final Logger logger = LogManager.getLogger(DatasetGenerator.class);
+    /** Мужские русские имена. */
+    private static final String[] RU_MALE = {
+            "Александр", "Алексей", "Андрей", "Антон", "Артем", "Борис", "Вадим", "Валерий", "Василий",
+            "Виктор", "Владимир", "Дмитрий", "Евгений", "Егор", "Иван", "Игорь", "Илья", "Кирилл",
+            "Константин", "Максим", "Михаил", "Никита", "Николай", "Олег", "Павел", "Петр", "Роман",
+            "Сергей", "Степан", "Юрий"};
+    /** Женские русские имена. */
+    private static final String[] RU_FEMALE = {
+            "Александра", "Алина", "Анастасия", "Анна", "Валентина", "Вера", "Виктория", "Галина",
+            "Дарья", "Евгения", "Екатерина", "Елена", "Ирина", "Ксения", "Любовь", "Людмила",
+            "Марина", "Мария", "Надежда", "Наталья", "Нина", "Ольга", "Полина", "Светлана",
+            "Софья", "Татьяна", "Юлия"};
+    /** Русские фамилии в мужской форме. */
+    private static final String[] RU_SURNAMES = {
+            "Иванов", "Смирнов", "Кузнецов", "Попов", "Васильев", "Петров", "Соколов", "Михайлов",
+            "Новиков", "Федоров", "Морозов", "Волков", "Алексеев", "Лебедев", "Семенов", "Егоров",
+            "Павлов", "Козлов", "Степанов", "Николаев", "Орлов", "Андреев", "Макаров", "Никитин",
+            "Захаров", "Зайцев", "Соловьев", "Борисов", "Яковлев", "Григорьев", "Романов", "Воробьев"};
+    /** Латинские имена. */
+    private static final String[] EN_FIRST = {
+            "James", "John", "Robert", "Michael", "William", "David", "Richard", "Joseph", "Thomas",
+            "Mary", "Patricia", "Jennifer", "Linda", "Elizabeth", "Barbara", "Susan", "Jessica",
+            "Sarah", "Karen", "Anna", "Maria", "Peter", "Paul", "Mark", "Laura", "Emma", "Olivia"};
+    /** Латинские фамилии. */
+    private static final String[] EN_SURNAMES = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Wilson",
+            "Anderson", "Taylor", "Thomas", "Moore", "Martin", "Jackson", "White", "Harris", "Clark",
+            "Lewis", "Walker", "Young", "Allen", "King", "Wright", "Scott", "Green", "Baker", "Adams"};
+    /** Коды мобильных операторов. */
+    private static final String[] MOBILE_CODES = {"900", "902", "903", "905", "910", "912", "915", "916",
+            "920", "925", "926", "929", "950", "951", "960", "977", "985", "999"};
+    /** Источник случайных чисел. */
+    private final Random random;
+    /** Уже выданные имена в нижнем регистре. */
+    private final Set<String> names = new HashSet<>();
+    /** Ключи уже выданных номеров ({@link Deduplicator#normalizeNumber(String)}). */
+    private final Set<String> numbers = new HashSet<>();
+    /**
+     * Создает генератор с указанным зерном.
+     *
+     * @param seed зерно генератора случайных чисел
+     */
+    public DatasetGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+    /**
+     * Создает список контактов.
+     *
+     * @param count количество контактов
+     * @return новые контакты
+     */
+    public List<Contact> generate(int count) {
+        List<Contact> contacts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Contact contact = new Contact(nextName());
+            int numberCount = 1 + (random.nextInt(10) < 6 ? 0 : random.nextInt(3));
+            List<PhoneNumber> list = new ArrayList<>(numberCount);
+            for (int j = 0; j < numberCount; j++) {
+                list.add(nextNumber());
+            }
+            contact.setPhoneNumbers(list);
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+    /**
+     * Возвращает новое уникальное имя: 70% русских, 30% латинских.
+     *
+     * @return имя контакта
+     */
+    public String nextName() {
+        String base;
+        if (random.nextInt(10) < 7) {
+            boolean female = random.nextBoolean();
+            String surname = pick(RU_SURNAMES) + (female ? "а" : "");
+            base = surname + " " + pick(female ? RU_FEMALE : RU_MALE);
+        } else {
+            base = pick(EN_FIRST) + " " + pick(EN_SURNAMES);
+        }
+        String name = base;
+        for (int suffix = 2; !names.add(name.toLowerCase()); suffix++) {
+            name = base + " " + suffix;
+        }
+        return name;
+    }
+    /**
+     * Возвращает новый уникальный номер: 70% мобильных, 20% домашних, 10% рабочих.
+     *
+     * @return номер телефона
+     */
+    public PhoneNumber nextNumber() {
+        while (true) {
+            int kind = random.nextInt(10);
+            String type;
+            String number;
+            if (kind < 7) {
+                type = "Мобильный";
+                number = (random.nextBoolean() ? "8" : "7") + pick(MOBILE_CODES) + digits(7);
+            } else if (kind < 9) {
+                type = "Домашний";
+                number = (1 + random.nextInt(9)) + digits(5 + random.nextInt(2));
+            } else {
+                type = "Рабочий";
+                number = (1 + random.nextInt(9)) + digits(5 + random.nextInt(6));
+            }
+            if (numbers.add(Deduplicator.normalizeNumber(number))) {
+                return new PhoneNumber(number, type);
+            }
+        }
+    }
+    /**
+     * Возвращает строку из случайных цифр.
+     */
+    private String digits(int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('0' + random.nextInt(10)));
+        }
+        return result.toString();
+    }
+    /**
+     * Возвращает случайный элемент массива.
+     */
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+    /**
+     * Разбирает аргументы командной строки вида {@code --имя значение}.
+     *
+     * @param args аргументы
+     * @return значения по именам без {@code --}
+     * @throws IllegalArgumentException если у параметра нет значения
+     */
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Ожидался параметр вида --имя значение: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+    /**
+     * Генерирует телефонную книгу и записывает ее в выбранное хранилище.
+     *
+     * @param args параметры (см. описание класса)
+     * @throws IOException если данные не удалось записать
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseArgs(args);
+        int count = Integer.parseInt(options.getOrDefault("count", "100000"));
+        String format = options.getOrDefault("format", "file");
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+        long start = System.nanoTime();
+        List<Contact> contacts = new DatasetGenerator(seed).generate(count);
+        logger.info("Сгенерировано {} контактов за {} мс", count, (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        if ("legacy".equals(format)) {
+            Path file = Paths.get(options.getOrDefault("dir", ContactStorage.LEGACY_FILE));
+            try (ObjectOutputStream oos = new ObjectOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file)))) {
+                oos.writeObject(new ArrayList<>(contacts));
+            }
+            logger.info("Записан файл {} ({} байт)", file, Files.size(file));
+        } else {
+            System.setProperty(ContactStorage.STORAGE_PROPERTY, format);
+            Path directory = Paths.get(options.getOrDefault("dir", ContactStorage.DEFAULT_DIRECTORY));
+            Files.createDirectories(directory);
+            ContactStorage storage = ContactStorage.open(directory, null);
+            // Загрузка нужна, чтобы хранилище заменило прежние данные, а не дополнило их
+            storage.load();
+            storage.save(contacts);
+        }
+        logger.info("Данные записаны в хранилище '{}' за {} мс", format, (System.nanoTime() - start) / 1_000_000);
+    }
+}
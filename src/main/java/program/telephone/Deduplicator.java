@@ -0,0 +1,357 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+/**
+ * Поиск и объединение дубликатов контактов.
+ * <p>
+ * Контакты считаются дубликатами, если у них совпадает нормализованное имя или хотя бы один
+ * нормализованный номер. Вместо попарного сравнения (O(N&sup2;)) каждый контакт раскладывается
+ * на ключи блокировки &mdash; имя и номера, &mdash; а контакты с общим ключом объединяются
+ * в системе непересекающихся множеств (union-find). Поиск выполняется за время, близкое
+ * к линейному, и цепочки совпадений (А и Б по имени, Б и В по номеру) попадают в одну группу.
+ * </p>
+ * <p>
+ * Номер, который есть у многих контактов (например, общий номер офиса), дубликатов не
+ * означает, а через цепочки совпадений склеил бы всех этих людей в одну группу. Поэтому
+ * номера, найденные у большего числа контактов, чем {@link #DEFAULT_SHARED_NUMBER_LIMIT},
+ * ключами блокировки не считаются.
+ * </p>
+ * <p>
+ * Поиск выполняется в фоне по копии списка ({@link #findAsync(DoubleConsumer, BooleanSupplier)})
+ * и только предлагает группы; объединение ({@link #merge(List)}) выполняется через
+ * {@link ContactDirectory} одним пакетом событий, поэтому его можно отменить целиком.
+ * </p>
+ */
+public class Deduplicator {
+    /** Логгер для класса Deduplicator. */
+    private static final Logger logger = LogManager.getLogger(Deduplicator.class);
+    /** Как часто (в контактах) сообщается прогресс и проверяется отмена. */
+    private static final int PROGRESS_INTERVAL = 4_096;
+    /** Наибольшее число контактов с общим номером, при котором номер связывает контакты. */
+    public static final int DEFAULT_SHARED_NUMBER_LIMIT = 3;
+    /** Телефонная книга. */
+    private final ContactDirectory directory;
+    /** Наибольшее число контактов с общим номером, при котором номер связывает контакты. */
+    private final int sharedNumberLimit;
+    /**
+     * Создает поиск дубликатов для телефонной книги.
+     *
+     * @param directory телефонная книга
+     */
+    public Deduplicator(ContactDirectory directory) {
+        this(directory, DEFAULT_SHARED_NUMBER_LIMIT);
+    }
+    /**
+     * Создает поиск дубликатов с заданным порогом общих номеров.
+     *
+     * @param directory телефонная книга
+     * @param sharedNumberLimit номер, найденный у большего числа контактов, не связывает их
+     * @throws IllegalArgumentException если порог меньше двух
+     */
+    public Deduplicator(ContactDirectory directory, int sharedNumberLimit) {
+        if (sharedNumberLimit < 2) {
+            throw new IllegalArgumentException("Порог общих номеров должен быть не меньше 2: " + sharedNumberLimit);
+        }
+        this.directory = directory;
+        this.sharedNumberLimit = sharedNumberLimit;
+    }
+    /**
+     * Группа контактов, которые предлагается объединить.
+     * Первый контакт группы (самый ранний в списке) сохраняется, остальные удаляются.
+     */
+    public static final class DuplicateGroup {
+        /** Контакты группы в порядке списка. */
+        private final List<Contact> contacts;
+
+        private DuplicateGroup(List<Contact> contacts) {
+            this.contacts = Collections.unmodifiableList(contacts);
+        }
+        /**
+         * Возвращает контакт, в который будут перенесены номера остальных.
+         *
+         * @return сохраняемый контакт
+         */
+        public Contact getSurvivor() {
+            return contacts.get(0);
+        }
+        /**
+         * Возвращает все контакты группы.
+         *
+         * @return контакты в порядке списка, не менее двух
+         */
+        public List<Contact> getContacts() {
+            return contacts;
+        }
+        /**
+         * Возвращает строковое представление группы для логирования.
+         */
+        @Override
+        public String toString() {
+            StringJoiner names = new StringJoiner(", ", "[", "]");
+            contacts.forEach(c -> names.add(c.getName()));
+            return names.toString();
+        }
+    }
+    /**
+     * Нормализует имя: нижний регистр, «ё» как «е», без знаков препинания,
+     * слова в алфавитном порядке («Иванов Иван» и «иван  иванов» совпадают).
+     *
+     * @param name имя контакта
+     * @return нормализованное имя или пустая строка
+     */
+    static String normalizeName(String name) {
+        if (name == null) {
+            return "";
+        }
+        String[] words = name.toLowerCase(Locale.ROOT)
+                .replace('ё', 'е')
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .trim()
+                .split(" ");
+        Arrays.sort(words);
+        return String.join(" ", words);
+    }
+    /**
+     * Нормализует номер по тому же правилу, что и проверка уникальности
+     * {@link ContactDirectory#verifyNumber}: номера одной длины, совпадающие во всех цифрах
+     * после первой, считаются одинаковыми (например, 8 и +7 у мобильных).
+     *
+     * @param number номер телефона
+     * @return ключ номера или null, если в номере нет цифр
+     */
+    static String normalizeNumber(String number) {
+        if (number == null) {
+            return null;
+        }
+        String digits = number.replaceAll("[^0-9]", "");
+        if (digits.isEmpty()) {
+            return null;
+        }
+        return digits.length() + ":" + digits.substring(1);
+    }
+    /**
+     * Запускает поиск дубликатов в фоновом потоке по копии текущего списка.
+     *
+     * @param progress получатель доли выполненной работы от 0 до 1 (вызывается в фоновом потоке)
+     * @param cancelled признак отмены поиска
+     * @return будущий список групп дубликатов
+     */
+    public CompletableFuture<List<DuplicateGroup>> findAsync(DoubleConsumer progress, BooleanSupplier cancelled) {
+        List<Contact> scope = directory.copyContacts();
+        return CompletableFuture.supplyAsync(() -> find(scope, sharedNumberLimit, progress, cancelled),
+                ParallelScan.executor());
+    }
+    /**
+     * Находит группы дубликатов в списке контактов.
+     * <p>
+     * Первый проход считает, у скольких контактов встречается каждый номер; второй объединяет
+     * контакты по именам и по номерам, встречающимся не более чем у {@code sharedNumberLimit} контактов.
+     *
+     * @param contacts список контактов
+     * @param sharedNumberLimit номер, найденный у большего числа контактов, не связывает их
+     * @param progress получатель доли выполненной работы от 0 до 1
+     * @param cancelled признак отмены поиска
+     * @return группы из двух и более контактов в порядке первого контакта группы
+     * @throws CancellationException если поиск был отменен
+     */
+    static List<DuplicateGroup> find(List<Contact> contacts, int sharedNumberLimit,
+                                     DoubleConsumer progress, BooleanSupplier cancelled) {
+        int size = contacts.size();
+        logger.info("Поиск дубликатов среди {} контактов", size);
+        // Ключ номера -> {число контактов с номером, индекс последнего из них}
+        Map<String, int[]> sharers = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            if (i % PROGRESS_INTERVAL == 0) {
+                checkCancelled(cancelled);
+                progress.accept(0.3 * i / size);
+            }
+            for (PhoneNumber number : contacts.get(i).peekPhoneNumbers()) {
+                String key = normalizeNumber(number.getNumber());
+                if (key != null) {
+                    int[] count = sharers.computeIfAbsent(key, k -> new int[] {0, -1});
+                    if (count[1] != i) {
+                        count[0]++;
+                        count[1] = i;
+                    }
+                }
+            }
+        }
+        int shared = 0;
+        for (int[] count : sharers.values()) {
+            if (count[0] > sharedNumberLimit) {
+                shared++;
+            }
+        }
+        if (shared > 0) {
+            logger.info("Номеров, общих для более чем {} контактов и не учитываемых: {}", sharedNumberLimit, shared);
+        }
+
+        UnionFind sets = new UnionFind(size);
+        // Ключ блокировки -> первый контакт с этим ключом
+        Map<String, Integer> firstByKey = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            if (i % PROGRESS_INTERVAL == 0) {
+                checkCancelled(cancelled);
+                progress.accept(0.3 + 0.6 * i / size);
+            }
+            Contact contact = contacts.get(i);
+            String name = normalizeName(contact.getName());
+            if (!name.isEmpty()) {
+                block("n:" + name, i, firstByKey, sets);
+            }
+            for (PhoneNumber number : contact.peekPhoneNumbers()) {
+                String key = normalizeNumber(number.getNumber());
+                if (key != null && sharers.get(key)[0] <= sharedNumberLimit) {
+                    block("p:" + key, i, firstByKey, sets);
+                }
+            }
+        }
+        checkCancelled(cancelled);
+
+        // Корень множества -> члены множества в порядке списка
+        Map<Integer, List<Contact>> members = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (sets.sizeOf(i) > 1) {
+                members.computeIfAbsent(sets.find(i), root -> new ArrayList<>()).add(contacts.get(i));
+            }
+        }
+        List<DuplicateGroup> groups = new ArrayList<>(members.size());
+        for (List<Contact> group : members.values()) {
+            groups.add(new DuplicateGroup(group));
+        }
+        progress.accept(1.0);
+        logger.info("Найдено групп дубликатов: {}", groups.size());
+        return groups;
+    }
+    /**
+     * Объединяет контакт с первым контактом, имеющим тот же ключ.
+     */
+    private static void block(String key, int index, Map<String, Integer> firstByKey, UnionFind sets) {
+        Integer first = firstByKey.putIfAbsent(key, index);
+        if (first != null) {
+            sets.union(first, index);
+        }
+    }
+    /**
+     * Прерывает поиск, если он был отменен.
+     */
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Поиск дубликатов отменен");
+        }
+    }
+    /**
+     * Объединяет группы дубликатов.
+     * <p>
+     * Номера остальных контактов группы, которых еще нет у сохраняемого контакта
+     * (с учетом нормализации), добавляются ему в конец списка, а сами контакты удаляются.
+     * Контакты, удаленные после поиска, пропускаются. Все изменения публикуются одним
+     * пакетом событий под блокировкой записи телефонной книги.
+     *
+     * @param groups группы, найденные {@link #findAsync(DoubleConsumer, BooleanSupplier)}
+     * @return количество удаленных контактов
+     */
+    public int merge(List<DuplicateGroup> groups) {
+        Set<Contact> present = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Contact> merged = new ArrayList<>();
+        int[] removed = {0};
+        directory.batch(() -> {
+            present.addAll(directory.getContacts());
+            for (DuplicateGroup group : groups) {
+                mergeGroup(group, present, merged);
+            }
+            removed[0] = directory.removeContacts(merged);
+        });
+        logger.info("Объединено групп: {}, удалено контактов: {}", groups.size(), removed[0]);
+        return removed[0];
+    }
+    /**
+     * Объединяет одну группу.
+     *
+     * @param group группа дубликатов
+     * @param present контакты, находящиеся в списке; объединенные контакты из него исключаются
+     * @param merged список, в который добавляются контакты для удаления
+     */
+    private void mergeGroup(DuplicateGroup group, Set<Contact> present, List<Contact> merged) {
+        Contact survivor = null;
+        Set<String> keys = new HashSet<>();
+        for (Contact contact : group.getContacts()) {
+            if (!present.contains(contact)) {
+                continue;
+            }
+            if (survivor == null) {
+                survivor = contact;
+                for (PhoneNumber number : contact.getPhoneNumbers()) {
+                    keys.add(numberKey(number));
+                }
+                continue;
+            }
+            for (PhoneNumber number : contact.getPhoneNumbers()) {
+                if (keys.add(numberKey(number))) {
+                    directory.insertNumber(survivor, survivor.getPhoneNumbers().size(), number);
+                }
+            }
+            logger.debug("Контакт '{}' объединен с '{}'", contact.getName(), survivor.getName());
+            merged.add(contact);
+            present.remove(contact);
+        }
+    }
+    /**
+     * Возвращает ключ номера для сравнения при объединении.
+     */
+    private static String numberKey(PhoneNumber number) {
+        String key = normalizeNumber(number.getNumber());
+        return key != null ? key : number.getNumber();
+    }
+    /**
+     * Система непересекающихся множеств с объединением по размеру и сжатием путей.
+     */
+    private static final class UnionFind {
+        /** Родитель элемента; корень указывает сам на себя. */
+        private final int[] parent;
+        /** Размер множества (действителен для корней). */
+        private final int[] size;
+
+        UnionFind(int count) {
+            parent = new int[count];
+            size = new int[count];
+            for (int i = 0; i < count; i++) {
+                parent[i] = i;
+                size[i] = 1;
+            }
+        }
+
+        int find(int x) {
+            while (parent[x] != x) {
+                parent[x] = parent[parent[x]];
+                x = parent[x];
+            }
+            return x;
+        }
+
+        void union(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA == rootB) {
+                return;
+            }
+            if (size[rootA] < size[rootB]) {
+                int swap = rootA;
+                rootA = rootB;
+                rootB = swap;
+            }
+            parent[rootB] = rootA;
+            size[rootA] += size[rootB];
+        }
+
+        int sizeOf(int x) {
+            return size[find(x)];
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+/**
+ * История изменений телефонной книги с многоуровневой отменой и повтором.
+ * <p>
+ * История подписывается на пакеты событий {@link ContactEventBus} и хранит их как действия:
+ * каждое событие содержит значения до и после изменения, поэтому память расходуется
+ * пропорционально числу изменений, а не размеру справочника. Отмена применяет обратные
+ * операции в обратном порядке, повтор &mdash; исходные операции. Обе выполняются через
+ * {@link ContactDirectory}, так что индексы и подписчики получают обычные события.
+ * </p>
+ * <p>
+ * Изменения другого экземпляра приложения ({@link ContactEvent.Type#SYNCED}) в историю
+ * не записываются, а действия, затрагивающие те же контакты, удаляются из истории: их
+ * отмена или повтор затерли бы принятые изменения.
+ * </p>
+ * <p>
+ * История не синхронизирована: ее методы и все изменения телефонной книги должны выполняться
+ * в одном потоке &mdash; том, где история создана (в приложении это поток JavaFX). Вызов
+ * из другого потока завершается {@link IllegalStateException}.
+ * </p>
+ * @see ContactEvent
+ */
+public class EditHistory {
+    /** Логгер для класса EditHistory. */
+    private static final Logger logger = LogManager.getLogger(EditHistory.class);
+    /** Глубина истории по умолчанию. */
+    public static final int DEFAULT_LIMIT = 100;
+    /** Телефонная книга, к которой применяются отмена и повтор. */
+    private final ContactDirectory directory;
+    /** Максимальное количество хранимых действий. */
+    private final int limit;
+    /** Действия, которые можно отменить (последнее &mdash; первое). */
+    private final Deque<List<ContactEvent>> undo = new ArrayDeque<>();
+    /** Отмененные действия, которые можно повторить. */
+    private final Deque<List<ContactEvent>> redo = new ArrayDeque<>();
+    /** Признак выполнения отмены или повтора: их события в историю не записываются. */
+    private boolean replaying;
+    /** Поток, в котором создана история и в котором только и можно с ней работать. */
+    private final Thread owner = Thread.currentThread();
+    /**
+     * Создает историю для телефонной книги и подписывает ее на события.
+     *
+     * @param directory телефонная книга
+     * @param limit максимальное количество хранимых действий
+     */
+    public EditHistory(ContactDirectory directory, int limit) {
+        this.directory = directory;
+        this.limit = limit;
+        directory.getEvents().addBatchListener(this::record);
+    }
+    /**
+     * Записывает завершенное действие в историю.
+     * Перезагрузка справочника очищает историю; изменение порядка контактов не записывается,
+     * а изменения других экземпляров приложения удаляют из истории действия с теми же контактами.
+     *
+     * @param batch события действия
+     */
+    private void record(List<ContactEvent> batch) {
+        checkThread();
+        if (batch.stream().anyMatch(e -> e.getType() == ContactEvent.Type.SYNCED)) {
+            forget(batch);
+            return;
+        }
+        if (replaying || batch.stream().allMatch(e -> e.getType() == ContactEvent.Type.REORDERED)) {
+            return;
+        }
+        if (batch.stream().anyMatch(e -> e.getType() == ContactEvent.Type.RELOADED)) {
+            clear();
+            return;
+        }
+        undo.push(batch);
+        if (undo.size() > limit) {
+            undo.removeLast();
+        }
+        redo.clear();
+    }
+    /**
+     * Удаляет из истории действия, затрагивающие контакты, которые изменил другой экземпляр.
+     * Более ранние действия с этими контактами тоже удаляются, поэтому оставшиеся действия
+     * не зависят от удаленных.
+     *
+     * @param synced пакет изменений другого экземпляра
+     */
+    private void forget(List<ContactEvent> synced) {
+        Set<Contact> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ContactEvent event : synced) {
+            if (event.getContact() != null) {
+                touched.add(event.getContact());
+            }
+        }
+        if (touched.isEmpty()) {
+            return;
+        }
+        int before = undo.size() + redo.size();
+        undo.removeIf(action -> touches(action, touched));
+        redo.removeIf(action -> touches(action, touched));
+        int removed = before - undo.size() - redo.size();
+        if (removed > 0) {
+            logger.info("Из истории удалено {} действий с контактами, измененными другим экземпляром", removed);
+        }
+    }
+    /**
+     * Проверяет, затрагивает ли действие один из контактов.
+     *
+     * @param action события действия
+     * @param contacts контакты
+     * @return true, если хотя бы одно событие относится к одному из контактов
+     */
+    private static boolean touches(List<ContactEvent> action, Set<Contact> contacts) {
+        for (ContactEvent event : action) {
+            if (event.getContact() != null && contacts.contains(event.getContact())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Проверяет, что история используется в потоке, где она создана.
+     *
+     * @throws IllegalStateException при вызове из другого потока
+     */
+    private void checkThread() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("История изменений используется в потоке "
+                    + Thread.currentThread().getName() + ", а создана в потоке " + owner.getName());
+        }
+    }
+    /**
+     * Сообщает, есть ли действие для отмены.
+     *
+     * @return true, если {@link #undo()} что-то изменит
+     */
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+    /**
+     * Сообщает, есть ли действие для повтора.
+     *
+     * @return true, если {@link #redo()} что-то изменит
+     */
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+    /**
+     * Очищает историю.
+     */
+    public void clear() {
+        checkThread();
+        undo.clear();
+        redo.clear();
+    }
+    /**
+     * Отменяет последнее действие.
+     *
+     * @return true, если действие было отменено
+     */
+    public boolean undo() {
+        checkThread();
+        if (undo.isEmpty()) {
+            return false;
+        }
+        List<ContactEvent> batch = undo.pop();
+        logger.info("Отмена действия из {} изменений", batch.size());
+        replay(() -> {
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                revert(batch.get(i));
+            }
+        });
+        redo.push(batch);
+        return true;
+    }
+    /**
+     * Повторяет последнее отмененное действие.
+     *
+     * @return true, если действие было повторено
+     */
+    public boolean redo() {
+        checkThread();
+        if (redo.isEmpty()) {
+            return false;
+        }
+        List<ContactEvent> batch = redo.pop();
+        logger.info("Повтор действия из {} изменений", batch.size());
+        replay(() -> {
+            for (ContactEvent event : batch) {
+                apply(event);
+            }
+        });
+        undo.push(batch);
+        return true;
+    }
+    /**
+     * Выполняет операции одним пакетом, не записывая их в историю.
+     *
+     * @param operations операции над телефонной книгой
+     */
+    private void replay(Runnable operations) {
+        replaying = true;
+        try {
+            directory.batch(operations);
+        } finally {
+            replaying = false;
+        }
+    }
+    /**
+     * Применяет операцию, обратную событию.
+     *
+     * @param event событие
+     */
+    private void revert(ContactEvent event) {
+        Contact contact = event.getContact();
+        switch (event.getType()) {
+            case CONTACT_ADDED:
+                directory.removeContact(contact);
+                break;
+            case CONTACT_REMOVED:
+                directory.insertContact(Math.min(event.getIndex(), directory.getContacts().size()), contact);
+                break;
+            case CONTACT_RENAMED:
+                directory.renameContact(contact, event.getOldName());
+                break;
+            case NUMBER_ADDED:
+                directory.removeNumber(contact, event.getNumber());
+                break;
+            case NUMBER_EDITED:
+                directory.removeNumber(contact, event.getNumber());
+                directory.insertNumber(contact, Math.min(event.getIndex(), contact.getPhoneNumbers().size()),
+                        event.getOldNumber());
+                break;
+            case NUMBER_REMOVED:
+                directory.insertNumber(contact, Math.min(event.getIndex(), contact.getPhoneNumbers().size()),
+                        event.getNumber());
+                break;
+            default:
+                break;
+        }
+    }
+    /**
+     * Повторно применяет изменение, описанное событием.
+     *
+     * @param event событие
+     */
+    private void apply(ContactEvent event) {
+        Contact contact = event.getContact();
+        switch (event.getType()) {
+            case CONTACT_ADDED:
+                directory.insertContact(Math.min(event.getIndex(), directory.getContacts().size()), contact);
+                break;
+            case CONTACT_REMOVED:
+                directory.removeContact(contact);
+                break;
+            case CONTACT_RENAMED:
+                directory.renameContact(contact, event.getNewName());
+                break;
+            case NUMBER_ADDED:
+                directory.insertNumber(contact, contact.getPhoneNumbers().size(), event.getNumber());
+                break;
+            case NUMBER_EDITED:
+                directory.editNumber(contact, event.getOldNumber(), event.getNumber());
+                break;
+            case NUMBER_REMOVED:
+                directory.removeNumber(contact, event.getNumber());
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package program.telephone;
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.ListView;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+/**
+ * Замер времени кадров интерфейса.
+ * <p>
+ * Включается свойством {@code -Dtelephone.probe=true}. {@link AnimationTimer} вызывается
+ * JavaFX один раз за кадр; интервалы между вызовами записываются в заранее выделенный
+ * массив, и каждые пять секунд в лог выводятся частота кадров, медиана, 99-й перцентиль
+ * и максимум времени кадра, а также количество кадров, не уложившихся в 60 fps.
+ * </p>
+ * <p>
+ * Свойство {@code -Dtelephone.probe.scroll=N} дополнительно прокручивает список на N строк
+ * за кадр, чтобы измерить прокрутку без участия пользователя. Например, для списка
+ * из миллиона контактов ({@code gradle generateDataset -Pargs="--count 1000000"}):
+ * {@code gradle run -Dtelephone.probe=true -Dtelephone.probe.scroll=20}.
+ * </p>
+ */
+final class FrameProbe extends AnimationTimer {
+    /** Логгер для класса FrameProbe. */
+    private static final Logger logger = LogManager.getLogger(FrameProbe.class);
+    /** Системное свойство, включающее замер. */
+    static final String PROPERTY = "telephone.probe";
+    /** Системное свойство с количеством строк автоматической прокрутки за кадр. */
+    static final String SCROLL_PROPERTY = "telephone.probe.scroll";
+    /** Интервал вывода статистики (нс). */
+    private static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+    /** Бюджет кадра при 60 fps (нс). */
+    private static final long FRAME_BUDGET_NANOS = 1_000_000_000L / 60;
+    /** Запущенный замер (null, если замер выключен). */
+    private static FrameProbe active;
+    /** Измеряемый список. */
+    private final ListView<?> list;
+    /** Количество строк автоматической прокрутки за кадр. */
+    private final int rowsPerFrame;
+    /** Интервалы между кадрами текущего окна (нс). */
+    private final long[] intervals = new long[4096];
+    /** Буфер для сортировки интервалов при выводе статистики. */
+    private final long[] sorted = new long[intervals.length];
+    /** Количество записанных интервалов. */
+    private int count;
+    /** Время предыдущего кадра (0 до первого кадра). */
+    private long last;
+    /** Начало текущего окна статистики. */
+    private long windowStart;
+    /** Позиция автоматической прокрутки. */
+    private int position;
+
+    private FrameProbe(ListView<?> list, int rowsPerFrame) {
+        this.list = list;
+        this.rowsPerFrame = rowsPerFrame;
+    }
+    /**
+     * Запускает замер для списка, если он включен свойством {@value #PROPERTY}.
+     * Предыдущий замер останавливается.
+     *
+     * @param list измеряемый список
+     */
+    static void install(ListView<?> list) {
+        if (!Boolean.getBoolean(PROPERTY)) {
+            return;
+        }
+        if (active != null) {
+            active.stop();
+        }
+        active = new FrameProbe(list, Integer.getInteger(SCROLL_PROPERTY, 0));
+        active.start();
+        logger.info("Замер времени кадров включен, прокрутка: {} строк за кадр", active.rowsPerFrame);
+    }
+    /**
+     * Записывает интервал до предыдущего кадра и при необходимости прокручивает список.
+     *
+     * @param now время текущего кадра (нс)
+     */
+    @Override
+    public void handle(long now) {
+        if (last == 0) {
+            windowStart = now;
+        } else if (count < intervals.length) {
+            intervals[count++] = now - last;
+        }
+        last = now;
+        int size = list.getItems() == null ? 0 : list.getItems().size();
+        if (rowsPerFrame > 0 && size > 0) {
+            position = (position + rowsPerFrame) % size;
+            list.scrollTo(position);
+        }
+        if (now - windowStart >= REPORT_INTERVAL_NANOS) {
+            report(now, size);
+            windowStart = now;
+            count = 0;
+        }
+    }
+    /**
+     * Выводит статистику текущего окна.
+     */
+    private void report(long now, int size) {
+        if (count == 0) {
+            return;
+        }
+        System.arraycopy(intervals, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int slow = 0;
+        for (int i = 0; i < count; i++) {
+            // Кадр на 50% длиннее бюджета означает пропущенное обновление экрана
+            if (sorted[i] > FRAME_BUDGET_NANOS * 3 / 2) {
+                slow++;
+            }
+        }
+        double fps = count * 1e9 / (now - windowStart);
+        logger.info("Кадры: {} fps, p50 {} мкс, p99 {} мкс, max {} мкс, медленных {} из {}, строк в списке: {}",
+                Math.round(fps), sorted[count / 2] / 1_000, sorted[Math.min(count - 1, count * 99 / 100)] / 1_000,
+                sorted[count - 1] / 1_000, slow, count, size);
+    }
+}
@@ -0,0 +1,49 @@
+package program.telephone;
+import javafx.scene.image.Image;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Общий кэш изображений приложения.
+ * <p>
+ * Каждый ресурс декодируется один раз, а затем один и тот же объект {@link Image}
+ * используется всеми окнами и диалогами: {@link Image} неизменяем, поэтому его можно
+ * показывать в нескольких узлах одновременно.
+ * </p>
+ */
+final class Icons {
+    /** Логгер для класса Icons. */
+    private static final Logger logger = LogManager.getLogger(Icons.class);
+    /** Значок приложения. */
+    static final String APPLICATION = "telephone.png";
+    /** Имя ресурса -> декодированное изображение. */
+    private static final Map<String, Image> CACHE = new ConcurrentHashMap<>();
+
+    private Icons() {
+    }
+    /**
+     * Возвращает изображение из ресурсов пакета, декодируя его при первом обращении.
+     *
+     * @param name имя ресурса рядом с классом, например {@value #APPLICATION}
+     * @return изображение
+     * @throws IllegalArgumentException если ресурс не найден
+     */
+    static Image get(String name) {
+        return CACHE.computeIfAbsent(name, key -> {
+            try (InputStream stream = Icons.class.getResourceAsStream(key)) {
+                if (stream == null) {
+                    throw new IllegalArgumentException("Изображение не найдено: " + key);
+                }
+                logger.debug("Загружено изображение {}", key);
+                return new Image(stream);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось прочитать изображение " + key, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,342 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+/**
+ * Согласование телефонной книги с другими экземплярами приложения, работающими
+ * с тем же каталогом {@link ShardedStorage}.
+ * <p>
+ * Хранит базовое состояние &mdash; снимки контактов в том виде, в каком они записаны
+ * в поколении манифеста, известном этому экземпляру, по шардам. Пока экземпляр работает
+ * с каталогом один, базовое состояние не ведется и сохранение ничего не копирует: оно
+ * читается с диска при первом конфликте или при запуске наблюдения и дальше обновляется
+ * только для перезаписанных и изменившихся шардов. Если сохранение отклонено с
+ * {@link ShardedStorage.ConflictException}, изменившиеся шарды читаются с диска и
+ * объединяются с данными в памяти трехсторонним сравнением по каждому контакту
+ * (база, локальная версия, версия на диске), после чего сохранение повторяется.
+ * Повторное сохранение выполняется под исключительной блокировкой каталога вместе
+ * с объединением, поэтому оно не может снова оказаться устаревшим.
+ * Контакты, которые изменил только другой экземпляр, принимаются с диска; контакты,
+ * которые изменили оба, объединяются по номерам; если один экземпляр удалил контакт,
+ * а другой его изменил, сохраняется локальная версия.
+ * </p>
+ * <p>
+ * Локальные версии контактов находятся по индексу имен ({@link ContactDirectory#getIndex()}).
+ * Изменения применяются через методы {@link ContactDirectory} одним пакетом с меткой
+ * {@link ContactEvent.Type#SYNCED}, поэтому индексы и кэш поиска обновляются
+ * инкрементально, а история отмены их не записывает. Наблюдатель каталога
+ * ({@link WatchService}) выполняет то же объединение, как только другой экземпляр
+ * запишет новый манифест.
+ * </p>
+ */
+final class InstanceSync {
+    /** Логгер для класса InstanceSync. */
+    private static final Logger logger = LogManager.getLogger(InstanceSync.class);
+    /** Задержка перед чтением нового манифеста, чтобы объединить серию событий каталога. */
+    private static final long WATCH_DELAY_MS = 100;
+    /** Телефонная книга. */
+    private final ContactDirectory directory;
+    /** Общее хранилище. */
+    private final ShardedStorage storage;
+    /**
+     * По номерам шардов: имя в нижнем регистре -> снимок контакта в известном поколении на диске
+     * (null, пока базовое состояние не ведется).
+     */
+    private List<Map<String, Contact>> base;
+    /**
+     * Создает согласование для телефонной книги поверх общего хранилища.
+     *
+     * @param directory телефонная книга
+     * @param storage хранилище, которое использует телефонная книга
+     */
+    InstanceSync(ContactDirectory directory, ShardedStorage storage) {
+        this.directory = directory;
+        this.storage = storage;
+    }
+    /**
+     * Загружает телефонную книгу и запоминает загруженные контакты как базовое состояние.
+     *
+     * @throws IOException если данные не удалось прочитать
+     */
+    synchronized void load() throws IOException {
+        List<Contact> loaded = directory.loadFromStorage();
+        if (base != null) {
+            base = emptyBase();
+            for (Contact contact : loaded) {
+                Contact copy = contact.snapshot();
+                base.get(storage.shardOf(copy.getName())).put(key(copy), copy);
+            }
+        }
+    }
+    /**
+     * Сохраняет контакты; при конфликте объединяет изменения другого экземпляра и сохраняет
+     * результат, не отпуская блокировку каталога.
+     *
+     * @param contacts контакты для сохранения
+     * @throws IOException если данные не удалось записать
+     */
+    synchronized void save(List<Contact> contacts) throws IOException {
+        try {
+            write(contacts);
+        } catch (ShardedStorage.ConflictException e) {
+            logger.info("Данные изменены другим экземпляром, изменения объединяются: {}", e.getMessage());
+            storage.exclusive(() -> {
+                track();
+                refresh();
+                write(directory.savableContacts());
+                return null;
+            });
+        }
+    }
+    /**
+     * Записывает контакты; если базовое состояние ведется, делает снимки, записанные
+     * в закодированные заново шарды, базовым состоянием этих шардов.
+     */
+    private void write(List<Contact> contacts) throws IOException {
+        if (base == null) {
+            storage.save(contacts);
+            return;
+        }
+        // База должна совпадать с тем, что записано на диск, поэтому берутся снимки из хранилища
+        List<List<Contact>> written = storage.saveShards(contacts);
+        for (int shard = 0; shard < written.size(); shard++) {
+            if (written.get(shard) != null) {
+                Map<String, Contact> snapshots = new HashMap<>();
+                for (Contact snapshot : written.get(shard)) {
+                    snapshots.put(key(snapshot), snapshot);
+                }
+                base.set(shard, snapshots);
+            }
+        }
+    }
+    /**
+     * Начинает вести базовое состояние, если оно еще не ведется: читает с диска шарды
+     * поколения, известного этому экземпляру.
+     */
+    private void track() throws IOException {
+        if (base != null) {
+            return;
+        }
+        List<List<Contact>> shards = storage.readKnownShards();
+        List<Map<String, Contact>> result = emptyBase();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (Contact contact : shards.get(shard)) {
+                result.get(shard).put(key(contact), contact);
+            }
+        }
+        base = result;
+        logger.info("С каталогом {} работает несколько экземпляров: базовое состояние прочитано с диска",
+                storage.getDirectory());
+    }
+    /**
+     * Возвращает пустое базовое состояние для всех шардов.
+     */
+    private List<Map<String, Contact>> emptyBase() {
+        List<Map<String, Contact>> result = new ArrayList<>(storage.getShardCount());
+        for (int i = 0; i < storage.getShardCount(); i++) {
+            result.add(new HashMap<>());
+        }
+        return result;
+    }
+    /**
+     * Читает изменения других экземпляров и объединяет их с телефонной книгой.
+     *
+     * @return true, если на диске было новое поколение
+     * @throws IOException если изменившиеся шарды не удалось прочитать
+     */
+    synchronized boolean refresh() throws IOException {
+        track();
+        ShardedStorage.Changes changes = storage.readChanges();
+        if (changes == null) {
+            return false;
+        }
+        Map<String, Contact> theirs = new HashMap<>();
+        for (Contact contact : changes.contacts) {
+            theirs.put(key(contact), contact);
+        }
+        // Старое базовое состояние изменившихся шардов
+        Map<String, Contact> previous = new HashMap<>();
+        for (int shard = 0; shard < base.size(); shard++) {
+            if (changes.isChanged(shard)) {
+                previous.putAll(base.get(shard));
+            }
+        }
+        Set<String> keys = new HashSet<>(theirs.keySet());
+        keys.addAll(previous.keySet());
+        // Индекс создается до блокировки записи: его конструктор сам берет эту блокировку
+        ContactIndex index = directory.getIndex();
+        int[] applied = new int[2];
+        directory.batch(() -> {
+            directory.getEvents().publish(ContactEvent.synced());
+            for (String key : keys) {
+                merge(key, previous.get(key), index.findByName(key), theirs.get(key), applied);
+            }
+        });
+        for (int shard = 0; shard < base.size(); shard++) {
+            if (changes.isChanged(shard)) {
+                base.set(shard, new HashMap<>());
+            }
+        }
+        for (Map.Entry<String, Contact> entry : theirs.entrySet()) {
+            base.get(storage.shardOf(entry.getKey())).put(entry.getKey(), entry.getValue().snapshot());
+        }
+        logger.info("Поколение {} объединено: принято изменений {}, конфликтов {}",
+                changes.generation, applied[0], applied[1]);
+        return true;
+    }
+    /**
+     * Вытесняет номера копий базового состояния: они нужны только при объединении.
+     *
+     * @param spill файл вытеснения
+     */
+    void evictBase(NumberSpill spill) {
+        List<Contact> copies = new ArrayList<>();
+        synchronized (this) {
+            if (base != null) {
+                for (Map<String, Contact> shard : base) {
+                    copies.addAll(shard.values());
+                }
+            }
+        }
+        for (Contact copy : copies) {
+            copy.evict(spill);
+        }
+    }
+    /**
+     * Запускает наблюдение за каталогом хранилища. Объединение выполняется через {@code applier},
+     * например в потоке интерфейса.
+     *
+     * @param applier исполнитель, в котором изменяется телефонная книга
+     * @return объект, закрытие которого останавливает наблюдение
+     * @throws IOException если каталог не удалось зарегистрировать
+     */
+    Closeable watch(Executor applier) throws IOException {
+        synchronized (this) {
+            track();
+        }
+        Path path = storage.getDirectory();
+        WatchService watcher = path.getFileSystem().newWatchService();
+        path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean manifestChanged = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        manifestChanged |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || event.context().toString().startsWith("manifest");
+                    }
+                    key.reset();
+                    if (manifestChanged) {
+                        Thread.sleep(WATCH_DELAY_MS);
+                        applier.execute(this::refreshQuietly);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.debug("Наблюдение за каталогом {} остановлено", path);
+            }
+        }, "storage-watch");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Наблюдение за изменениями в каталоге {}", path);
+        return watcher;
+    }
+    /**
+     * Объединяет изменения других экземпляров, записывая ошибку в лог.
+     */
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (IOException e) {
+            logger.error("Не удалось прочитать изменения другого экземпляра", e);
+        }
+    }
+    /**
+     * Объединяет три версии одного контакта и применяет результат к телефонной книге.
+     *
+     * @param key имя в нижнем регистре
+     * @param base версия в известном поколении (null, если ее не было)
+     * @param local версия в памяти (null, если ее нет)
+     * @param theirs версия на диске (null, если ее нет)
+     * @param applied счетчики принятых изменений и конфликтов
+     */
+    private void merge(String key, Contact base, Contact local, Contact theirs, int[] applied) {
+        if (same(base, theirs) || same(local, theirs)) {
+            return;
+        }
+        applied[0]++;
+        if (local == null && same(base, null)) {
+            directory.insertContact(directory.getContacts().size(), theirs);
+        } else if (local != null && theirs != null) {
+            if (base != null && local.getName().equals(base.getName()) && !local.getName().equals(theirs.getName())) {
+                directory.renameContact(local, theirs.getName());
+            }
+            mergeNumbers(local, base == null ? Collections.emptyList() : base.getPhoneNumbers(), theirs.getPhoneNumbers());
+        } else if (theirs == null && same(base, local)) {
+            directory.removeContact(local);
+        } else {
+            // Один экземпляр удалил контакт, другой изменил: сохраняется локальная версия
+            applied[0]--;
+            applied[1]++;
+            logger.warn("Конфликт изменений контакта '{}': сохраняется локальная версия", key);
+        }
+    }
+    /**
+     * Переносит в локальную версию номера, добавленные и удаленные другим экземпляром;
+     * локальные изменения номеров сохраняются.
+     */
+    private void mergeNumbers(Contact local, List<PhoneNumber> base, List<PhoneNumber> theirs) {
+        Set<String> baseKeys = numberKeys(base);
+        Set<String> theirKeys = numberKeys(theirs);
+        for (PhoneNumber number : local.getPhoneNumbers()) {
+            String numberKey = numberKey(number);
+            if (baseKeys.contains(numberKey) && !theirKeys.contains(numberKey)) {
+                directory.removeNumber(local, number);
+            }
+        }
+        Set<String> localKeys = numberKeys(local.getPhoneNumbers());
+        for (PhoneNumber number : theirs) {
+            String numberKey = numberKey(number);
+            if (!baseKeys.contains(numberKey) && !localKeys.contains(numberKey)) {
+                directory.insertNumber(local, local.getPhoneNumbers().size(), number);
+            }
+        }
+    }
+    /**
+     * Сравнивает версии контакта: имя с учетом регистра и набор номеров без учета порядка.
+     */
+    private static boolean same(Contact a, Contact b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getName().equals(b.getName())
+                && numberKeys(a.peekPhoneNumbers()).equals(numberKeys(b.peekPhoneNumbers()));
+    }
+    /**
+     * Возвращает ключи номеров списка.
+     */
+    private static Set<String> numberKeys(List<PhoneNumber> numbers) {
+        Set<String> keys = new HashSet<>(numbers.size() * 2);
+        for (PhoneNumber number : numbers) {
+            keys.add(numberKey(number));
+        }
+        return keys;
+    }
+    /**
+     * Возвращает ключ номера: номер и тип.
+     */
+    private static String numberKey(PhoneNumber number) {
+        return number.getNumber() + '\u0000' + number.getType();
+    }
+    /**
+     * Возвращает ключ контакта: имя в нижнем регистре.
+     */
+    private static String key(Contact contact) {
+        return contact.getName().toLowerCase(Locale.ROOT);
+    }
+}
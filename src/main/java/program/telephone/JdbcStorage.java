@@ -0,0 +1,550 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+/**
+ * Хранилище контактов во встраиваемой SQL-базе (H2 в файловом режиме, без сервера).
+ * <p>
+ * Контакты хранятся в таблице {@code contacts} с индексами по имени, номера &mdash; в таблице
+ * {@code numbers} с индексом по номеру. Хранилище запоминает, какой строке соответствует
+ * каждый загруженный или сохраненный объект {@link Contact}, и номер изменения контакта
+ * ({@link Contact#getVersion()}) на момент сохранения, поэтому при сохранении записываются
+ * только добавленные, измененные и удаленные контакты, пакетами подготовленных запросов
+ * в одной транзакции. Копии данных контактов в памяти не хранятся.
+ * </p>
+ * <p>
+ * Порядок контактов хранится в столбце {@code pos}. Позиции выдаются с промежутками
+ * ({@value #POSITION_GAP}), поэтому при удалении, добавлении или перемещении контакта
+ * обновляются только строки, которые оказались не по порядку, а не вся таблица.
+ * </p>
+ * <p>
+ * Поиск и сортировка выполняются запросами к базе; результаты возвращаются как те же
+ * объекты контактов, что и в списке контроллера. База отвечает на запрос, только если
+ * переданный список совпадает с сохраненным: те же контакты, без несохраненных изменений,
+ * в сохраненном порядке. Иначе (например, между изменением и отложенным сохранением
+ * или после неудачного сохранения) запрос выполняется над списком в памяти, чтобы
+ * результат не терял новых контактов и не использовал старые имена.
+ * </p>
+ * <p>
+ * Поиск подстроки ({@code LIKE '%запрос%'}) не может использовать обычный индекс, поэтому
+ * для него ведется таблица триграмм {@code contact_grams}: все подстроки длины
+ * {@value #GRAM_LENGTH} имени в нижнем регистре и номеров контакта. Запрос из трех и более
+ * символов сначала отбирает по индексу контакты, содержащие все его триграммы, и только их
+ * проверяет через {@code LIKE}. Более короткие запросы по-прежнему просматривают таблицы
+ * целиком.
+ * </p>
+ * @see ContactStorage
+ */
+public class JdbcStorage implements ContactStorage {
+    /** Логгер для класса JdbcStorage. */
+    private static final Logger logger = LogManager.getLogger(JdbcStorage.class);
+    /** Запросы создания схемы. */
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS contacts (id BIGINT PRIMARY KEY, pos BIGINT NOT NULL,"
+                    + " name VARCHAR NOT NULL, name_lower VARCHAR NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS contacts_name ON contacts(name)",
+            "CREATE INDEX IF NOT EXISTS contacts_name_lower ON contacts(name_lower)",
+            "CREATE TABLE IF NOT EXISTS numbers (contact_id BIGINT NOT NULL, seq INT NOT NULL,"
+                    + " number VARCHAR, type VARCHAR, PRIMARY KEY (contact_id, seq))",
+            "CREATE INDEX IF NOT EXISTS numbers_number ON numbers(number)",
+            "CREATE TABLE IF NOT EXISTS contact_grams (gram VARCHAR(3) NOT NULL, contact_id BIGINT NOT NULL,"
+                    + " PRIMARY KEY (gram, contact_id))",
+            "CREATE INDEX IF NOT EXISTS contact_grams_contact ON contact_grams(contact_id)",
+            "CREATE TABLE IF NOT EXISTS meta (name VARCHAR PRIMARY KEY, val VARCHAR NOT NULL)"
+    };
+    /** Отметка в таблице {@code meta} о том, что первоначальный импорт уже выполнен. */
+    private static final String SEEDED = "seeded";
+    /** Длина подстрок в таблице {@code contact_grams}. */
+    static final int GRAM_LENGTH = 3;
+    /** Промежуток между соседними позициями, выдаваемыми новым контактам. */
+    static final long POSITION_GAP = 1L << 20;
+    /** JDBC-адрес базы данных. */
+    private final String url;
+    /** Хранилище, из которого импортируются контакты при первом запуске (может быть null). */
+    private final ContactStorage seed;
+    /** Открытое соединение с базой (создается при первом обращении). */
+    private Connection connection;
+    /** Строки базы для объектов контактов. */
+    private final Map<Contact, Row> rows = new IdentityHashMap<>();
+    /** Объекты контактов по идентификаторам строк. */
+    private final Map<Long, Contact> byId = new HashMap<>();
+    /** Следующий свободный идентификатор строки. */
+    private long nextId = 1;
+    /**
+     * Создает хранилище для указанной базы.
+     *
+     * @param url JDBC-адрес базы, например {@code jdbc:h2:./phonebook-db}
+     * @param seed хранилище для первоначального импорта, если база пуста (может быть null)
+     */
+    public JdbcStorage(String url, ContactStorage seed) {
+        this.url = url;
+        this.seed = seed;
+    }
+    /**
+     * Возвращает соединение с базой, при необходимости открывая его и создавая схему.
+     *
+     * @return соединение
+     * @throws SQLException если базу не удалось открыть
+     */
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+            }
+            logger.info("Открыта база данных {}", url);
+        }
+        return connection;
+    }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * При первом открытии базы контакты импортируются из исходного хранилища и сразу
+     * сохраняются. Импорт выполняется один раз: в таблице {@code meta} остается отметка,
+     * поэтому база, из которой удалили все контакты, остается пустой.
+     */
+    @Override
+    public synchronized List<Contact> load() throws IOException {
+        try {
+            Connection db = connection();
+            rows.clear();
+            byId.clear();
+            List<Contact> result = new ArrayList<>();
+            try (Statement statement = db.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT id, pos, name FROM contacts ORDER BY pos, id")) {
+                while (rows.next()) {
+                    Contact contact = new Contact(rows.getString(3));
+                    track(contact, new Row(rows.getLong(1), rows.getLong(2)));
+                    nextId = Math.max(nextId, rows.getLong(1) + 1);
+                    result.add(contact);
+                }
+            }
+            Map<Long, List<PhoneNumber>> numbers = new HashMap<>();
+            try (Statement statement = db.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT contact_id, number, type FROM numbers ORDER BY contact_id, seq")) {
+                while (rows.next()) {
+                    numbers.computeIfAbsent(rows.getLong(1), id -> new ArrayList<>())
+                            .add(new PhoneNumber(rows.getString(2), rows.getString(3)));
+                }
+            }
+            numbers.forEach((id, list) -> {
+                Contact contact = byId.get(id);
+                if (contact != null) {
+                    contact.setPhoneNumbers(list);
+                }
+            });
+            for (Contact contact : result) {
+                this.rows.get(contact).version = contact.getVersion();
+            }
+            if (!result.isEmpty()) {
+                indexGrams(db, result);
+            }
+            if (!isSeeded(db)) {
+                if (result.isEmpty() && seed != null) {
+                    List<Contact> imported = seed.load();
+                    if (!imported.isEmpty()) {
+                        logger.info("Импорт {} контактов в базу данных", imported.size());
+                        save(imported);
+                        markSeeded(db);
+                        return imported;
+                    }
+                }
+                markSeeded(db);
+            }
+            logger.info("Загружено {} контактов из базы данных", result.size());
+            return result;
+        } catch (SQLException e) {
+            throw new IOException("Ошибка чтения базы данных: " + e.getMessage(), e);
+        }
+    }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Записываются только контакты, добавленные, измененные или удаленные с момента
+     * последней загрузки или сохранения.
+     */
+    @Override
+    public synchronized void save(List<Contact> contacts) throws IOException {
+        try {
+            Connection db = connection();
+            boolean autoCommit = db.getAutoCommit();
+            db.setAutoCommit(false);
+            try (PreparedStatement insertContact = db.prepareStatement(
+                         "INSERT INTO contacts (id, pos, name, name_lower) VALUES (?, ?, ?, ?)");
+                 PreparedStatement updateContact = db.prepareStatement(
+                         "UPDATE contacts SET pos = ?, name = ?, name_lower = ? WHERE id = ?");
+                 PreparedStatement moveContact = db.prepareStatement("UPDATE contacts SET pos = ? WHERE id = ?");
+                 PreparedStatement deleteContact = db.prepareStatement("DELETE FROM contacts WHERE id = ?");
+                 PreparedStatement deleteNumbers = db.prepareStatement("DELETE FROM numbers WHERE contact_id = ?");
+                 PreparedStatement insertNumber = db.prepareStatement(
+                         "INSERT INTO numbers (contact_id, seq, number, type) VALUES (?, ?, ?, ?)");
+                 PreparedStatement deleteGrams = db.prepareStatement("DELETE FROM contact_grams WHERE contact_id = ?");
+                 PreparedStatement insertGram = db.prepareStatement(
+                         "INSERT INTO contact_grams (gram, contact_id) VALUES (?, ?)")) {
+                Set<Contact> present = Collections.newSetFromMap(new IdentityHashMap<>());
+                Map<Contact, Row> added = new IdentityHashMap<>();
+                Map<Contact, Integer> versions = new IdentityHashMap<>();
+                long[] positions = positions(contacts);
+                int moved = 0;
+                for (int i = 0; i < contacts.size(); i++) {
+                    Contact contact = contacts.get(i);
+                    present.add(contact);
+                    int version = contact.getVersion();
+                    Row row = rows.get(contact);
+                    long id;
+                    if (row == null) {
+                        id = nextId++;
+                        insertContact.setLong(1, id);
+                        insertContact.setLong(2, positions[i]);
+                        insertContact.setString(3, contact.getName());
+                        insertContact.setString(4, contact.getName().toLowerCase());
+                        insertContact.addBatch();
+                        added.put(contact, new Row(id, positions[i]));
+                    } else if (row.version == version) {
+                        if (row.pos != positions[i]) {
+                            moveContact.setLong(1, positions[i]);
+                            moveContact.setLong(2, row.id);
+                            moveContact.addBatch();
+                            moved++;
+                        }
+                        continue;
+                    } else {
+                        id = row.id;
+                        updateContact.setLong(1, positions[i]);
+                        updateContact.setString(2, contact.getName());
+                        updateContact.setString(3, contact.getName().toLowerCase());
+                        updateContact.setLong(4, id);
+                        updateContact.addBatch();
+                        deleteNumbers.setLong(1, id);
+                        deleteNumbers.addBatch();
+                        deleteGrams.setLong(1, id);
+                        deleteGrams.addBatch();
+                    }
+                    List<PhoneNumber> numbers = contact.peekPhoneNumbers();
+                    for (int seq = 0; seq < numbers.size(); seq++) {
+                        insertNumber.setLong(1, id);
+                        insertNumber.setInt(2, seq);
+                        insertNumber.setString(3, numbers.get(seq).getNumber());
+                        insertNumber.setString(4, numbers.get(seq).getType());
+                        insertNumber.addBatch();
+                    }
+                    addGrams(insertGram, id, contact);
+                    versions.put(contact, version);
+                }
+                List<Contact> removed = new ArrayList<>();
+                for (Map.Entry<Contact, Row> entry : rows.entrySet()) {
+                    if (!present.contains(entry.getKey())) {
+                        deleteNumbers.setLong(1, entry.getValue().id);
+                        deleteNumbers.addBatch();
+                        deleteGrams.setLong(1, entry.getValue().id);
+                        deleteGrams.addBatch();
+                        deleteContact.setLong(1, entry.getValue().id);
+                        deleteContact.addBatch();
+                        removed.add(entry.getKey());
+                    }
+                }
+                deleteNumbers.executeBatch();
+                deleteGrams.executeBatch();
+                deleteContact.executeBatch();
+                insertContact.executeBatch();
+                updateContact.executeBatch();
+                moveContact.executeBatch();
+                insertNumber.executeBatch();
+                insertGram.executeBatch();
+                db.commit();
+                // Сведения о строках обновляются только после успешной фиксации транзакции
+                for (Contact contact : removed) {
+                    byId.remove(rows.remove(contact).id);
+                }
+                added.forEach(this::track);
+                versions.forEach((contact, version) -> rows.get(contact).version = version);
+                for (int i = 0; i < contacts.size(); i++) {
+                    rows.get(contacts.get(i)).pos = positions[i];
+                }
+                logger.info("Сохранено в базу данных: изменено {}, перемещено {}, удалено {}",
+                        versions.size(), moved, removed.size());
+            } catch (SQLException e) {
+                db.rollback();
+                throw e;
+            } finally {
+                db.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Ошибка записи в базу данных: " + e.getMessage(), e);
+        }
+    }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Поиск выполняется запросом к базе по столбцам {@code name_lower} и {@code number};
+     * запросы из {@value #GRAM_LENGTH} и более символов сначала отбирают кандидатов
+     * по таблице триграмм.
+     */
+    @Override
+    public synchronized List<Contact> search(List<Contact> contacts, String request, BooleanSupplier cancelled)
+            throws IOException {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Поиск отменен");
+        }
+        if (!isSaved(contacts)) {
+            logger.debug("Список содержит несохраненные изменения, поиск '{}' выполняется в памяти", request);
+            return ContactQueries.search(contacts, request, cancelled);
+        }
+        String pattern = "%" + request.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        Set<String> grams = grams(request, new LinkedHashSet<>());
+        String sql;
+        if (grams.isEmpty()) {
+            sql = "SELECT id FROM contacts WHERE name_lower LIKE ? ESCAPE '\\'"
+                    + " OR id IN (SELECT contact_id FROM numbers WHERE number LIKE ? ESCAPE '\\')"
+                    + " ORDER BY pos, id";
+        } else {
+            sql = "SELECT c.id FROM contacts c WHERE c.id IN (SELECT contact_id FROM contact_grams"
+                    + " WHERE gram IN (" + String.join(", ", Collections.nCopies(grams.size(), "?")) + ")"
+                    + " GROUP BY contact_id HAVING COUNT(*) = " + grams.size() + ")"
+                    + " AND (c.name_lower LIKE ? ESCAPE '\\' OR EXISTS (SELECT 1 FROM numbers n"
+                    + " WHERE n.contact_id = c.id AND n.number LIKE ? ESCAPE '\\'))"
+                    + " ORDER BY c.pos, c.id";
+        }
+        try (PreparedStatement statement = connection().prepareStatement(sql)) {
+            int index = 1;
+            for (String gram : grams) {
+                statement.setString(index++, gram);
+            }
+            statement.setString(index++, pattern);
+            statement.setString(index, pattern);
+            return resolve(statement);
+        } catch (SQLException e) {
+            throw new IOException("Ошибка поиска в базе данных: " + e.getMessage(), e);
+        }
+    }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Сортировка выполняется базой по индексу {@code contacts_name}.
+     */
+    @Override
+    public synchronized List<Contact> sorted(List<Contact> contacts, boolean descending) throws IOException {
+        if (!isSaved(contacts)) {
+            logger.debug("Список содержит несохраненные изменения, сортировка выполняется в памяти");
+            return ContactQueries.sorted(contacts, descending);
+        }
+        String sql = "SELECT id FROM contacts ORDER BY name " + (descending ? "DESC" : "ASC") + ", pos";
+        try (PreparedStatement statement = connection().prepareStatement(sql)) {
+            return resolve(statement);
+        } catch (SQLException e) {
+            throw new IOException("Ошибка сортировки в базе данных: " + e.getMessage(), e);
+        }
+    }
+    /**
+     * Проверяет, совпадает ли список с сохраненным в базе: каждый контакт имеет строку,
+     * не изменялся после сохранения и стоит в порядке сохраненных позиций, а удаленных
+     * после сохранения контактов нет.
+     *
+     * @param contacts текущий список контактов
+     * @return true, если база отражает список точно
+     */
+    private boolean isSaved(List<Contact> contacts) {
+        if (contacts.size() != rows.size()) {
+            return false;
+        }
+        long last = Long.MIN_VALUE;
+        for (Contact contact : contacts) {
+            Row row = rows.get(contact);
+            if (row == null || row.version != contact.getVersion() || row.pos <= last) {
+                return false;
+            }
+            last = row.pos;
+        }
+        return true;
+    }
+    /**
+     * Выполняет запрос, возвращающий идентификаторы, и сопоставляет их объектам контактов.
+     *
+     * @param statement подготовленный запрос
+     * @return найденные контакты
+     * @throws SQLException при ошибке запроса
+     */
+    private List<Contact> resolve(PreparedStatement statement) throws SQLException {
+        List<Contact> result = new ArrayList<>();
+        try (ResultSet found = statement.executeQuery()) {
+            while (found.next()) {
+                Contact contact = byId.get(found.getLong(1));
+                if (contact != null) {
+                    result.add(contact);
+                }
+            }
+        }
+        return result;
+    }
+    /**
+     * Вычисляет позиции контактов в порядке списка. Контакты, сохраненные позиции которых
+     * идут по возрастанию, сохраняют их; остальные получают позиции в промежутках между
+     * соседями. Если промежутка не хватает, позиции выдаются заново с шагом {@link #POSITION_GAP}.
+     *
+     * @param contacts контакты в порядке сохранения
+     * @return позиция для каждого контакта
+     */
+    private long[] positions(List<Contact> contacts) {
+        int size = contacts.size();
+        long[] positions = new long[size];
+        boolean[] kept = new boolean[size];
+        long last = 0;
+        for (int i = 0; i < size; i++) {
+            Row row = rows.get(contacts.get(i));
+            if (row != null && row.pos > last) {
+                kept[i] = true;
+                positions[i] = row.pos;
+                last = row.pos;
+            }
+        }
+        long previous = 0;
+        int i = 0;
+        while (i < size) {
+            if (kept[i]) {
+                previous = positions[i++];
+                continue;
+            }
+            int end = i;
+            while (end < size && !kept[end]) {
+                end++;
+            }
+            int gaps = end - i + 1;
+            long next = end < size ? positions[end] : previous + gaps * POSITION_GAP;
+            long step = (next - previous) / gaps;
+            if (step < 1) {
+                for (int k = 0; k < size; k++) {
+                    positions[k] = (k + 1) * POSITION_GAP;
+                }
+                return positions;
+            }
+            for (int k = i; k < end; k++) {
+                positions[k] = previous + step * (k - i + 1);
+            }
+            i = end;
+        }
+        return positions;
+    }
+    /**
+     * Проверяет, выполнялся ли первоначальный импорт.
+     *
+     * @param db соединение
+     * @return true, если в таблице {@code meta} есть отметка об импорте
+     * @throws SQLException при ошибке запроса
+     */
+    private static boolean isSeeded(Connection db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement("SELECT 1 FROM meta WHERE name = ?")) {
+            statement.setString(1, SEEDED);
+            try (ResultSet found = statement.executeQuery()) {
+                return found.next();
+            }
+        }
+    }
+    /**
+     * Оставляет отметку о выполненном первоначальном импорте.
+     *
+     * @param db соединение
+     * @throws SQLException при ошибке записи
+     */
+    private static void markSeeded(Connection db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement("MERGE INTO meta (name, val) KEY (name) VALUES (?, ?)")) {
+            statement.setString(1, SEEDED);
+            statement.setString(2, "true");
+            statement.executeUpdate();
+        }
+    }
+    /**
+     * Заполняет таблицу триграмм, если она пуста, например в базе, созданной до ее появления.
+     *
+     * @param db соединение
+     * @param contacts загруженные контакты
+     * @throws SQLException при ошибке записи
+     */
+    private void indexGrams(Connection db, List<Contact> contacts) throws SQLException {
+        try (Statement statement = db.createStatement();
+             ResultSet found = statement.executeQuery("SELECT 1 FROM contact_grams LIMIT 1")) {
+            if (found.next()) {
+                return;
+            }
+        }
+        boolean autoCommit = db.getAutoCommit();
+        db.setAutoCommit(false);
+        try (PreparedStatement insertGram = db.prepareStatement(
+                "INSERT INTO contact_grams (gram, contact_id) VALUES (?, ?)")) {
+            for (Contact contact : contacts) {
+                addGrams(insertGram, rows.get(contact).id, contact);
+            }
+            insertGram.executeBatch();
+            db.commit();
+            logger.info("Построен индекс триграмм для {} контактов", contacts.size());
+        } catch (SQLException e) {
+            db.rollback();
+            throw e;
+        } finally {
+            db.setAutoCommit(autoCommit);
+        }
+    }
+    /**
+     * Добавляет в пакет строки таблицы триграмм для имени и номеров контакта.
+     *
+     * @param insertGram подготовленный запрос вставки триграммы
+     * @param id идентификатор строки контакта
+     * @param contact контакт
+     * @throws SQLException при ошибке подготовки пакета
+     */
+    private static void addGrams(PreparedStatement insertGram, long id, Contact contact) throws SQLException {
+        Set<String> grams = grams(contact.getName().toLowerCase(), new HashSet<>());
+        for (PhoneNumber number : contact.peekPhoneNumbers()) {
+            grams(number.getNumber(), grams);
+        }
+        for (String gram : grams) {
+            insertGram.setString(1, gram);
+            insertGram.setLong(2, id);
+            insertGram.addBatch();
+        }
+    }
+    /**
+     * Добавляет в множество все подстроки текста длины {@value #GRAM_LENGTH}.
+     *
+     * @param text текст (может быть null)
+     * @param grams множество, в которое добавляются подстроки
+     * @return то же множество
+     */
+    private static Set<String> grams(String text, Set<String> grams) {
+        if (text != null) {
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return grams;
+    }
+    /**
+     * Связывает объект контакта со строкой базы.
+     */
+    private void track(Contact contact, Row row) {
+        rows.put(contact, row);
+        byId.put(row.id, contact);
+    }
+    /**
+     * Строка базы, соответствующая объекту контакта.
+     */
+    private static final class Row {
+        /** Идентификатор строки. */
+        final long id;
+        /** Позиция строки в порядке отображения. */
+        long pos;
+        /** Номер изменения контакта при последней загрузке или сохранении. */
+        int version;
+
+        Row(long id, long pos) {
+            this.id = id;
+            this.pos = pos;
+        }
+    }
+}
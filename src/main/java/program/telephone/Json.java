@@ -0,0 +1,295 @@
+package program.telephone;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * Минимальная запись и разбор JSON для {@link ApiServer}.
+ * <p>
+ * Поддерживаются объекты, массивы, строки, числа, {@code true}, {@code false} и {@code null}.
+ * Объекты разбираются в {@link LinkedHashMap}, массивы &mdash; в {@link ArrayList},
+ * числа &mdash; в {@link Double}. Вложенность объектов и массивов ограничена
+ * {@value #MAX_DEPTH} уровнями, чтобы разбор тела запроса не переполнял стек.
+ * </p>
+ */
+final class Json {
+    /** Наибольшая глубина вложенности объектов и массивов. */
+    static final int MAX_DEPTH = 64;
+
+    private Json() {
+    }
+    /**
+     * Записывает строку в кавычках с экранированием.
+     *
+     * @param out получатель
+     * @param value строка (null записывается как {@code null})
+     * @throws IOException при ошибке записи
+     */
+    static void writeString(Appendable out, String value) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+    /**
+     * Записывает контакт как объект {@code {"name": ..., "numbers": [{"number": ..., "type": ...}]}}.
+     *
+     * @param out получатель
+     * @param contact контакт
+     * @throws IOException при ошибке записи
+     */
+    static void writeContact(Appendable out, Contact contact) throws IOException {
+        out.append("{\"name\":");
+        writeString(out, contact.getName());
+        out.append(",\"numbers\":[");
+        boolean first = true;
+        for (PhoneNumber number : contact.peekPhoneNumbers()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"number\":");
+            writeString(out, number.getNumber());
+            out.append(",\"type\":");
+            writeString(out, number.getType());
+            out.append('}');
+        }
+        out.append("]}");
+    }
+    /**
+     * Разбирает JSON-документ.
+     *
+     * @param text текст документа
+     * @return разобранное значение
+     * @throws IllegalArgumentException если текст не является корректным JSON
+     *         или вложенность глубже {@value #MAX_DEPTH} уровней
+     */
+    static Object parse(String text) {
+        Parser parser = new Parser(text);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("лишние символы после значения");
+        }
+        return value;
+    }
+    /**
+     * Рекурсивный разборщик JSON.
+     */
+    private static final class Parser {
+        private final String text;
+        private int pos;
+        private int depth;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("неожиданный конец документа");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{':
+                    enter();
+                    Map<String, Object> object = object();
+                    depth--;
+                    return object;
+                case '[':
+                    enter();
+                    List<Object> array = array();
+                    depth--;
+                    return array;
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    return number();
+            }
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return result;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("ожидалось имя поля");
+                }
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                result.put(key, value());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return result;
+                }
+                if (c != ',') {
+                    throw error("ожидалась ',' или '}'");
+                }
+            }
+        }
+
+        List<Object> array() {
+            List<Object> result = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return result;
+            }
+            while (true) {
+                result.add(value());
+                skipWhitespace();
+                char c = next();
+                if (c == ']') {
+                    return result;
+                }
+                if (c != ',') {
+                    throw error("ожидалась ',' или ']'");
+                }
+            }
+        }
+
+        String string() {
+            pos++;
+            StringBuilder result = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return result.toString();
+                }
+                if (c != '\\') {
+                    result.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'b':
+                        result.append('\b');
+                        break;
+                    case 'f':
+                        result.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("неполная escape-последовательность");
+                        }
+                        try {
+                            result.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("некорректная escape-последовательность");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        result.append(escaped);
+                }
+            }
+        }
+
+        Double number() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.valueOf(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("некорректное значение");
+            }
+        }
+
+        Object literal(String word, Object value) {
+            if (!text.startsWith(word, pos)) {
+                throw error("некорректное значение");
+            }
+            pos += word.length();
+            return value;
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw error("вложенность глубже " + MAX_DEPTH + " уровней");
+            }
+        }
+
+        char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        char next() {
+            if (pos >= text.length()) {
+                throw error("неожиданный конец документа");
+            }
+            return text.charAt(pos++);
+        }
+
+        void expect(char c) {
+            if (next() != c) {
+                throw error("ожидался символ '" + c + "'");
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Ошибка JSON в позиции " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+/**
+ * Нагрузочный тест телефонной книги без графического интерфейса.
+ * <p>
+ * Загружает хранилище (например, созданное {@link DatasetGenerator}) в {@link ContactDirectory}
+ * и в нескольких потоках выполняет смесь операций: поиск, добавление контакта с номером,
+ * замену номера и удаление контакта. Каждый поток работает со своей частью контактов, чтобы
+ * удаления не пересекались. Первые операции каждого потока считаются прогревом и в
+ * статистику не входят. В конце выводится пропускная способность и перцентили задержки
+ * по каждому типу операций.
+ * </p>
+ * <p>Запуск: {@code gradle loadTest -Pargs="--dir phonebook-data --ops 200000 --threads 4"}.
+ * Параметры:
+ * <ul>
+ *   <li>{@code --dir} &mdash; каталог хранилища (тип хранилища задается {@code -Dtelephone.storage})</li>
+ *   <li>{@code --ops} &mdash; общее количество операций (по умолчанию 100000)</li>
+ *   <li>{@code --threads} &mdash; количество потоков (по умолчанию 1)</li>
+ *   <li>{@code --mix} &mdash; доли операций, по умолчанию {@code search=70,add=10,edit=10,delete=10}</li>
+ *   <li>{@code --warmup} &mdash; количество операций прогрева на поток (по умолчанию 1000)</li>
+ *   <li>{@code --seed} &mdash; зерно генератора случайных чисел</li>
+ *   <li>{@code --save} &mdash; {@code true}, чтобы в конце сохранить изменения и измерить сохранение,
+ *       а затем сравнить надежное сохранение с простой записью (см. {@link #compareSave(List, int)})</li>
+ *   <li>{@code --save-rounds} &mdash; количество повторов сравнения сохранений (по умолчанию 5)</li>
+ * </ul>
+ * Бюджет памяти для контактов задается {@code -Dtelephone.memory.budget} (см. {@link ContactMemory});
+ * в конце выводится оценка памяти контактов и статистика вытеснения.
+ * </p>
+ */
+public class LoadDriver {
+    /** Логгер для класса LoadDriver. */
+    private static final Logger logger = LogManager.getLogger(LoadDriver.class);
+    /**
+     * Тип операции нагрузочного теста.
+     */
+    enum Operation {
+        /** Поиск по части имени или номера. */
+        SEARCH,
+        /** Добавление контакта с одним номером. */
+        ADD,
+        /** Замена номера контакта. */
+        EDIT,
+        /** Удаление контакта. */
+        DELETE
+    }
+    /** Телефонная книга. */
+    private final ContactDirectory directory;
+    /** Суммарные доли операций по порядку {@link Operation}. */
+    private final int[] cumulativeMix;
+    /** Задержки по потокам и типам операций, в наносекундах. */
+    private final long[][][] latencies;
+    /** Количество записанных задержек по потокам и типам операций. */
+    private final int[][] counts;
+    /**
+     * Создает нагрузочный тест.
+     *
+     * @param directory загруженная телефонная книга
+     * @param mix доли операций по порядку {@link Operation}
+     * @param threads количество потоков
+     * @param opsPerThread количество измеряемых операций на поток
+     */
+    LoadDriver(ContactDirectory directory, int[] mix, int threads, int opsPerThread) {
+        this.directory = directory;
+        this.cumulativeMix = new int[mix.length];
+        int total = 0;
+        for (int i = 0; i < mix.length; i++) {
+            total += mix[i];
+            cumulativeMix[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Сумма долей операций должна быть положительной");
+        }
+        this.latencies = new long[threads][Operation.values().length][opsPerThread];
+        this.counts = new int[threads][Operation.values().length];
+    }
+    /**
+     * Выполняет нагрузку во всех потоках и ждет их завершения.
+     *
+     * @param opsPerThread количество измеряемых операций на поток
+     * @param warmup количество операций прогрева на поток
+     * @param seed зерно генератора случайных чисел
+     * @return время выполнения измеряемой части в наносекундах
+     * @throws InterruptedException если ожидание прервано
+     */
+    long run(int opsPerThread, int warmup, long seed) throws InterruptedException {
+        int threads = latencies.length;
+        List<Contact> all = directory.copyContacts();
+        CountDownLatch warmedUp = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            List<Contact> owned = new ArrayList<>(all.size() / threads + 1);
+            for (int i = t; i < all.size(); i += threads) {
+                owned.add(all.get(i));
+            }
+            Worker worker = new Worker(t, owned, seed + t);
+            workers[t] = new Thread(() -> {
+                worker.execute(warmup, false);
+                warmedUp.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                worker.execute(opsPerThread, true);
+            }, "load-" + t);
+            workers[t].start();
+        }
+        warmedUp.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - begin;
+    }
+    /**
+     * Выводит статистику по типам операций.
+     *
+     * @param elapsedNanos время выполнения измеряемой части
+     */
+    void report(long elapsedNanos) {
+        long totalOps = 0;
+        System.out.printf("%-8s %10s %12s %10s %10s %10s %10s%n",
+                "операция", "кол-во", "оп/с", "p50 мкс", "p95 мкс", "p99 мкс", "max мкс");
+        for (Operation operation : Operation.values()) {
+            long[] merged = merge(operation);
+            totalOps += merged.length;
+            if (merged.length == 0) {
+                continue;
+            }
+            Arrays.sort(merged);
+            System.out.printf("%-8s %10d %12.0f %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.name().toLowerCase(Locale.ROOT), merged.length,
+                    merged.length * 1e9 / elapsedNanos,
+                    percentile(merged, 0.50) / 1e3, percentile(merged, 0.95) / 1e3,
+                    percentile(merged, 0.99) / 1e3, merged[merged.length - 1] / 1e3);
+        }
+        System.out.printf("всего    %10d %12.0f за %.2f с, контактов в книге: %d%n",
+                totalOps, totalOps * 1e9 / elapsedNanos, elapsedNanos / 1e9, directory.getContacts().size());
+    }
+    /**
+     * Собирает задержки операции из всех потоков в один массив.
+     */
+    private long[] merge(Operation operation) {
+        int total = 0;
+        for (int[] threadCounts : counts) {
+            total += threadCounts[operation.ordinal()];
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (int t = 0; t < counts.length; t++) {
+            int count = counts[t][operation.ordinal()];
+            System.arraycopy(latencies[t][operation.ordinal()], 0, merged, offset, count);
+            offset += count;
+        }
+        return merged;
+    }
+    /**
+     * Возвращает перцентиль отсортированного массива (метод ближайшего ранга).
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+    /**
+     * Выбирает операцию по случайному числу от 0 до суммы долей.
+     */
+    private Operation choose(Random random) {
+        int value = random.nextInt(cumulativeMix[cumulativeMix.length - 1]);
+        for (int i = 0; i < cumulativeMix.length; i++) {
+            if (value < cumulativeMix[i]) {
+                return Operation.values()[i];
+            }
+        }
+        return Operation.SEARCH;
+    }
+    /**
+     * Поток нагрузки со своей частью контактов и своим генератором данных.
+     */
+    private final class Worker {
+        /** Номер потока. */
+        private final int index;
+        /** Контакты, которые этот поток может менять и удалять. */
+        private final List<Contact> owned;
+        /** Источник случайных чисел. */
+        private final Random random;
+        /** Генератор имен и номеров для добавления. */
+        private final DatasetGenerator generator;
+
+        Worker(int index, List<Contact> owned, long seed) {
+            this.index = index;
+            this.owned = owned;
+            this.random = new Random(seed);
+            this.generator = new DatasetGenerator(seed ^ 0x5DEECE66DL);
+        }
+        /**
+         * Выполняет указанное количество операций.
+         *
+         * @param ops количество операций
+         * @param record true, чтобы записывать задержки
+         */
+        void execute(int ops, boolean record) {
+            for (int i = 0; i < ops; i++) {
+                Operation operation = choose(random);
+                if (operation != Operation.SEARCH && operation != Operation.ADD && owned.isEmpty()) {
+                    operation = Operation.ADD;
+                }
+                long start = System.nanoTime();
+                try {
+                    perform(operation);
+                } catch (IOException e) {
+                    logger.error("Ошибка операции {} в потоке {}", operation, index, e);
+                }
+                long elapsed = System.nanoTime() - start;
+                if (record) {
+                    latencies[index][operation.ordinal()][counts[index][operation.ordinal()]++] = elapsed;
+                }
+            }
+        }
+        /**
+         * Выполняет одну операцию так же, как ее выполняет интерфейс.
+         */
+        private void perform(Operation operation) throws IOException {
+            switch (operation) {
+                case SEARCH:
+                    directory.search(randomRequest());
+                    break;
+                case ADD:
+                    Optional<Contact> added = directory.addContact(generator.nextName() + " " + index);
+                    if (added.isPresent()) {
+                        PhoneNumber number = generator.nextNumber();
+                        if (directory.verifyNumber(number.getNumber(), number.getType(), added.get())) {
+                            directory.addNumber(added.get(), number);
+                        }
+                        owned.add(added.get());
+                    }
+                    break;
+                case EDIT:
+                    Contact contact = owned.get(random.nextInt(owned.size()));
+                    List<PhoneNumber> numbers = contact.getPhoneNumbers();
+                    PhoneNumber replacement = generator.nextNumber();
+                    if (!numbers.isEmpty() && directory.verifyNumber(
+                            replacement.getNumber(), replacement.getType(), contact)) {
+                        directory.editNumber(contact, numbers.get(random.nextInt(numbers.size())), replacement);
+                    }
+                    break;
+                case DELETE:
+                    int position = random.nextInt(owned.size());
+                    Contact removed = owned.get(position);
+                    owned.set(position, owned.get(owned.size() - 1));
+                    owned.remove(owned.size() - 1);
+                    directory.removeContact(removed);
+                    break;
+                default:
+                    break;
+            }
+        }
+        /**
+         * Возвращает запрос, каким его вводит пользователь: начало имени
+         * или цифры номера существующего контакта длиной от 1 до 5 символов.
+         */
+        private String randomRequest() {
+            if (owned.isEmpty()) {
+                return generator.nextName().substring(0, 2);
+            }
+            Contact contact = owned.get(random.nextInt(owned.size()));
+            List<PhoneNumber> numbers = contact.getPhoneNumbers();
+            String source = random.nextInt(4) == 0 && !numbers.isEmpty()
+                    ? numbers.get(0).getNumber() : contact.getName();
+            int length = Math.min(source.length(), 1 + random.nextInt(5));
+            return source.substring(0, length);
+        }
+    }
+    /**
+     * Сравнивает надежное сохранение с простой записью тех же данных и выводит медианы.
+     * <p>
+     * Надежное сохранение &mdash; полная запись в новый каталог {@link ShardedStorage}: все шарды
+     * кодируются, каждый файл сбрасывается на диск, манифест с контрольной суммой записывается
+     * через временный файл и резервные копии. Простая запись кодирует те же шарды в тот же
+     * блочный формат (с контрольными суммами блоков) и записывает их {@link Files#write} без
+     * сброса на диск и без манифеста. Повторы чередуются, каталоги удаляются после каждого повтора.
+     *
+     * @param contacts контакты для записи
+     * @param rounds количество повторов
+     * @throws IOException если данные не удалось записать
+     */
+    static void compareSave(List<Contact> contacts, int rounds) throws IOException {
+        Path root = Files.createTempDirectory("phonebook-save");
+        long[] durable = new long[rounds];
+        long[] plain = new long[rounds];
+        try {
+            for (int round = 0; round < rounds; round++) {
+                Path durableDir = root.resolve("durable-" + round);
+                ShardedStorage storage = new ShardedStorage(durableDir, null, ShardedStorage.DEFAULT_SHARD_COUNT);
+                storage.load();
+                long start = System.nanoTime();
+                storage.save(contacts);
+                durable[round] = System.nanoTime() - start;
+
+                Path plainDir = Files.createDirectories(root.resolve("plain-" + round));
+                start = System.nanoTime();
+                List<List<Contact>> groups = new ArrayList<>(storage.getShardCount());
+                for (int i = 0; i < storage.getShardCount(); i++) {
+                    groups.add(new ArrayList<>());
+                }
+                for (Contact contact : contacts) {
+                    groups.get(storage.shardOf(contact.getName())).add(contact);
+                }
+                for (int i = 0; i < groups.size(); i++) {
+                    Files.write(plainDir.resolve(String.format("shard-%03d.bin", i)), BlockFile.encode(groups.get(i)));
+                }
+                plain[round] = System.nanoTime() - start;
+                deleteTree(durableDir);
+                deleteTree(plainDir);
+            }
+        } finally {
+            deleteTree(root);
+        }
+        Arrays.sort(durable);
+        Arrays.sort(plain);
+        long durableMedian = percentile(durable, 0.50);
+        long plainMedian = percentile(plain, 0.50);
+        System.out.printf("Сохранение %d контактов, медиана из %d: надежное %.1f мс, простая запись %.1f мс, "
+                        + "накладные расходы %+.0f%%%n", contacts.size(), rounds, durableMedian / 1e6,
+                plainMedian / 1e6, (durableMedian - plainMedian) * 100.0 / plainMedian);
+    }
+    /**
+     * Удаляет каталог со всем содержимым, если он существует.
+     */
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = new ArrayList<>(Arrays.asList(walk.toArray(Path[]::new)));
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+    /**
+     * Разбирает доли операций вида {@code search=70,add=10,edit=10,delete=10}.
+     *
+     * @param value строка долей
+     * @return доли по порядку {@link Operation}; не указанные операции получают 0
+     * @throws IllegalArgumentException если строка некорректна
+     */
+    static int[] parseMix(String value) {
+        int[] mix = new int[Operation.values().length];
+        for (String part : value.split(",")) {
+            String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Некорректная доля операции: " + part);
+            }
+            mix[Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)).ordinal()] = Integer.parseInt(pair[1].trim());
+        }
+        return mix;
+    }
+    /**
+     * Загружает хранилище, выполняет нагрузку и выводит статистику.
+     *
+     * @param args параметры (см. описание класса)
+     * @throws IOException если хранилище не удалось загрузить или сохранить
+     * @throws InterruptedException если ожидание потоков прервано
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = DatasetGenerator.parseArgs(args);
+        Path dir = Paths.get(options.getOrDefault("dir", ContactStorage.DEFAULT_DIRECTORY));
+        int ops = Integer.parseInt(options.getOrDefault("ops", "100000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "1000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        int[] mix = parseMix(options.getOrDefault("mix", "search=70,add=10,edit=10,delete=10"));
+
+        ContactDirectory directory = new ContactDirectory(ContactStorage.open(dir, null));
+        long start = System.nanoTime();
+        directory.load();
+        System.out.printf("Загружено %d контактов за %.2f с%n",
+                directory.getContacts().size(), (System.nanoTime() - start) / 1e9);
+        ContactMemory memory = ContactMemory.install(directory);
+
+        int opsPerThread = ops / threads;
+        LoadDriver driver = new LoadDriver(directory, mix, threads, opsPerThread);
+        long elapsed = driver.run(opsPerThread, warmup, seed);
+        driver.report(elapsed);
+        memory.enforce();
+        System.out.printf("Память контактов: %d байт (%d на контакт), бюджет %d, вытеснено %d, "
+                        + "вытеснений %d, возвратов %d, файл вытеснения %d байт%n",
+                memory.getEstimatedBytes(), memory.getAverageContactBytes(), memory.getBudgetBytes(),
+                memory.getEvictedContacts(), memory.getEvictions(), memory.getFaults(), memory.getSpillFileBytes());
+
+        if (Boolean.parseBoolean(options.getOrDefault("save", "false"))) {
+            start = System.nanoTime();
+            directory.save();
+            System.out.printf("Сохранение: %.2f с%n", (System.nanoTime() - start) / 1e9);
+            compareSave(directory.savableContacts(), Integer.parseInt(options.getOrDefault("save-rounds", "5")));
+        }
+    }
+}
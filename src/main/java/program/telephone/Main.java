@@ -2,7 +2,6 @@ package program.telephone;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
-import javafx.scene.image.Image;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,7 +29,7 @@ public class Main extends Application {
             Scene scene = new Scene(loader.load());
             Menu menuController = loader.getController();
             menuController.setStage(stage);
-            stage.getIcons().add(new Image(getClass().getResourceAsStream("telephone.png")));
+            stage.getIcons().add(Icons.get(Icons.APPLICATION));
             stage.setScene(scene);
             stage.setTitle("Телефонный справочник");
             stage.show();
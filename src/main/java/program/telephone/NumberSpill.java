@@ -0,0 +1,259 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+/**
+ * Файл вытеснения номеров телефонов.
+ * <p>
+ * Списки номеров холодных контактов записываются сюда, а в куче остается только имя контакта
+ * (см. {@link ContactMemory}). Файл отображается в память сегментами по
+ * {@value #SEGMENT_SIZE} байт: данные находятся вне кучи, и операционная система сама
+ * решает, держать ли их в памяти. Записи только добавляются; запись списка, который затем
+ * изменился, становится мертвой и занимает место до завершения процесса, после которого
+ * файл удаляется.
+ * </p>
+ * <p>
+ * Формат записи: количество номеров (2 байта), затем для каждого номера номер и тип &mdash;
+ * длина в байтах (2 байта, {@code 0xFFFF} для null) и текст в UTF-8. Поиск по номерам
+ * ({@link #contains(long, String)}) сравнивает байты прямо в отображенном файле,
+ * не создавая строк.
+ * </p>
+ */
+final class NumberSpill {
+    /** Логгер для класса NumberSpill. */
+    private static final Logger logger = LogManager.getLogger(NumberSpill.class);
+    /** Размер сегмента файла. */
+    static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    /** Длина, обозначающая null. */
+    private static final int NULL_LENGTH = 0xFFFF;
+    /** Путь к файлу. */
+    private final Path file;
+    /** Канал файла. */
+    private final FileChannel channel;
+    /** Количество возвратов списков в кучу. */
+    private final AtomicLong faults = new AtomicLong();
+    /** Получатель списков, возвращенных в кучу. */
+    private volatile Consumer<List<PhoneNumber>> faultListener = numbers -> { };
+    /** Отображенные сегменты; массив заменяется целиком при добавлении сегмента. */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /** Позиция записи в последнем сегменте. */
+    private int writePosition = SEGMENT_SIZE;
+    /** Количество записанных байт. */
+    private long writtenBytes;
+    /**
+     * Создает файл вытеснения; существующий файл перезаписывается и будет удален
+     * при завершении процесса.
+     *
+     * @param file путь к файлу
+     * @throws IOException если файл не удалось создать
+     */
+    NumberSpill(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        file.toFile().deleteOnExit();
+    }
+    /**
+     * Записывает список номеров.
+     *
+     * @param numbers номера
+     * @return адрес записи или -1, если список слишком велик для одного сегмента
+     * @throws UncheckedIOException если файл не удалось расширить
+     */
+    synchronized long write(List<PhoneNumber> numbers) {
+        byte[][] parts = new byte[numbers.size() * 2][];
+        int length = 2;
+        for (int i = 0; i < numbers.size(); i++) {
+            parts[2 * i] = encode(numbers.get(i).getNumber());
+            parts[2 * i + 1] = encode(numbers.get(i).getType());
+        }
+        for (byte[] part : parts) {
+            if (part != null && part.length >= NULL_LENGTH) {
+                return -1;
+            }
+            length += 2 + (part == null ? 0 : part.length);
+        }
+        if (numbers.size() >= NULL_LENGTH || length > SEGMENT_SIZE) {
+            return -1;
+        }
+        if (writePosition + length > SEGMENT_SIZE) {
+            addSegment();
+        }
+        MappedByteBuffer[] current = segments;
+        MappedByteBuffer segment = current[current.length - 1];
+        long address = ((long) (current.length - 1) << 32) | writePosition;
+        int position = writePosition;
+        segment.putShort(position, (short) numbers.size());
+        position += 2;
+        for (byte[] part : parts) {
+            segment.putShort(position, (short) (part == null ? NULL_LENGTH : part.length));
+            position += 2;
+            if (part != null) {
+                segment.put(position, part);
+                position += part.length;
+            }
+        }
+        writePosition = position;
+        writtenBytes += length;
+        return address;
+    }
+    /**
+     * Читает список номеров.
+     *
+     * @param address адрес, возвращенный {@link #write(List)}
+     * @return новый изменяемый список номеров
+     */
+    List<PhoneNumber> read(long address) {
+        MappedByteBuffer segment = segments[(int) (address >>> 32)];
+        int position = (int) address;
+        int count = segment.getShort(position) & 0xFFFF;
+        position += 2;
+        List<PhoneNumber> numbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int numberLength = segment.getShort(position) & 0xFFFF;
+            String number = decode(segment, position + 2, numberLength);
+            position += 2 + (numberLength == NULL_LENGTH ? 0 : numberLength);
+            int typeLength = segment.getShort(position) & 0xFFFF;
+            String type = decode(segment, position + 2, typeLength);
+            position += 2 + (typeLength == NULL_LENGTH ? 0 : typeLength);
+            numbers.add(new PhoneNumber(number, type));
+        }
+        return numbers;
+    }
+    /**
+     * Устанавливает получателя списков, возвращенных в кучу.
+     *
+     * @param listener получатель
+     */
+    void setFaultListener(Consumer<List<PhoneNumber>> listener) {
+        faultListener = listener;
+    }
+    /**
+     * Учитывает возврат списка номеров в кучу.
+     *
+     * @param numbers возвращенный список
+     */
+    void faulted(List<PhoneNumber> numbers) {
+        faults.incrementAndGet();
+        faultListener.accept(numbers);
+    }
+    /**
+     * Возвращает количество возвратов списков в кучу.
+     *
+     * @return количество возвратов
+     */
+    long getFaults() {
+        return faults.get();
+    }
+    /**
+     * Проверяет, содержит ли один из записанных номеров запрос, как {@link String#contains}.
+     *
+     * @param address адрес записи
+     * @param request поисковый запрос
+     * @return true, если запрос найден в одном из номеров
+     */
+    boolean contains(long address, String request) {
+        MappedByteBuffer segment = segments[(int) (address >>> 32)];
+        int position = (int) address;
+        int count = segment.getShort(position) & 0xFFFF;
+        position += 2;
+        boolean ascii = isAscii(request);
+        for (int i = 0; i < count; i++) {
+            int numberLength = segment.getShort(position) & 0xFFFF;
+            position += 2;
+            if (numberLength != NULL_LENGTH) {
+                boolean found = ascii ? indexOf(segment, position, numberLength, request)
+                        : decode(segment, position, numberLength).contains(request);
+                if (found) {
+                    return true;
+                }
+                position += numberLength;
+            }
+            int typeLength = segment.getShort(position) & 0xFFFF;
+            position += 2 + (typeLength == NULL_LENGTH ? 0 : typeLength);
+        }
+        return false;
+    }
+    /**
+     * Возвращает количество записанных байт, включая мертвые записи.
+     *
+     * @return размер данных в файле
+     */
+    synchronized long getWrittenBytes() {
+        return writtenBytes;
+    }
+    /**
+     * Добавляет и отображает новый сегмент в конце файла.
+     */
+    private void addSegment() {
+        MappedByteBuffer[] current = segments;
+        try {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) current.length * SEGMENT_SIZE, SEGMENT_SIZE);
+            MappedByteBuffer[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = segment;
+            segments = next;
+            writePosition = 0;
+            logger.debug("Файл вытеснения {} расширен до {} сегментов", file, next.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось расширить файл вытеснения " + file, e);
+        }
+    }
+    /**
+     * Кодирует строку в UTF-8 (null остается null).
+     */
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+    /**
+     * Декодирует строку из сегмента.
+     */
+    private static String decode(MappedByteBuffer segment, int position, int length) {
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        segment.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    /**
+     * Проверяет, состоит ли строка только из символов ASCII.
+     */
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Ищет ASCII-строку в байтах UTF-8: байты многобайтовых символов не совпадают с ASCII,
+     * поэтому побайтовое сравнение дает тот же результат, что и {@link String#contains}.
+     */
+    private static boolean indexOf(MappedByteBuffer segment, int position, int length, String request) {
+        int last = length - request.length();
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < request.length() && segment.get(position + i + j) == request.charAt(j)) {
+                j++;
+            }
+            if (j == request.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,265 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+/**
+ * Параллельный просмотр списка контактов в отдельном {@link ForkJoinPool}.
+ * <p>
+ * Список копируется в массив и делится на диапазоны, которые обрабатываются задачами
+ * {@link RecursiveTask}; результаты объединяются в исходном порядке. Параллельный путь
+ * используется только для списков больше адаптивного порога: порог вычисляется по
+ * измеренной стоимости обработки одного элемента, чтобы небольшие справочники
+ * просматривались последовательно без накладных расходов. Оценка своя у каждого экземпляра,
+ * поэтому для каждой операции с собственным условием следует создавать отдельный экземпляр.
+ * Просмотры {@link #anyMatch(List, Predicate)}, прерванные найденным совпадением, в оценке
+ * не учитываются: они обработали неизвестную часть списка.
+ * </p>
+ * <p>
+ * Общий пул {@link ForkJoinPool#commonPool()} не используется, чтобы поиск не конкурировал
+ * с другими параллельными потоками приложения.
+ * </p>
+ */
+final class ParallelScan {
+    /** Логгер для класса ParallelScan. */
+    private static final Logger logger = LogManager.getLogger(ParallelScan.class);
+    /** Число потоков пула. */
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /** Пул потоков для просмотра контактов. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("contact-scan-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+    /** Время последовательной работы (нс), начиная с которого окупается параллельный запуск. */
+    private static final double PARALLEL_COST_NANOS = 200_000;
+    /** Минимальный порог параллельной обработки. */
+    private static final int MIN_THRESHOLD = 2_048;
+    /** Максимальный порог параллельной обработки. */
+    private static final int MAX_THRESHOLD = 1 << 20;
+    /** Минимальный размер диапазона, обрабатываемого одной задачей. */
+    private static final int MIN_CHUNK = 1_024;
+    /** Как часто (в элементах) проверяется отмена. */
+    private static final int CANCEL_CHECK_INTERVAL = 1_024;
+    /** Название вида просмотра для логирования. */
+    private final String name;
+    /** Сглаженная оценка стоимости обработки одного элемента (нс); 0, пока нет измерений. */
+    private volatile double nanosPerElement;
+    /** Текущий порог параллельной обработки. */
+    private volatile int threshold = 16_384;
+    /**
+     * Создает просмотр с собственной оценкой стоимости элемента.
+     *
+     * @param name название вида просмотра (например, "search")
+     */
+    ParallelScan(String name) {
+        this.name = name;
+    }
+    /**
+     * Возвращает исполнитель, в котором выполняются параллельные задачи.
+     *
+     * @return пул просмотра контактов
+     */
+    static Executor executor() {
+        return POOL;
+    }
+    /**
+     * Отбирает элементы, удовлетворяющие условию, сохраняя исходный порядок.
+     *
+     * @param items список элементов
+     * @param predicate условие отбора
+     * @param cancelled признак отмены; проверяется во время просмотра
+     * @param <T> тип элементов
+     * @return подходящие элементы
+     * @throws CancellationException если просмотр был отменен
+     */
+    <T> List<T> filter(List<? extends T> items, Predicate<? super T> predicate, BooleanSupplier cancelled) {
+        Object[] array = items.toArray();
+        long start = System.nanoTime();
+        List<T> result;
+        boolean parallel = array.length >= threshold && PARALLELISM > 1;
+        if (parallel) {
+            result = POOL.invoke(new FilterTask<T>(array, 0, array.length, chunk(array.length), predicate, cancelled));
+        } else {
+            result = new FilterTask<T>(array, 0, array.length, array.length, predicate, cancelled).compute();
+        }
+        measure(array.length, System.nanoTime() - start, parallel);
+        return result;
+    }
+    /**
+     * Проверяет, удовлетворяет ли условию хотя бы один элемент.
+     * Параллельные задачи прекращают работу, как только совпадение найдено; время такого
+     * просмотра не учитывается в оценке стоимости элемента.
+     *
+     * @param items список элементов
+     * @param predicate условие
+     * @param <T> тип элементов
+     * @return true, если найден подходящий элемент
+     */
+    <T> boolean anyMatch(List<? extends T> items, Predicate<? super T> predicate) {
+        Object[] array = items.toArray();
+        long start = System.nanoTime();
+        boolean parallel = array.length >= threshold && PARALLELISM > 1;
+        AtomicBoolean found = new AtomicBoolean();
+        AnyMatchTask<T> task = new AnyMatchTask<>(array, 0, array.length,
+                parallel ? chunk(array.length) : array.length, predicate, found);
+        boolean result = parallel ? POOL.invoke(task) : task.compute();
+        if (!result) {
+            measure(array.length, System.nanoTime() - start, parallel);
+        }
+        return result;
+    }
+    /**
+     * Возвращает отсортированную копию списка. Сортировка устойчивая.
+     *
+     * @param items список элементов
+     * @param comparator порядок сортировки
+     * @param <T> тип элементов
+     * @return новый отсортированный список
+     */
+    <T> List<T> sorted(List<? extends T> items, Comparator<? super T> comparator) {
+        @SuppressWarnings("unchecked")
+        T[] array = (T[]) items.toArray();
+        long start = System.nanoTime();
+        boolean parallel = array.length >= threshold && PARALLELISM > 1;
+        if (parallel) {
+            // parallelSort, вызванный из потока пула, разбивает работу внутри этого же пула
+            POOL.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    Arrays.parallelSort(array, comparator);
+                    return null;
+                }
+            });
+        } else {
+            Arrays.sort(array, comparator);
+        }
+        measure(array.length, System.nanoTime() - start, parallel);
+        return new ArrayList<>(Arrays.asList(array));
+    }
+    /**
+     * Вычисляет размер диапазона одной задачи.
+     */
+    private static int chunk(int size) {
+        return Math.max(MIN_CHUNK, size / (PARALLELISM * 8));
+    }
+    /**
+     * Обновляет оценку стоимости элемента и порог параллельной обработки.
+     *
+     * @param size количество обработанных элементов
+     * @param elapsed затраченное время (нс)
+     * @param parallel был ли просмотр параллельным
+     */
+    private void measure(int size, long elapsed, boolean parallel) {
+        if (size < 256) {
+            return;
+        }
+        double sample = (double) elapsed * (parallel ? PARALLELISM : 1) / size;
+        double previous = nanosPerElement;
+        double estimate = previous == 0 ? sample : previous * 0.8 + sample * 0.2;
+        nanosPerElement = estimate;
+        int next = (int) Math.max(MIN_THRESHOLD, Math.min(MAX_THRESHOLD, PARALLEL_COST_NANOS / estimate));
+        if (next != threshold) {
+            threshold = next;
+            logger.trace("Порог параллельного просмотра '{}': {} элементов ({} нс на элемент)",
+                    name, next, String.format("%.1f", estimate));
+        }
+    }
+    /**
+     * Задача отбора элементов из диапазона массива.
+     */
+    private static final class FilterTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 4127865310092443318L;
+        private final Object[] array;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final Predicate<? super T> predicate;
+        private final BooleanSupplier cancelled;
+
+        FilterTask(Object[] array, int from, int to, int chunk, Predicate<? super T> predicate, BooleanSupplier cancelled) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.predicate = predicate;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected List<T> compute() {
+            if (to - from > chunk) {
+                int middle = (from + to) >>> 1;
+                FilterTask<T> left = new FilterTask<>(array, from, middle, chunk, predicate, cancelled);
+                FilterTask<T> right = new FilterTask<>(array, middle, to, chunk, predicate, cancelled);
+                left.fork();
+                List<T> rightResult = right.compute();
+                List<T> leftResult = left.join();
+                leftResult.addAll(rightResult);
+                return leftResult;
+            }
+            List<T> result = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if ((i - from) % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                    throw new CancellationException("Просмотр отменен");
+                }
+                T item = (T) array[i];
+                if (predicate.test(item)) {
+                    result.add(item);
+                }
+            }
+            return result;
+        }
+    }
+    /**
+     * Задача поиска хотя бы одного подходящего элемента в диапазоне массива.
+     */
+    private static final class AnyMatchTask<T> extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = -7301946652257170914L;
+        private final Object[] array;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final Predicate<? super T> predicate;
+        private final AtomicBoolean found;
+
+        AnyMatchTask(Object[] array, int from, int to, int chunk, Predicate<? super T> predicate, AtomicBoolean found) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.predicate = predicate;
+            this.found = found;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Boolean compute() {
+            if (to - from > chunk) {
+                int middle = (from + to) >>> 1;
+                AnyMatchTask<T> left = new AnyMatchTask<>(array, from, middle, chunk, predicate, found);
+                AnyMatchTask<T> right = new AnyMatchTask<>(array, middle, to, chunk, predicate, found);
+                left.fork();
+                boolean rightResult = right.compute();
+                return left.join() || rightResult;
+            }
+            for (int i = from; i < to && !found.get(); i++) {
+                if (predicate.test((T) array[i])) {
+                    found.set(true);
+                    return true;
+                }
+            }
+            return found.get();
+        }
+    }
+}
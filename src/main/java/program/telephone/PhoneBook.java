@@ -1,18 +1,26 @@
 package program.telephone;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
+import javafx.scene.control.cell.CheckBoxListCell;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
 /**
  * Этот класс основным который занимается созданием, удалением редактированием классов, также сохранением их в бинарный файл
  */
@@ -32,35 +40,50 @@ public class PhoneBook {
     private ListView<PhoneNumber> numberData;
     /** Наблюдаемый список контактов. */
     private ObservableList<Contact> contacts;
-    /** Имя файла для хранения данных телефонной книги. */
-    private static final String DATA_BIN  = "phonebook.bin";
+    /** Номер последнего запущенного поиска; более ранние поиски считаются отмененными. */
+    private volatile long searchGeneration;
+    /** Имя файла старого формата, из которого контакты переносятся в шардированное хранилище. */
+    private static final String DATA_BIN  = ContactStorage.LEGACY_FILE;
+    /** Каталог шардированного хранилища телефонной книги. */
+    private static final String DATA_DIR  = ContactStorage.DEFAULT_DIRECTORY;
+    /** Телефонная книга, общая для всех экземпляров контроллера. */
+    private static final ContactDirectory directory = new ContactDirectory(
+            ContactStorage.open(Paths.get(DATA_DIR), Paths.get(DATA_BIN)));
+    /** История изменений для отмены (Ctrl+Z) и повтора (Ctrl+Y). */
+    private static final EditHistory history = new EditHistory(directory, EditHistory.DEFAULT_LIMIT);
+    /** Поиск и объединение дубликатов. */
+    private static final Deduplicator deduplicator = new Deduplicator(directory);
+    /** Учет памяти контактов и вытеснение номеров при превышении бюджета. */
+    private static final ContactMemory memory = ContactMemory.install(directory);
+    /** Наблюдение за изменениями других экземпляров (null, пока не запущено). */
+    private static Closeable storageWatch;
+    /** Последний созданный контроллер: ему передаются изменения других экземпляров. */
+    private static PhoneBook active;
+    /** Признак выполняющегося поиска дубликатов. */
+    private boolean deduplicating;
+    /** Признак отмены поиска дубликатов; проверяется фоновым поиском. */
+    private volatile boolean deduplicationCancelled;
     /**
-     * Инициализирует файл данных, если он не существует.
-     * Создает новый файл и записывает в него пустой список контактов.
+     * Инициализирует каталог данных, если он не существует.
      *
-     * @throws IOException если произошла ошибка ввода-вывода при создании файла или записи данных
-     * @see File
-     * @see ObjectOutputStream
-     * @see FileOutputStream
+     * @throws IOException если произошла ошибка ввода-вывода при создании каталога
+     * @see ContactStorage
      */
     public static void initDataFile() throws IOException {
-        File dataFile = new File(DATA_BIN);
-        if (!dataFile.exists()) {
-            dataFile.createNewFile();
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(dataFile))) {
-                oos.writeObject(new ArrayList<Contact>());
-            }
-        }
+        Files.createDirectories(Paths.get(DATA_DIR));
     }
     /**
      * Инициализирует данные приложения, загружая контакты из файла и настраивая отображение данных.
      *
      * <p>Метод выполняет следующие действия:
      * <ol>
-     *   <li>Инициализирует файл с данными о контактах (если он не существует)</li>
-     *   <li>Загружает список контактов из файла</li>
-     *   <li>Устанавливает загруженные контакты в таблицу контактов</li>
+     *   <li>Инициализирует каталог с данными о контактах (если он не существует)</li>
+     *   <li>Загружает список контактов из файла, если он еще не загружен</li>
+     *   <li>Устанавливает загруженные контакты в таблицу контактов; ячейки списков
+     *   показывают заранее сформированный текст ({@link ContactCell}, {@link PhoneNumberCell})</li>
      *   <li>Настраивает слушатель выбора контакта для отображения связанных телефонных номеров</li>
+     *   <li>Регистрирует сочетания клавиш отмены, повтора и поиска дубликатов</li>
+     *   <li>Запускает применение изменений, сделанных другими экземплярами приложения</li>
      * </ol>
      *
      * <p>В случае успешного выполнения логируется информационное сообщение. При возникновении ошибок
@@ -73,8 +96,25 @@ public class PhoneBook {
         try {
             logger.info("Инициализация данных о контактах");
             PhoneBook.initDataFile();
-            contacts = FXCollections.observableArrayList(loadContacts());
+            if (!directory.isLoaded()) {
+                loadContacts();
+            }
+            contacts = directory.getContacts();
+            contactData.setCellFactory(list -> new ContactCell());
+            numberData.setCellFactory(list -> new PhoneNumberCell());
             contactData.setItems(contacts);
+            FrameProbe.install(contactData);
+            active = this;
+            if (storageWatch == null) {
+                storageWatch = directory.watchStorage(Platform::runLater);
+                // Слушатель регистрируется один раз: каталог общий, а контроллер создается
+                // заново при каждом возврате из меню
+                directory.getEvents().addBatchListener(PhoneBook::onSynced);
+            }
+            if (directory.isRecovered()) {
+                Platform.runLater(() -> showAlert("Внимание", "Данные восстановлены",
+                        "Файлы справочника были повреждены, восстановлены все читаемые контакты"));
+            }
             contactData.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
                 if (newValue != null) {
                     numberData.setItems(FXCollections.observableArrayList(newValue.getPhoneNumbers()));
@@ -82,6 +122,17 @@ public class PhoneBook {
                     numberData.setItems(null);
                 }
             });
+            contactData.sceneProperty().addListener((observable, oldScene, newScene) -> {
+                if (newScene != null) {
+                    newScene.getAccelerators().put(
+                            new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN), this::undo);
+                    newScene.getAccelerators().put(
+                            new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN), this::redo);
+                    newScene.getAccelerators().put(
+                            new KeyCodeCombination(KeyCode.D, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN),
+                            this::deduplicate);
+                }
+            });
 
             logger.info("Инициализация успешно завершена");
         } catch (Exception e) {
@@ -89,14 +140,15 @@ public class PhoneBook {
         }
     }
     /**
-     * Сохраняет список контактов в бинарный файл.
+     * Сохраняет список контактов в хранилище.
      *
      * <p>Метод выполняет следующие действия:
      * <ol>
      *   <li>Фильтрует null-значения из списка контактов</li>
-     *   <li>Сохраняет отфильтрованный список в файл, путь к которому указан в константе {@code DATA_BIN}</li>
-     *   <li>Использует {@link ObjectOutputStream} для сериализации данных</li>
+     *   <li>Передает отфильтрованный список в {@link ContactStorage}, который записывает
+     *   только изменившиеся данные</li>
      * </ol>
+     * <p>Оба шага выполняет {@link ContactDirectory#save()}.
      *
      * <p>В процессе работы метод логирует:
      * <ul>
@@ -105,39 +157,36 @@ public class PhoneBook {
      *   <li>Успешное завершение операции или ошибку</li>
      * </ul>
      *
-     * @throws RuntimeException если произошла ошибка ввода-вывода при сохранении файла
-     * @see ObjectOutputStream
-     * @see FileOutputStream
+     * @see ContactDirectory#save()
      */
     @FXML
     private void saveContacts() {
         logger.info("Сохранение контактов с помощью метода saveContacts");
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_BIN))) {
-            List<Contact> toSave = contacts.stream()
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-
+        try {
             logger.info("Сохранение контактов в файл");
-            oos.writeObject(toSave);
+            directory.save();
             logger.info("Контакты успешно сохранены в файл");
         } catch (IOException e) {
             logger.error("Не удалось сохранить контакты в файл: {}", e.getMessage(), e);
+            showAlert("Ошибка", "Не удалось сохранить контакты", e.getMessage());
         }
     }
     /**
-     * Возвращает список контактов в виде ObservableList.
+     * Загружает контакты из хранилища в общий список телефонной книги.
      * <p>
-     * Возвращаемый список автоматически обновляет UI при изменениях.
+     * Список контактов автоматически обновляет UI при изменениях.
      *
-     * @return ObservableList объектов {@link Contact}, содержащая все контакты книги
+     * Если данные прочитать не удалось, список остается пустым, а хранилище
+     * запрещает сохранение, чтобы не затереть файлы на диске.
+     *
+     * @see ContactDirectory#load()
      */
     @FXML
-    private ObservableList<Contact> loadContacts() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_BIN))) {
-            return FXCollections.observableArrayList((List<Contact>) ois.readObject());
-        } catch (IOException | ClassNotFoundException e) {
+    private void loadContacts() {
+        try {
+            directory.load();
+        } catch (IOException e) {
             logger.error("Ошибка загрузки", e);
-            return FXCollections.observableArrayList();
         }
     }
     /**
@@ -181,7 +230,7 @@ public class PhoneBook {
             dialog.setTitle(title);
 
             Stage stage = (Stage) dialog.getDialogPane().getScene().getWindow();
-            stage.getIcons().add(new Image(getClass().getResourceAsStream("telephone.png")));
+            stage.getIcons().add(Icons.get(Icons.APPLICATION));
             dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
             Button okButton = (Button) dialog.getDialogPane().lookupButton(ButtonType.OK);
             okButton.setDefaultButton(true);
@@ -249,15 +298,9 @@ public class PhoneBook {
                 .ifPresent(name -> {
                     if (name.toString().isEmpty()) return;
 
-                    boolean exists = contacts.stream()
-                            .anyMatch(c -> c.getName().equalsIgnoreCase(name.toString()));
-
-                    if (exists) {
-                        logger.warn("Попытка добавить уже существующий контакт: {}", name);
+                    if (directory.addContact(name.toString()).isEmpty()) {
                         showAlert("Ошибка", "Контакт уже существует", "Контакт с таким именем уже есть в справочнике");
                     } else {
-                        Contact contact = new Contact(name.toString());
-                        contacts.add(contact);
                         saveContacts();
                         logger.info("Контакт {} успешно добавлен и сохранен", name);
                     }
@@ -271,7 +314,7 @@ public class PhoneBook {
         logger.info("Удаление контакта с помощью метода removeContact");
         Contact choosecontact = contactData.getSelectionModel().getSelectedItem();
         if (choosecontact != null) {
-            contacts.remove(choosecontact);
+            directory.removeContact(choosecontact);
             contactData.getSelectionModel().clearSelection();
             saveContacts();
             logger.info("Контакт успешно удален");
@@ -284,7 +327,7 @@ public class PhoneBook {
      * 1. Получает выбранный контакт из списка контактов
      * 2. Если контакт не выбран, завершает выполнение
      * 3. Отображает диалоговое окно для ввода нового номера телефона
-     * 4. Проверяет корректность введенного номера
+     * 4. Проверяет корректность введенного номера ({@link ContactDirectory#verifyNumber})
      * 5. Проверяет, не существует ли уже такой номер у контакта
      * 6. Если проверки пройдены, добавляет номер к контакту и сохраняет изменения
      * @see #showAlert(String, String, String)
@@ -298,88 +341,20 @@ public class PhoneBook {
 
         showDialog("Добавить номер", DialogType.NUMBER_DIALOG, new PhoneNumber("", "Мобильный"))
                 .ifPresent(phoneNumber -> {
-                    if (!numberVerification(phoneNumber.getNumber(), phoneNumber.getType(), null)) {
+                    if (!directory.verifyNumber(phoneNumber.getNumber(), phoneNumber.getType(), null)) {
                         showAlert("Ошибка", "Некорректный номер",
                                 "Номер не соответствует формату или слишком похож на существующий");
                         return;
                     }
 
-                    boolean exists = choosecontact.getPhoneNumbers().stream()
-                            .anyMatch(n -> n.getNumber().equals(phoneNumber.getNumber()));
-
-                    if (exists) {
-                        logger.warn("Попытка добавить уже существующий номер: {}", phoneNumber.getNumber());
+                    if (!directory.addNumber(choosecontact, phoneNumber)) {
                         showAlert("Ошибка", "Номер уже существует", "Этот номер уже есть у контакта");
                     } else {
-                        choosecontact.addPhoneNumber(phoneNumber);
                         numberData.getItems().add(phoneNumber);
                         saveContacts();
                     }
                 });
     }
-    /**
-     * Проверяет валидность номера телефона и его уникальность среди контактов.
-     *
-     * <p>Метод выполняет следующие проверки:
-     * <ol>
-     *   <li>Проверяет, что номер не null и не пустой</li>
-     *   <li>Очищает номер от всех нецифровых символов</li>
-     *   <li>Проверяет соответствие формату номера в зависимости от типа телефона</li>
-     *   <li>Проверяет уникальность номера среди всех контактов (игнорируя текущий контакт)</li>
-     * </ol>
-     *
-     * @param number проверяемый номер телефона (может содержать нецифровые символы)
-     * @param type тип телефона ("Мобильный", "Домашний", "Рабочий")
-     * @param currentContact текущий контакт, который исключается из проверки на уникальность
-     * @return true если номер валиден и уникален, false в противном случае
-     *
-     * @see Contact
-     * @see PhoneNumber
-     */
-    private boolean numberVerification(String number, String type, Contact currentContact) {
-        if (number == null || number.isEmpty()) {
-            return false;
-        }
-
-        String cleanNumber = number.replaceAll("[^0-9]", "");
-
-        boolean formatValid;
-        switch(type) {
-            case "Мобильный":
-                formatValid = cleanNumber.matches("^[78]\\d{10}$");
-                break;
-            case "Домашний":
-                formatValid = cleanNumber.matches("^\\d{6,7}$");
-                break;
-            case "Рабочий":
-                formatValid = cleanNumber.matches("^\\d{6,11}$");
-                break;
-            default:
-                formatValid = cleanNumber.matches("^\\d{6,11}$");
-        }
-
-        if (!formatValid) {
-            return false;
-        }
-
-        String numberWithoutFirstDigit = cleanNumber.substring(1);
-        for (Contact contact : contacts) {
-            if (contact == currentContact) {
-                continue;
-            }
-
-            for (PhoneNumber existingNumber : contact.getPhoneNumbers()) {
-                String existingCleanNumber = existingNumber.getNumber().replaceAll("[^0-9]", "");
-                if (existingCleanNumber.length() == cleanNumber.length() &&
-                        existingCleanNumber.substring(1).equals(numberWithoutFirstDigit)) {
-                    return false; // Найден похожий номер
-                }
-            }
-        }
-
-        return true;
-    }
-
     /**
      * Удаляет выбранный номер телефона у выбранного контакта.
      * Если контакт и номер телефона выбраны, метод удаляет номер из списка номеров контакта
@@ -394,7 +369,7 @@ public class PhoneBook {
             PhoneNumber choosenumber = numberData.getSelectionModel().getSelectedItem();
 
             if (choosecontact != null && choosenumber != null) {
-                choosecontact.getPhoneNumbers().remove(choosenumber);
+                directory.removeNumber(choosecontact, choosenumber);
                 numberData.getItems().remove(choosenumber);
                 logger.debug("Номер телефона успешно удален");
                 saveContacts();
@@ -414,38 +389,37 @@ public class PhoneBook {
      * </p>
      * <p>
      * Результат сортировки сохраняется в {@code contactData} после очистки предыдущего списка.
+     * Сама сортировка выполняется хранилищем.
      * </p>
      *
      * @see Contact#getName()
-     * @see Comparator#comparing(java.util.function.Function)
-     * @see FXCollections#observableArrayList(java.util.Collection)
+     * @see ContactDirectory#sorted(boolean)
      */
     @FXML
     private void sort() {
         logger.info("Запуск сортировки контактов");
 
         try {
-            boolean reverse = contactData.getItems().equals(FXCollections.observableArrayList(
-                    contacts.stream()
-                            .sorted(Comparator.comparing(Contact::getName))
-                            .collect(Collectors.toList())
-            ));
+            List<Contact> ascending = directory.sorted(false);
+            boolean reverse = contactData.getItems().equals(ascending);
 
             List<Contact> sorted;
             if (reverse) {
-                sorted = contacts.stream()
-                        .sorted(Comparator.comparing(Contact::getName).reversed())
-                        .collect(Collectors.toList());
+                sorted = directory.sorted(true);
                 logger.info("Применена сортировка по убыванию (Я-А)");
             } else {
-                sorted = contacts.stream()
-                        .sorted(Comparator.comparing(Contact::getName))
-                        .collect(Collectors.toList());
+                sorted = ascending;
                 logger.info("Применена сортировка по возрастанию (А-Я)");
             }
 
-            // Очищаем и добавляем отсортированные элементы
-            contactData.getItems().setAll(sorted);
+            // Очищаем и добавляем отсортированные элементы; порядок самой книги меняется через directory
+            if (contactData.getItems() == contacts) {
+                directory.reorder(sorted);
+            } else {
+                contactData.getItems().setAll(sorted);
+            }
+        } catch (IOException e) {
+            logger.error("Ошибка при сортировке контактов", e);
         } catch (Exception e) {
             logger.error("Ошибка при сортировке контактов", e);
             throw e;
@@ -461,7 +435,11 @@ public class PhoneBook {
      * <p>
      * Процесс поиска логируется на уровне INFO, а детали совпадений для каждого контакта
      * логируются на уровне TRACE. В случае возникновения ошибок они логируются на уровне ERROR.
+     * Сам поиск выполняется хранилищем в фоновом потоке, а результат выводится в потоке JavaFX.
+     * Каждый новый запрос отменяет предыдущий незавершенный поиск, поэтому при быстром вводе
+     * на экран попадает только результат последнего запроса.
      * </p>
+     * @see ContactDirectory#searchAsync(String, java.util.function.BooleanSupplier)
      * @see Contact
      * @see Contact#getName()
      * @see Contact#getPhoneNumbers()
@@ -470,28 +448,24 @@ public class PhoneBook {
     private void search() {
         logger.info("Поиск котактов и номеров с помощью метода Search");
         String request = searchField.getText().toLowerCase().trim();
+        long generation = ++searchGeneration;
         if (request.isEmpty()) {
             contactData.setItems(contacts);
             return;
         }
 
-        try {
-            List<Contact> filtered = contacts.stream()
-                    .filter(contact -> {
-                        boolean nameMatch = contact.getName().toLowerCase().contains(request);
-                        boolean numberMatch = contact.getPhoneNumbers().stream()
-                                .anyMatch(number -> number.getNumber().contains(request));
-
-                        logger.trace("Contact '{}' - name match: {}, number match: {}",
-                                contact.getName(), nameMatch, numberMatch);
-
-                        return nameMatch || numberMatch;
-                    })
-                .collect(Collectors.toList());
-            contactData.setItems(FXCollections.observableArrayList(filtered));
-        } catch (Exception e) {
-            logger.error("Ошибка при поиске ", e);
-        }
+        directory.searchAsync(request, () -> searchGeneration != generation)
+                .whenComplete((filtered, error) -> Platform.runLater(() -> {
+                    if (generation != searchGeneration) {
+                        logger.debug("Результат устаревшего поиска '{}' отброшен", request);
+                        return;
+                    }
+                    if (error != null) {
+                        logger.error("Ошибка при поиске ", error);
+                        return;
+                    }
+                    contactData.setItems(FXCollections.observableArrayList(filtered));
+                }));
 
     }
     /**
@@ -502,7 +476,7 @@ public class PhoneBook {
      *   <li>Получает выбранный контакт и выбранный номер телефона из таблиц контактов и номеров</li>
      *   <li>Если контакт или номер не выбраны, метод завершает выполнение</li>
      *   <li>Отображает диалоговое окно для редактирования номера телефона</li>
-     *   <li>Проверяет новый номер на корректность с помощью {@link #numberVerification}</li>
+     *   <li>Проверяет новый номер на корректность с помощью {@link ContactDirectory#verifyNumber}</li>
      *   <li>При успешной проверке заменяет старый номер новым в списке номеров контакта</li>
      *   <li>Обновляет отображаемый список номеров и сохраняет изменения</li>
      * </ol>
@@ -523,7 +497,7 @@ public class PhoneBook {
 
         showDialog("Редактировать номер", DialogType.NUMBER_DIALOG, choosenumber)
                 .ifPresent(newPhoneNumber -> {
-                    if (!numberVerification(newPhoneNumber.getNumber(),
+                    if (!directory.verifyNumber(newPhoneNumber.getNumber(),
                             newPhoneNumber.getType(),
                             choosecontact)) {
                         showAlert("Ошибка", "Некорректный номер",
@@ -531,8 +505,7 @@ public class PhoneBook {
                         return;
                     }
 
-                    choosecontact.getPhoneNumbers().remove(choosenumber);
-                    choosecontact.getPhoneNumbers().add(newPhoneNumber);
+                    directory.editNumber(choosecontact, choosenumber, newPhoneNumber);
                     numberData.setItems(FXCollections.observableArrayList(choosecontact.getPhoneNumbers()));
                     saveContacts();
                     logger.info("Номер успешно изменен и сохранен");
@@ -553,7 +526,7 @@ public class PhoneBook {
      *
      * <p>Логирует процесс редактирования контакта и его успешное завершение.
      *
-     * @see Contact#setName(String)
+     * @see ContactDirectory#renameContact(Contact, String)
      * @see #saveContacts()
      */
     @FXML
@@ -564,12 +537,159 @@ public class PhoneBook {
 
         showDialog("Изменить контакт", DialogType.CONTACT_DIALOG, choosecontact.getName())
                 .ifPresent(newName -> {
-                    choosecontact.setName(newName.toString());
+                    directory.renameContact(choosecontact, newName.toString());
                     contactData.refresh();
                     saveContacts();
                     logger.info("Контакт успешно обновлен");
                 });
     }
+    /**
+     * Отменяет последнее изменение телефонной книги.
+     *
+     * @see EditHistory#undo()
+     */
+    @FXML
+    private void undo() {
+        logger.info("Отмена последнего изменения");
+        if (history.undo()) {
+            refreshAfterHistory();
+        }
+    }
+    /**
+     * Повторяет последнее отмененное изменение телефонной книги.
+     *
+     * @see EditHistory#redo()
+     */
+    @FXML
+    private void redo() {
+        logger.info("Повтор отмененного изменения");
+        if (history.redo()) {
+            refreshAfterHistory();
+        }
+    }
+    /**
+     * Ищет дубликаты контактов и предлагает их объединить (Ctrl+Shift+D).
+     *
+     * <p>Метод выполняет следующие действия:
+     * <ol>
+     *   <li>Запускает поиск дубликатов в фоновом потоке; прогресс отображается в поле поиска</li>
+     *   <li>Показывает найденные группы с отметками, чтобы пользователь выбрал, какие объединять</li>
+     *   <li>Объединяет выбранные группы одним действием, которое можно отменить (Ctrl+Z)</li>
+     * </ol>
+     * Повторный вызов во время поиска отменяет поиск.
+     *
+     * @see Deduplicator
+     */
+    @FXML
+    private void deduplicate() {
+        if (deduplicating) {
+            logger.info("Поиск дубликатов отменен пользователем");
+            deduplicationCancelled = true;
+            return;
+        }
+        logger.info("Запуск поиска дубликатов");
+        deduplicating = true;
+        deduplicationCancelled = false;
+        String promptText = searchField.getPromptText();
+        deduplicator.findAsync(
+                fraction -> Platform.runLater(() -> {
+                    if (deduplicating) {
+                        searchField.setPromptText(String.format("Дубликаты: %d%% (Ctrl+Shift+D - отмена)",
+                                Math.round(fraction * 100)));
+                    }
+                }),
+                () -> deduplicationCancelled)
+                .whenComplete((groups, error) -> Platform.runLater(() -> {
+                    deduplicating = false;
+                    searchField.setPromptText(promptText);
+                    if (error instanceof CancellationException
+                            || error != null && error.getCause() instanceof CancellationException) {
+                        return;
+                    }
+                    if (error != null) {
+                        logger.error("Ошибка при поиске дубликатов", error);
+                        showAlert("Ошибка", "Не удалось найти дубликаты", error.getMessage());
+                        return;
+                    }
+                    confirmMerge(groups);
+                }));
+    }
+    /**
+     * Показывает найденные группы дубликатов с отметками и объединяет отмеченные.
+     * Список виртуализирован, поэтому показываются все группы, сколько бы их ни было.
+     *
+     * @param groups группы дубликатов
+     */
+    private void confirmMerge(List<Deduplicator.DuplicateGroup> groups) {
+        if (groups.isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Дубликаты");
+            alert.setHeaderText("Дубликаты не найдены");
+            alert.showAndWait();
+            return;
+        }
+        Map<Deduplicator.DuplicateGroup, BooleanProperty> selected = new IdentityHashMap<>();
+        for (Deduplicator.DuplicateGroup group : groups) {
+            selected.put(group, new SimpleBooleanProperty(true));
+        }
+        ListView<Deduplicator.DuplicateGroup> list = new ListView<>(FXCollections.observableArrayList(groups));
+        list.setCellFactory(CheckBoxListCell.forListView(selected::get));
+        list.setPrefSize(640, 400);
+
+        Dialog<List<Deduplicator.DuplicateGroup>> dialog = new Dialog<>();
+        dialog.setTitle("Дубликаты");
+        dialog.setHeaderText("Найдено групп дубликатов: " + groups.size()
+                + ". Снимите отметки с групп, которые объединять не нужно.");
+        dialog.getDialogPane().setContent(list);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> {
+            if (button != ButtonType.OK) {
+                return null;
+            }
+            List<Deduplicator.DuplicateGroup> chosen = new ArrayList<>();
+            for (Deduplicator.DuplicateGroup group : groups) {
+                if (selected.get(group).get()) {
+                    chosen.add(group);
+                }
+            }
+            return chosen;
+        });
+        dialog.showAndWait().filter(chosen -> !chosen.isEmpty()).ifPresent(chosen -> {
+            logger.info("Выбрано для объединения групп: {} из {}", chosen.size(), groups.size());
+            deduplicator.merge(chosen);
+            refreshAfterHistory();
+        });
+    }
+    /**
+     * Обновляет экран активного контроллера после изменений другого экземпляра.
+     *
+     * @param batch пакет событий
+     */
+    private static void onSynced(List<ContactEvent> batch) {
+        PhoneBook view = active;
+        if (view != null && view.contactData.getScene() != null
+                && batch.stream().anyMatch(e -> e.getType() == ContactEvent.Type.SYNCED)) {
+            view.refreshView();
+        }
+    }
+    /**
+     * Обновляет списки на экране после отмены, повтора или объединения дубликатов и сохраняет изменения.
+     */
+    private void refreshAfterHistory() {
+        refreshView();
+        saveContacts();
+    }
+    /**
+     * Обновляет результаты поиска, список контактов и номера выбранного контакта.
+     */
+    private void refreshView() {
+        search();
+        contactData.refresh();
+        Contact choosecontact = contactData.getSelectionModel().getSelectedItem();
+        if (choosecontact != null) {
+            numberData.setItems(FXCollections.observableArrayList(choosecontact.getPhoneNumbers()));
+        }
+    }
     /**
      * Отображает предупреждающее диалоговое окно с заданными параметрами.
      *
@@ -10,6 +10,8 @@ import org.apache.logging.log4j.Logger;
  * @see Serializable
  */
 class PhoneNumber implements Serializable {
+    /** Версия формата сериализации, совпадающая с исходной версией класса. */
+    private static final long serialVersionUID = -5092041100964120719L;
     /**
      * Логгер для класса PhoneNumber.
      * <p>
@@ -26,6 +28,8 @@ class PhoneNumber implements Serializable {
     /** Тип номера телефона (мобильный, домашний и т.д.)
      */
     private String type;
+    /** Текст для списка номеров; формируется при первом обращении и не сериализуется. */
+    private transient String displayText;
     /**
      * Создает новый объект телефонного номера с указанными параметрами.
      *
@@ -57,13 +61,24 @@ class PhoneNumber implements Serializable {
     public String getType() {
         return type;
     }
+    /**
+     * Возвращает текст для отображения в формате "Тип: Номер".
+     * Номер неизменяем, поэтому строка формируется один раз.
+     * @return отформатированная строка с информацией о номере
+     */
+    String getDisplayText() {
+        if (displayText == null) {
+            displayText = type + ": " + number;
+        }
+        return displayText;
+    }
     /**
      * Возвращает строковое представление номера телефона в формате "Тип: Номер".
      * @return отформатированная строка с информацией о номере
      */
     @Override
     public String toString() {
-        String phone= type + ": " + number;
+        String phone = getDisplayText();
         logger.trace("Преобразование PhoneNumber в строку: {}", phone);
         return phone;
     }
@@ -0,0 +1,23 @@
+package program.telephone;
+import javafx.scene.control.ListCell;
+/**
+ * Ячейка списка номеров.
+ * <p>
+ * Показывает текст «Тип: Номер», который {@link PhoneNumber} формирует один раз и хранит
+ * вместе с номером: номер неизменяем, поэтому текст не устаревает, а прокрутка списка
+ * не создает новых строк.
+ * </p>
+ */
+class PhoneNumberCell extends ListCell<PhoneNumber> {
+    /**
+     * Обновляет ячейку при смене отображаемого номера.
+     *
+     * @param item номер или null
+     * @param empty true, если ячейка пуста
+     */
+    @Override
+    protected void updateItem(PhoneNumber item, boolean empty) {
+        super.updateItem(item, empty);
+        setText(empty || item == null ? null : item.getDisplayText());
+    }
+}
@@ -0,0 +1,167 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+/**
+ * Кэш результатов поиска контактов.
+ * <p>
+ * Результаты хранятся в LRU-кэше, размер которого ограничен суммарным количеством
+ * контактов во всех результатах, а не числом запросов: один широкий запрос вытесняет
+ * много узких. При вводе запроса по буквам результат для «ива» является подмножеством
+ * результата для «ив», поэтому {@link #findParent(String)} возвращает закэшированный
+ * результат самого длинного префикса, и поиск просматривает только его, а не весь список.
+ * </p>
+ * <p>
+ * Кэш инвалидируется точно: на каждое событие {@link ContactEvent} удаляются только
+ * записи, результат которых могло изменить это событие. Номер версии увеличивается при
+ * каждом изменении, чтобы результат поиска, начатого до изменения, не попал в кэш.
+ * </p>
+ */
+final class SearchCache {
+    /** Логгер для класса SearchCache. */
+    private static final Logger logger = LogManager.getLogger(SearchCache.class);
+    /** Емкость кэша по умолчанию (суммарное количество контактов в результатах). */
+    static final int DEFAULT_CAPACITY = 1 << 20;
+    /** Максимальное суммарное количество контактов в результатах. */
+    private final int capacity;
+    /** Запрос -> результат, в порядке последнего обращения. */
+    private final LinkedHashMap<String, List<Contact>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /** Текущее суммарное количество контактов в результатах. */
+    private long size;
+    /** Версия содержимого телефонной книги. */
+    private long version;
+    /**
+     * Создает кэш указанной емкости.
+     *
+     * @param capacity максимальное суммарное количество контактов во всех результатах
+     */
+    SearchCache(int capacity) {
+        this.capacity = capacity;
+    }
+    /**
+     * Возвращает закэшированный результат запроса.
+     *
+     * @param request поисковый запрос в нижнем регистре
+     * @return результат или null, если его нет в кэше
+     */
+    synchronized List<Contact> get(String request) {
+        return entries.get(request);
+    }
+    /**
+     * Возвращает закэшированный результат самого длинного префикса запроса.
+     * Все контакты, подходящие под запрос, содержатся в этом результате.
+     *
+     * @param request поисковый запрос в нижнем регистре
+     * @return результат префикса или null, если ни один префикс не закэширован
+     */
+    synchronized List<Contact> findParent(String request) {
+        for (int length = request.length() - 1; length > 0; length--) {
+            List<Contact> parent = entries.get(request.substring(0, length));
+            if (parent != null) {
+                return parent;
+            }
+        }
+        return null;
+    }
+    /**
+     * Возвращает текущую версию; ее нужно получить до начала поиска и передать в {@link #put}.
+     *
+     * @return версия содержимого
+     */
+    synchronized long version() {
+        return version;
+    }
+    /**
+     * Сохраняет результат запроса, если с начала поиска телефонная книга не менялась.
+     *
+     * @param request поисковый запрос в нижнем регистре
+     * @param result результат поиска
+     * @param startVersion версия, полученная до начала поиска
+     * @return неизменяемый результат для возврата вызывающему
+     */
+    synchronized List<Contact> put(String request, List<Contact> result, long startVersion) {
+        List<Contact> value = Collections.unmodifiableList(result);
+        if (startVersion != version || result.size() + 1 > capacity / 2) {
+            return value;
+        }
+        List<Contact> previous = entries.put(request, value);
+        if (previous != null) {
+            size -= previous.size() + 1;
+        }
+        size += value.size() + 1;
+        Iterator<Map.Entry<String, List<Contact>>> eldest = entries.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            size -= eldest.next().getValue().size() + 1;
+            eldest.remove();
+        }
+        return value;
+    }
+    /**
+     * Удаляет записи, которые могло изменить событие.
+     *
+     * @param event событие изменения телефонной книги
+     */
+    synchronized void onEvent(ContactEvent event) {
+        version++;
+        if (entries.isEmpty()) {
+            return;
+        }
+        Contact contact = event.getContact();
+        int before = entries.size();
+        switch (event.getType()) {
+            case CONTACT_ADDED:
+            case CONTACT_REMOVED:
+                // Меняются только результаты запросов, под которые подходит контакт
+                invalidateIf(request -> ContactQueries.matches(contact, request));
+                break;
+            case CONTACT_RENAMED:
+                invalidateIf(request -> contains(event.getOldName(), request) != contains(event.getNewName(), request)
+                        && !contact.hasNumberContaining(request));
+                break;
+            case NUMBER_ADDED:
+            case NUMBER_REMOVED:
+                invalidateIf(request -> event.getNumber().getNumber().contains(request));
+                break;
+            case NUMBER_EDITED:
+                invalidateIf(request -> event.getNumber().getNumber().contains(request)
+                        || event.getOldNumber().getNumber().contains(request));
+                break;
+            case SYNCED:
+                // Метка пакета: сами изменения приходят отдельными событиями
+                break;
+            default:
+                // Перезагрузка или изменение порядка затрагивают все результаты
+                entries.clear();
+                size = 0;
+                break;
+        }
+        if (entries.size() != before) {
+            logger.trace("Событие {} удалило из кэша поиска {} запросов", event, before - entries.size());
+        }
+    }
+    /**
+     * Проверяет, содержит ли имя запрос без учета регистра.
+     */
+    private static boolean contains(String name, String request) {
+        return name != null && name.toLowerCase().contains(request);
+    }
+    /**
+     * Удаляет записи, запросы которых удовлетворяют условию.
+     */
+    private void invalidateIf(Predicate<String> affected) {
+        Iterator<Map.Entry<String, List<Contact>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<Contact>> entry = iterator.next();
+            if (affected.test(entry.getKey())) {
+                size -= entry.getValue().size() + 1;
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,943 @@
+package program.telephone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+/**
+ * Хранилище контактов, разбитое на несколько файлов-шардов.
+ * <p>
+ * Контакт попадает в шард по хешу своего имени (без учета регистра). Актуальный набор
+ * шардов описывается файлом-манифестом: он перечисляет файлы шардов, их контрольные
+ * суммы и порядок контактов. Манифест записывается во временный файл и атомарно
+ * переименовывается, поэтому на диске всегда виден согласованный набор шардов.
+ * </p>
+ * <p>
+ * Файлы шардов никогда не перезаписываются на месте: измененный шард сохраняется в новый
+ * файл с номером поколения в имени, а старые файлы удаляются только после фиксации манифеста.
+ * Хранилище помнит, какие контакты (по ссылкам на объекты) и с каким номером изменения
+ * ({@link Contact#getVersion()}) записаны в каждый шард, поэтому при сохранении кодируются
+ * только шарды, в которых что-то изменилось.
+ * Загрузка и сериализация шардов выполняются параллельно в собственном {@link ForkJoinPool}.
+ * </p>
+ * <p>
+ * Каждый записанный файл сбрасывается на диск через {@link FileChannel#force(boolean)}.
+ * Предыдущие манифесты сохраняются как резервные копии вместе с шардами, на которые они
+ * ссылаются. Если манифест поврежден, используется резервная копия, а из поврежденных
+ * шардов восстанавливаются все записи с верной контрольной суммой (см. {@link BlockFile}).
+ * Если данные прочитать не удалось, сохранение запрещается, чтобы не затереть их пустым списком.
+ * </p>
+ * <p>
+ * Блоки шардов могут сжиматься (свойство {@code -Dtelephone.storage.codec=deflate}); алгоритм
+ * записывается в заголовок каждого файла, поэтому шарды с разным сжатием читаются вместе,
+ * а после смены алгоритма перезаписываются при следующем сохранении. Так же перезаписываются
+ * шарды прежних версий формата и шарды, восстановленные после повреждения.
+ * </p>
+ * <p>
+ * С одним каталогом могут работать несколько экземпляров приложения. Загрузка выполняется
+ * под разделяемой, а сохранение &mdash; под исключительной блокировкой файла
+ * {@value #LOCK_FILE}. Номер поколения манифеста служит версией данных: если с момента
+ * последней загрузки или сохранения другой экземпляр записал новый манифест, сохранение
+ * отклоняется с {@link ConflictException}, а {@link #readChanges()} возвращает только
+ * изменившиеся шарды, чтобы их можно было объединить с локальными изменениями.
+ * </p>
+ * @see Contact
+ * @see ContactStorage
+ */
+public class ShardedStorage implements ContactStorage {
+    /** Логгер для класса ShardedStorage. */
+    private static final Logger logger = LogManager.getLogger(ShardedStorage.class);
+    /** Количество шардов по умолчанию. */
+    public static final int DEFAULT_SHARD_COUNT = 16;
+    /** Максимальное количество шардов (номер шарда в порядке контактов хранится в одном байте). */
+    private static final int MAX_SHARD_COUNT = 256;
+    /** Имя файла манифеста. */
+    private static final String MANIFEST = "manifest.bin";
+    /** Имя временного файла манифеста. */
+    private static final String MANIFEST_TMP = "manifest.tmp";
+    /** Сигнатура файла манифеста первой версии без контрольной суммы ("TPM1"). */
+    private static final int MANIFEST_MAGIC_V1 = 0x54504D31;
+    /** Сигнатура файла манифеста с контрольной суммой ("TPM2"). */
+    private static final int MANIFEST_MAGIC = 0x54504D32;
+    /** Имя файла межпроцессной блокировки. */
+    static final String LOCK_FILE = "phonebook.lock";
+    /** Внутрипроцессные блокировки каталогов: блокировку файла нельзя взять дважды в одной JVM. */
+    private static final Map<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+    /** Количество хранимых резервных копий манифеста. */
+    private static final int BACKUP_COUNT = 2;
+    /** Каталог, в котором хранятся манифест и шарды. */
+    private final Path directory;
+    /** Старый однофайловый формат, из которого выполняется миграция (может быть null). */
+    private final Path legacyFile;
+    /** Количество шардов. */
+    private final int shardCount;
+    /** Пул потоков для параллельной загрузки и сохранения шардов. */
+    private final ForkJoinPool pool;
+    /** Последний записанный или прочитанный манифест (null, если манифеста еще нет). */
+    private Manifest manifest;
+    /** Признак неудачной загрузки: пока он установлен, сохранение запрещено. */
+    private boolean loadFailed;
+    /** Признак того, что при последней загрузке часть данных была восстановлена после повреждения. */
+    private boolean recovered;
+    /** Записанное состояние контактов, известных хранилищу, по ссылкам на объекты. */
+    private final Map<Contact, Saved> saved = new IdentityHashMap<>();
+    /** Контакты каждого шарда в порядке файла (null, если содержимое файла неизвестно). */
+    private final List<List<Contact>> shardContacts;
+    /** Алгоритм сжатия файла каждого шарда (null для файла прежней версии или неизвестного). */
+    private final BlockFile.Codec[] shardCodecs;
+    /** Поток, выполняющий действие {@link #exclusive(LockedAction)} (null, если такого нет). */
+    private Thread lockOwner;
+    /**
+     * Создает хранилище в указанном каталоге.
+     *
+     * @param directory каталог с манифестом и шардами
+     * @param legacyFile файл старого формата для миграции (может быть null)
+     * @param shardCount количество шардов (от 1 до 256)
+     * @throws IllegalArgumentException если количество шардов вне допустимого диапазона
+     */
+    public ShardedStorage(Path directory, Path legacyFile, int shardCount) {
+        if (shardCount < 1 || shardCount > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("Недопустимое количество шардов: " + shardCount);
+        }
+        this.directory = directory;
+        this.legacyFile = legacyFile;
+        this.shardCount = shardCount;
+        this.pool = new ForkJoinPool(Math.min(shardCount, Runtime.getRuntime().availableProcessors()));
+        this.shardContacts = new ArrayList<>(Collections.nCopies(shardCount, null));
+        this.shardCodecs = new BlockFile.Codec[shardCount];
+    }
+    /**
+     * Возвращает номер шарда для контакта с указанным именем.
+     *
+     * @param name имя контакта
+     * @return номер шарда от 0 до {@code shardCount - 1}
+     */
+    int shardOf(String name) {
+        return Math.floorMod(name.toLowerCase(Locale.ROOT).hashCode(), shardCount);
+    }
+    /**
+     * Возвращает каталог хранилища.
+     *
+     * @return каталог с манифестом и шардами
+     */
+    Path getDirectory() {
+        return directory;
+    }
+    /**
+     * Возвращает номер поколения последнего прочитанного или записанного манифеста.
+     *
+     * @return номер поколения (0, если манифеста еще нет)
+     */
+    synchronized long getGeneration() {
+        return manifest == null ? 0 : manifest.generation;
+    }
+    /**
+     * Загружает все контакты, читая шарды параллельно.
+     * <p>
+     * Если основной манифест отсутствует или поврежден, используется самая свежая читаемая
+     * резервная копия. Если манифестов нет вообще, а файл старого формата существует,
+     * контакты читаются из него; при следующем сохранении они будут разложены по шардам.
+     *
+     * @return список контактов в том порядке, в котором они были сохранены
+     * @throws IOException если ни один манифест не удалось прочитать
+     */
+    @Override
+    public synchronized List<Contact> load() throws IOException {
+        Files.createDirectories(directory);
+        return locked(true, this::loadLocked);
+    }
+    /**
+     * Загружает контакты; вызывается под разделяемой блокировкой каталога.
+     *
+     * @return список контактов
+     * @throws IOException если ни один манифест не удалось прочитать
+     */
+    private List<Contact> loadLocked() throws IOException {
+        loadFailed = true;
+        recovered = false;
+        forgetAll();
+        IOException failure = null;
+        boolean anyManifest = false;
+        for (Path candidate : manifestChain()) {
+            if (!Files.exists(candidate)) {
+                continue;
+            }
+            anyManifest = true;
+            try {
+                Manifest current = Manifest.read(candidate);
+                if (!candidate.getFileName().toString().equals(MANIFEST)) {
+                    logger.warn("Основной манифест недоступен, используется резервная копия {}", candidate.getFileName());
+                    recovered = true;
+                }
+                List<Contact> result = loadShards(current);
+                manifest = current;
+                loadFailed = false;
+                return result;
+            } catch (IOException e) {
+                logger.error("Не удалось прочитать манифест {}", candidate.getFileName(), e);
+                failure = e;
+            }
+        }
+        if (anyManifest) {
+            throw new IOException("Не удалось прочитать ни один манифест в " + directory, failure);
+        }
+        manifest = null;
+        List<Contact> legacy = loadLegacy();
+        loadFailed = false;
+        return legacy;
+    }
+    /**
+     * Читает все шарды поколения, известного этому экземпляру, по отдельности.
+     * Отсутствующий файл шарда дает пустой шард.
+     *
+     * @return контакты по номерам шардов
+     * @throws IOException если шарды не удалось прочитать
+     */
+    synchronized List<List<Contact>> readKnownShards() throws IOException {
+        List<List<Contact>> result = new ArrayList<>(shardCount);
+        if (manifest == null || manifest.files.length != shardCount) {
+            for (int i = 0; i < shardCount; i++) {
+                result.add(new ArrayList<>());
+            }
+            return result;
+        }
+        String[] files = manifest.files;
+        return locked(true, () -> {
+            List<Callable<BlockFile.Contents>> tasks = new ArrayList<>(files.length);
+            for (String file : files) {
+                tasks.add(() -> readShard(file));
+            }
+            for (BlockFile.Contents shard : invokeAll(tasks)) {
+                result.add(shard.contacts);
+            }
+            return result;
+        });
+    }
+    /**
+     * Возвращает количество шардов.
+     *
+     * @return количество шардов
+     */
+    int getShardCount() {
+        return shardCount;
+    }
+    /**
+     * Читает шарды, которые изменил другой экземпляр после последней загрузки или сохранения.
+     * <p>
+     * Шарды сравниваются по именам файлов в манифестах: файл шарда никогда не перезаписывается,
+     * поэтому совпадающее имя означает неизменное содержимое. После вызова поколение хранилища
+     * совпадает с поколением на диске, и следующее сохранение не считается конфликтом;
+     * вызывающий должен объединить возвращенные изменения с данными в памяти до сохранения.
+     *
+     * @return изменения или null, если манифест на диске не изменился
+     * @throws IOException если манифест или шард не удалось прочитать
+     */
+    synchronized Changes readChanges() throws IOException {
+        if (loadFailed) {
+            return null;
+        }
+        return locked(true, () -> {
+            Manifest current = readLatestManifest();
+            if (current == null || manifest != null && current.generation == manifest.generation) {
+                return null;
+            }
+            boolean[] changed = new boolean[current.files.length];
+            List<Callable<BlockFile.Contents>> tasks = new ArrayList<>();
+            for (int i = 0; i < current.files.length; i++) {
+                if (manifest == null || manifest.files.length != current.files.length
+                        || !manifest.files[i].equals(current.files[i])) {
+                    String file = current.files[i];
+                    changed[i] = true;
+                    tasks.add(() -> readShard(file));
+                    if (current.files.length == shardCount) {
+                        forget(i);
+                    }
+                }
+            }
+            if (current.files.length != shardCount) {
+                forgetAll();
+            }
+            List<Contact> contacts = new ArrayList<>();
+            for (BlockFile.Contents shard : invokeAll(tasks)) {
+                contacts.addAll(shard.contacts);
+            }
+            logger.info("Поколение {} на диске: изменено шардов {} из {}, контактов в них: {}",
+                    current.generation, tasks.size(), current.files.length, contacts.size());
+            manifest = current;
+            return new Changes(current.generation, changed, contacts);
+        });
+    }
+    /**
+     * Читает шарды, перечисленные в манифесте, и восстанавливает исходный порядок контактов.
+     *
+     * @param current манифест
+     * @return список контактов
+     * @throws IOException если файл шарда не удалось прочитать
+     */
+    private List<Contact> loadShards(Manifest current) throws IOException {
+        List<Callable<BlockFile.Contents>> tasks = new ArrayList<>();
+        for (String file : current.files) {
+            tasks.add(() -> readShard(file));
+        }
+        List<BlockFile.Contents> shards = invokeAll(tasks);
+
+        int[] cursor = new int[shards.size()];
+        List<Contact> result = new ArrayList<>(current.order.length);
+        for (byte shard : current.order) {
+            int index = shard & 0xFF;
+            List<Contact> contacts = shards.get(index).contacts;
+            if (cursor[index] < contacts.size()) {
+                result.add(contacts.get(cursor[index]++));
+            }
+        }
+        int corrupt = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            corrupt += shards.get(i).corruptBlocks;
+            List<Contact> contacts = shards.get(i).contacts;
+            if (shards.size() == shardCount && shards.get(i).corruptBlocks == 0) {
+                int[] versions = new int[contacts.size()];
+                for (int slot = 0; slot < versions.length; slot++) {
+                    versions[slot] = contacts.get(slot).getVersion();
+                }
+                remember(i, contacts, versions, shards.get(i).codec);
+            }
+            // Записи, которых нет в порядке манифеста, тоже сохраняем
+            result.addAll(contacts.subList(Math.min(cursor[i], contacts.size()), contacts.size()));
+        }
+        if (corrupt > 0 || result.size() != current.order.length) {
+            recovered = true;
+            logger.warn("Восстановлено {} из {} контактов, поврежденных блоков: {}",
+                    result.size(), current.order.length, corrupt);
+        }
+        logger.info("Загружено {} контактов из {} шардов", result.size(), shards.size());
+        return result;
+    }
+    /**
+     * Сообщает, были ли данные восстановлены после повреждения при последней загрузке.
+     *
+     * @return true, если использовалась резервная копия или пропущены поврежденные блоки
+     */
+    @Override
+    public synchronized boolean isRecovered() {
+        return recovered;
+    }
+    /**
+     * Сохраняет контакты, перезаписывая только изменившиеся шарды.
+     * <p>
+     * Шард считается неизмененным, если в нем те же объекты контактов на тех же местах,
+     * что и при последней загрузке или сохранении, с теми же номерами изменения, а файл
+     * записан текущей версией формата с текущим алгоритмом сжатия. Такие шарды остаются
+     * в прежних файлах и не кодируются. Остальные шарды кодируются из снимков контактов;
+     * если контрольная сумма совпала с записанной в манифесте, прежний файл тоже сохраняется.
+     * Новый манифест сначала
+     * записывается во временный файл и сбрасывается на диск, затем текущий манифест
+     * становится резервной копией, а временный атомарно переименовывается.
+     *
+     * <p>
+     * Запись выполняется под исключительной блокировкой каталога. Если поколение манифеста
+     * на диске отличается от поколения, прочитанного или записанного этим экземпляром,
+     * данные на диске изменил другой экземпляр, и сохранение отклоняется.
+     *
+     * @param contacts список контактов для сохранения
+     * @throws ConflictException если другой экземпляр сохранил данные после последней
+     *                           загрузки или сохранения этим экземпляром
+     * @throws IOException если не удалось записать шард или манифест, либо если
+     *                     предыдущая загрузка завершилась ошибкой
+     */
+    @Override
+    public synchronized void save(List<Contact> contacts) throws IOException {
+        saveShards(contacts);
+    }
+    /**
+     * Сохраняет контакты так же, как {@link #save(List)}, и возвращает снимки контактов,
+     * записанные в шарды, содержимое которых было закодировано заново.
+     *
+     * @param contacts список контактов для сохранения
+     * @return снимки по номерам шардов в порядке файла; null для шардов, оставшихся без изменений
+     * @throws ConflictException если другой экземпляр сохранил данные после последней
+     *                           загрузки или сохранения этим экземпляром
+     * @throws IOException если не удалось записать шард или манифест, либо если
+     *                     предыдущая загрузка завершилась ошибкой
+     */
+    synchronized List<List<Contact>> saveShards(List<Contact> contacts) throws IOException {
+        if (loadFailed) {
+            throw new IOException("Сохранение запрещено: данные не были загружены из " + directory);
+        }
+        Files.createDirectories(directory);
+        return locked(false, () -> {
+            Manifest current = readLatestManifest();
+            long expected = manifest == null ? 0 : manifest.generation;
+            if (current != null && current.generation != expected) {
+                throw new ConflictException("Данные в " + directory + " изменены другим экземпляром: поколение "
+                        + current.generation + " вместо " + expected);
+            }
+            return saveLocked(contacts);
+        });
+    }
+    /**
+     * Записывает шарды и манифест; вызывается под исключительной блокировкой каталога.
+     *
+     * @param contacts список контактов для сохранения
+     * @return снимки контактов закодированных шардов (null для неизмененных шардов)
+     * @throws IOException если не удалось записать шард или манифест
+     */
+    private List<List<Contact>> saveLocked(List<Contact> contacts) throws IOException {
+        byte[] order = new byte[contacts.size()];
+        int[] sizes = new int[shardCount];
+        for (int i = 0; i < contacts.size(); i++) {
+            int shard = shardOf(contacts.get(i).getName());
+            order[i] = (byte) shard;
+            sizes[shard]++;
+        }
+        List<List<Contact>> groups = new ArrayList<>(shardCount);
+        int[][] versions = new int[shardCount][];
+        boolean[] dirty = new boolean[shardCount];
+        boolean known = manifest != null && manifest.files.length == shardCount;
+        BlockFile.Codec codec = BlockFile.Codec.configured();
+        for (int i = 0; i < shardCount; i++) {
+            groups.add(new ArrayList<>(sizes[i]));
+            versions[i] = new int[sizes[i]];
+            List<Contact> previous = shardContacts.get(i);
+            dirty[i] = !known || previous == null || previous.size() != sizes[i]
+                    || sizes[i] > 0 && shardCodecs[i] != codec;
+        }
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = contacts.get(i);
+            int shard = order[i] & 0xFF;
+            List<Contact> group = groups.get(shard);
+            // Номер изменения читается до снимка: изменение между ними приведет к лишней записи, а не к потере
+            int version = contact.getVersion();
+            Saved state = dirty[shard] ? null : saved.get(contact);
+            if (!dirty[shard] && (state == null || state.shard != shard || state.slot != group.size()
+                    || state.version != version)) {
+                dirty[shard] = true;
+            }
+            versions[shard][group.size()] = version;
+            group.add(contact);
+        }
+
+        long generation = manifest == null ? 1 : manifest.generation + 1;
+        List<Callable<String>> tasks = new ArrayList<>(shardCount);
+        long[] checksums = new long[shardCount];
+        List<List<Contact>> written = new ArrayList<>(Collections.nCopies(shardCount, null));
+        for (int i = 0; i < shardCount; i++) {
+            final int shard = i;
+            tasks.add(() -> {
+                List<Contact> group = groups.get(shard);
+                if (!dirty[shard] && (group.isEmpty() || Files.exists(directory.resolve(manifest.files[shard])))) {
+                    checksums[shard] = manifest.checksums[shard];
+                    return manifest.files[shard];
+                }
+                List<Contact> copies = new ArrayList<>(group.size());
+                for (Contact contact : group) {
+                    copies.add(contact.snapshot());
+                }
+                written.set(shard, copies);
+                if (copies.isEmpty()) {
+                    return "";
+                }
+                byte[] bytes = BlockFile.encode(copies, codec);
+                CRC32C crc = new CRC32C();
+                crc.update(bytes);
+                checksums[shard] = crc.getValue();
+                if (known && manifest.checksums[shard] == checksums[shard]
+                        && !manifest.files[shard].isEmpty()
+                        && Files.exists(directory.resolve(manifest.files[shard]))) {
+                    return manifest.files[shard];
+                }
+                String file = String.format("shard-%03d-%d.bin", shard, generation);
+                writeDurably(directory.resolve(file), bytes);
+                return file;
+            });
+        }
+        String[] files = invokeAll(tasks).toArray(new String[0]);
+
+        Manifest next = new Manifest(generation, files, checksums, order);
+        Path tmp = directory.resolve(MANIFEST_TMP);
+        next.write(tmp);
+        rotateBackups();
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+
+        int encoded = 0;
+        int rewritten = 0;
+        for (int i = 0; i < shardCount; i++) {
+            if (written.get(i) != null) {
+                encoded++;
+                forget(i);
+            }
+            if (!known || !files[i].equals(manifest.files[i])) {
+                rewritten++;
+            }
+        }
+        for (int i = 0; i < shardCount; i++) {
+            if (written.get(i) != null) {
+                remember(i, groups.get(i), versions[i], codec);
+            }
+        }
+        manifest = next;
+        removeStaleShards();
+        logger.info("Сохранено {} контактов, закодировано шардов: {}, перезаписано: {} из {}",
+                contacts.size(), encoded, rewritten, shardCount);
+        return written;
+    }
+    /**
+     * Запоминает контакты, записанные в файл шарда.
+     *
+     * @param shard номер шарда
+     * @param contacts контакты шарда в порядке файла
+     * @param versions номера изменения контактов на момент записи
+     * @param codec алгоритм сжатия файла (null для файла прежней версии формата)
+     */
+    private void remember(int shard, List<Contact> contacts, int[] versions, BlockFile.Codec codec) {
+        for (int slot = 0; slot < contacts.size(); slot++) {
+            saved.put(contacts.get(slot), new Saved(shard, slot, versions[slot]));
+        }
+        shardContacts.set(shard, contacts);
+        shardCodecs[shard] = codec;
+    }
+    /**
+     * Забывает содержимое шарда: при следующем сохранении он будет закодирован заново.
+     *
+     * @param shard номер шарда
+     */
+    private void forget(int shard) {
+        List<Contact> contacts = shardContacts.get(shard);
+        if (contacts != null) {
+            for (Contact contact : contacts) {
+                Saved state = saved.get(contact);
+                if (state != null && state.shard == shard) {
+                    saved.remove(contact);
+                }
+            }
+        }
+        shardContacts.set(shard, null);
+        shardCodecs[shard] = null;
+    }
+    /**
+     * Забывает содержимое всех шардов.
+     */
+    private void forgetAll() {
+        saved.clear();
+        Collections.fill(shardContacts, null);
+        Arrays.fill(shardCodecs, null);
+    }
+    /**
+     * Читает самый свежий читаемый манифест из основного файла и резервных копий.
+     *
+     * @return манифест или null, если ни одного манифеста нет
+     */
+    private Manifest readLatestManifest() {
+        for (Path candidate : manifestChain()) {
+            if (Files.exists(candidate)) {
+                try {
+                    return Manifest.read(candidate);
+                } catch (IOException e) {
+                    logger.warn("Манифест {} не читается: {}", candidate.getFileName(), e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * Выполняет действие под блокировкой файла {@value #LOCK_FILE}, ожидая, пока его
+     * освободят другие процессы. Экземпляры хранилища в одной JVM, работающие с одним
+     * каталогом, дополнительно упорядочиваются внутрипроцессной блокировкой, потому что
+     * блокировку файла нельзя взять дважды в одной JVM.
+     *
+     * @param shared true для разделяемой блокировки чтения, false для исключительной
+     * @param action действие
+     * @param <T> тип результата
+     * @return результат действия
+     * @throws IOException если файл блокировки не удалось открыть или действие завершилось ошибкой
+     */
+    private <T> T locked(boolean shared, LockedAction<T> action) throws IOException {
+        if (lockOwner == Thread.currentThread()) {
+            return action.run();
+        }
+        Object processLock = PROCESS_LOCKS.computeIfAbsent(directory.toAbsolutePath().normalize(), key -> new Object());
+        synchronized (processLock) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock(0, Long.MAX_VALUE, shared);
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+    /**
+     * Выполняет действие под исключительной блокировкой каталога: другие экземпляры не могут
+     * записать данные, пока оно выполняется. Методы хранилища, вызванные из действия,
+     * повторно каталог не блокируют.
+     *
+     * @param action действие
+     * @param <T> тип результата
+     * @return результат действия
+     * @throws IOException если файл блокировки не удалось открыть или действие завершилось ошибкой
+     */
+    synchronized <T> T exclusive(LockedAction<T> action) throws IOException {
+        return locked(false, () -> {
+            lockOwner = Thread.currentThread();
+            try {
+                return action.run();
+            } finally {
+                lockOwner = null;
+            }
+        });
+    }
+    /**
+     * Действие над каталогом, выполняемое под блокировкой.
+     */
+    interface LockedAction<T> {
+        T run() throws IOException;
+    }
+    /**
+     * Возвращает пути основного манифеста и его резервных копий, от новых к старым.
+     *
+     * @return список путей к манифестам
+     */
+    private List<Path> manifestChain() {
+        List<Path> chain = new ArrayList<>(BACKUP_COUNT + 1);
+        chain.add(directory.resolve(MANIFEST));
+        for (int i = 1; i <= BACKUP_COUNT; i++) {
+            chain.add(directory.resolve(MANIFEST + "." + i + ".bak"));
+        }
+        return chain;
+    }
+    /**
+     * Сдвигает резервные копии манифеста: самая старая удаляется, текущий манифест
+     * становится первой резервной копией.
+     *
+     * @throws IOException при ошибке переименования
+     */
+    private void rotateBackups() throws IOException {
+        List<Path> chain = manifestChain();
+        for (int i = chain.size() - 1; i > 0; i--) {
+            if (Files.exists(chain.get(i - 1))) {
+                Files.move(chain.get(i - 1), chain.get(i), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+    /**
+     * Сбрасывает на диск запись каталога, чтобы переименование пережило сбой питания.
+     * На платформах, где каталог нельзя открыть как канал, шаг пропускается.
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.trace("Сброс каталога {} на диск не поддерживается: {}", directory, e.getMessage());
+        }
+    }
+    /**
+     * Удаляет файлы шардов, на которые не ссылаются ни текущий манифест, ни резервные копии.
+     *
+     * @throws IOException если не удалось прочитать каталог
+     */
+    private void removeStaleShards() throws IOException {
+        Set<String> live = new HashSet<>(Arrays.asList(manifest.files));
+        List<Path> chain = manifestChain();
+        for (Path backup : chain.subList(1, chain.size())) {
+            if (Files.exists(backup)) {
+                try {
+                    live.addAll(Arrays.asList(Manifest.read(backup).files));
+                } catch (IOException e) {
+                    logger.warn("Резервная копия манифеста {} повреждена", backup.getFileName());
+                }
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "shard-*.bin")) {
+            for (Path file : stream) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                    logger.debug("Удален устаревший шард {}", file.getFileName());
+                }
+            }
+        }
+    }
+    /**
+     * Читает контакты из файла старого однофайлового формата.
+     *
+     * @return список контактов или пустой список, если файла нет
+     * @throws IOException если файл существует, но не читается
+     */
+    private List<Contact> loadLegacy() throws IOException {
+        if (legacyFile == null || !Files.exists(legacyFile)) {
+            return new ArrayList<>();
+        }
+        logger.info("Миграция контактов из файла {}", legacyFile);
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(legacyFile)))) {
+            return readContactList(ois);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Неизвестный формат файла " + legacyFile, e);
+        }
+    }
+    /**
+     * Читает список контактов, записанный {@link ObjectOutputStream}, проверяя тип каждого элемента.
+     *
+     * @param in поток объектов
+     * @return изменяемая копия списка
+     * @throws InvalidObjectException если прочитан не список или элемент не является контактом
+     * @throws IOException при ошибке чтения
+     * @throws ClassNotFoundException если класс прочитанного объекта неизвестен
+     */
+    private static List<Contact> readContactList(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        Object value = in.readObject();
+        if (!(value instanceof List)) {
+            throw new InvalidObjectException("Ожидался список контактов, прочитан "
+                    + (value == null ? "null" : value.getClass().getName()));
+        }
+        List<?> items = (List<?>) value;
+        List<Contact> contacts = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (!(item instanceof Contact)) {
+                throw new InvalidObjectException("Элемент списка не является контактом: " + item);
+            }
+            contacts.add((Contact) item);
+        }
+        return contacts;
+    }
+    /**
+     * Читает контакты из файла шарда, восстанавливая неповрежденные блоки.
+     * <p>
+     * Отсутствующий файл считается полностью поврежденным шардом. Файлы первой версии
+     * хранилища, записанные через {@link ObjectOutputStream}, читаются потоком из того же канала.
+     *
+     * @param file имя файла шарда (пустая строка означает пустой шард)
+     * @return содержимое шарда
+     * @throws IOException если файл существует, но не читается
+     */
+    private BlockFile.Contents readShard(String file) throws IOException {
+        if (file.isEmpty()) {
+            return new BlockFile.Contents(Collections.emptyList(), 0);
+        }
+        Path path = directory.resolve(file);
+        if (!Files.exists(path)) {
+            logger.error("Файл шарда {} не найден", file);
+            return new BlockFile.Contents(Collections.emptyList(), 1);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (BlockFile.isBlockFile(channel)) {
+                return BlockFile.decode(channel, file);
+            }
+            try (ObjectInputStream ois = new ObjectInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)))) {
+                return new BlockFile.Contents(readContactList(ois), 0);
+            } catch (ClassNotFoundException | IOException e) {
+                logger.error("Шард {} не удалось прочитать", file, e);
+                return new BlockFile.Contents(Collections.emptyList(), 1);
+            }
+        }
+    }
+    /**
+     * Записывает данные в файл и дожидается их сброса на диск.
+     *
+     * @param file путь к файлу
+     * @param bytes содержимое файла
+     * @throws IOException при ошибке записи
+     */
+    private static void writeDurably(Path file, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+    /**
+     * Выполняет задачи в пуле хранилища и собирает их результаты по порядку.
+     *
+     * @param tasks задачи
+     * @param <T> тип результата
+     * @return результаты в порядке задач
+     * @throws IOException если одна из задач завершилась ошибкой ввода-вывода
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Операция с шардами прервана");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Ошибка обработки шарда", e.getCause());
+        }
+        return results;
+    }
+    /**
+     * Состояние контакта при последней записи: шард, место в нем и номер изменения.
+     */
+    private static final class Saved {
+        /** Номер шарда. */
+        final int shard;
+        /** Позиция контакта в файле шарда. */
+        final int slot;
+        /** Номер изменения контакта на момент записи. */
+        final int version;
+
+        Saved(int shard, int slot, int version) {
+            this.shard = shard;
+            this.slot = slot;
+            this.version = version;
+        }
+    }
+    /**
+     * Шарды, измененные другим экземпляром.
+     */
+    static final class Changes {
+        /** Поколение манифеста на диске. */
+        final long generation;
+        /** Признаки изменения по номерам шардов манифеста на диске. */
+        private final boolean[] changed;
+        /** Все контакты изменившихся шардов в их текущем состоянии на диске. */
+        final List<Contact> contacts;
+
+        Changes(long generation, boolean[] changed, List<Contact> contacts) {
+            this.generation = generation;
+            this.changed = changed;
+            this.contacts = contacts;
+        }
+        /**
+         * Сообщает, попадает ли контакт с указанным именем в изменившийся шард.
+         * Контакт, которого нет в {@link #contacts}, но который попадает в изменившийся шард,
+         * удален или переименован другим экземпляром.
+         *
+         * @param name имя контакта
+         * @return true, если шард контакта изменился
+         */
+        boolean covers(String name) {
+            return changed[Math.floorMod(name.toLowerCase(Locale.ROOT).hashCode(), changed.length)];
+        }
+        /**
+         * Сообщает, изменился ли шард.
+         *
+         * @param shard номер шарда
+         * @return true, если файл шарда изменился
+         */
+        boolean isChanged(int shard) {
+            return changed[shard];
+        }
+    }
+    /**
+     * Сохранение отклонено: данные на диске изменил другой экземпляр.
+     */
+    public static final class ConflictException extends IOException {
+        private static final long serialVersionUID = 6203384227187393316L;
+
+        ConflictException(String message) {
+            super(message);
+        }
+    }
+    /**
+     * Манифест: перечень файлов шардов, их контрольные суммы и порядок контактов.
+     */
+    private static final class Manifest {
+        /** Номер поколения; увеличивается при каждом сохранении. */
+        final long generation;
+        /** Имена файлов шардов (пустая строка для пустого шарда). */
+        final String[] files;
+        /** Контрольные суммы CRC32C содержимого шардов. */
+        final long[] checksums;
+        /** Номер шарда для каждого контакта в исходном порядке списка. */
+        final byte[] order;
+
+        Manifest(long generation, String[] files, long[] checksums, byte[] order) {
+            this.generation = generation;
+            this.files = files;
+            this.checksums = checksums;
+            this.order = order;
+        }
+        /**
+         * Читает манифест из файла.
+         *
+         * @param file путь к манифесту
+         * @return прочитанный манифест
+         * @throws IOException если файл поврежден или не читается
+         */
+        static Manifest read(Path file) throws IOException {
+            byte[] data = Files.readAllBytes(file);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                int magic = in.readInt();
+                if (magic == MANIFEST_MAGIC) {
+                    CRC32C crc = new CRC32C();
+                    crc.update(data, 0, data.length - 4);
+                    if ((int) crc.getValue() != ByteBuffer.wrap(data).getInt(data.length - 4)) {
+                        throw new IOException("Неверная контрольная сумма манифеста " + file);
+                    }
+                } else if (magic != MANIFEST_MAGIC_V1) {
+                    throw new IOException("Неверная сигнатура манифеста " + file);
+                }
+                long generation = in.readLong();
+                int count = in.readInt();
+                // Запись шарда занимает не меньше 10 байт: длина имени и контрольная сумма
+                if (count < 0 || count > MAX_SHARD_COUNT || count > in.available() / 10) {
+                    throw new IOException("Неверное количество шардов " + count + " в манифесте " + file);
+                }
+                String[] files = new String[count];
+                long[] checksums = new long[count];
+                for (int i = 0; i < count; i++) {
+                    files[i] = in.readUTF();
+                    checksums[i] = in.readLong();
+                }
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    throw new IOException("Неверное количество контактов " + length + " в манифесте " + file);
+                }
+                byte[] order = new byte[length];
+                in.readFully(order);
+                for (byte shard : order) {
+                    if ((shard & 0xFF) >= count) {
+                        throw new IOException("Неверный номер шарда " + (shard & 0xFF) + " в манифесте " + file);
+                    }
+                }
+                return new Manifest(generation, files, checksums, order);
+            }
+        }
+        /**
+         * Записывает манифест в файл и сбрасывает его на диск.
+         *
+         * @param file путь к файлу
+         * @throws IOException при ошибке записи
+         */
+        void write(Path file) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + order.length);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MANIFEST_MAGIC);
+                out.writeLong(generation);
+                out.writeInt(files.length);
+                for (int i = 0; i < files.length; i++) {
+                    out.writeUTF(files[i]);
+                    out.writeLong(checksums[i]);
+                }
+                out.writeInt(order.length);
+                out.write(order);
+                out.flush();
+                CRC32C crc = new CRC32C();
+                crc.update(bytes.toByteArray());
+                out.writeInt((int) crc.getValue());
+            }
+            writeDurably(file, bytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты блочного формата шардов: чтение всех версий формата и восстановление
+ * неповрежденных блоков.
+ */
+class BlockFileTest {
+    /** Маркер синхронизации блока. */
+    private static final int SYNC = 0x7E1EB10C;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripWithoutCompression() throws IOException {
+        List<Contact> contacts = TestData.contacts(1000);
+        BlockFile.Contents contents = decode(BlockFile.encode(contacts, BlockFile.Codec.NONE));
+        assertEquals(TestData.describe(contacts), TestData.describe(contents.contacts));
+        assertEquals(0, contents.corruptBlocks);
+        assertSame(BlockFile.Codec.NONE, contents.codec);
+    }
+
+    @Test
+    void roundTripWithDeflate() throws IOException {
+        List<Contact> contacts = TestData.contacts(3000);
+        BlockFile.Contents contents = decode(BlockFile.encode(contacts, BlockFile.Codec.DEFLATE));
+        assertEquals(TestData.describe(contacts), TestData.describe(contents.contacts));
+        assertSame(BlockFile.Codec.DEFLATE, contents.codec);
+    }
+
+    @Test
+    void keepsMoreThanShortNumberCount() throws IOException {
+        String[] numbers = new String[70_000];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = String.valueOf(i);
+        }
+        List<Contact> contacts = List.of(TestData.contact("Много номеров", numbers));
+        BlockFile.Contents contents = decode(BlockFile.encode(contacts, BlockFile.Codec.NONE));
+        assertEquals(70_000, contents.contacts.get(0).getPhoneNumbers().size());
+    }
+
+    @Test
+    void readsVersion1Files() throws IOException {
+        List<Contact> contacts = TestData.contacts(150);
+        BlockFile.Contents contents = decode(legacyFile(BlockFile.MAGIC_V1, contacts));
+        assertEquals(TestData.describe(contacts), TestData.describe(contents.contacts));
+        assertEquals(0, contents.corruptBlocks);
+        assertNull(contents.codec, "файл прежней версии должен быть перезаписан");
+    }
+
+    @Test
+    void readsVersion2Files() throws IOException {
+        List<Contact> contacts = TestData.contacts(150);
+        BlockFile.Contents contents = decode(legacyFile(BlockFile.MAGIC_V2, contacts));
+        assertEquals(TestData.describe(contacts), TestData.describe(contents.contacts));
+        assertNull(contents.codec);
+    }
+
+    @Test
+    void skipsOnlyTheDamagedBlock() throws IOException {
+        List<Contact> contacts = TestData.contacts(640);
+        byte[] bytes = BlockFile.encode(contacts, BlockFile.Codec.NONE);
+        bytes[bytes.length / 2] ^= 0x55;
+
+        BlockFile.Contents contents = decode(bytes);
+        assertEquals(1, contents.corruptBlocks);
+        assertEquals(640 - BlockFile.Codec.NONE.recordsPerBlock, contents.contacts.size());
+        assertEquals(TestData.describe(contacts.get(0)), TestData.describe(contents.contacts.get(0)));
+        assertEquals(TestData.describe(contacts.get(639)),
+                TestData.describe(contents.contacts.get(contents.contacts.size() - 1)));
+    }
+
+    @Test
+    void skipsDamagedCompressedBlock() throws IOException {
+        List<Contact> contacts = TestData.contacts(5000);
+        byte[] bytes = BlockFile.encode(contacts, BlockFile.Codec.DEFLATE);
+        bytes[bytes.length / 2] ^= 0x55;
+
+        BlockFile.Contents contents = decode(bytes);
+        assertEquals(1, contents.corruptBlocks);
+        assertEquals(5000 - BlockFile.Codec.DEFLATE.recordsPerBlock, contents.contacts.size());
+    }
+
+    @Test
+    void reportsTruncatedTail() throws IOException {
+        List<Contact> contacts = TestData.contacts(200);
+        byte[] bytes = BlockFile.encode(contacts, BlockFile.Codec.NONE);
+        byte[] truncated = new byte[bytes.length - 10];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+        BlockFile.Contents contents = decode(truncated);
+        assertEquals(1, contents.corruptBlocks);
+        assertEquals(200 - 200 % BlockFile.Codec.NONE.recordsPerBlock, contents.contacts.size());
+    }
+
+    @Test
+    void rejectsUnknownSignature() throws IOException {
+        Path file = dir.resolve("shard.bin");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(TestData.contacts(1)));
+        }
+        Files.write(file, bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertFalse(BlockFile.isBlockFile(channel));
+            assertThrows(IOException.class, () -> BlockFile.decode(channel, "shard.bin"));
+        }
+    }
+
+    private BlockFile.Contents decode(byte[] bytes) throws IOException {
+        Path file = dir.resolve("shard.bin");
+        Files.write(file, bytes);
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertTrue(BlockFile.isBlockFile(channel));
+            return BlockFile.decode(channel, "shard.bin");
+        }
+    }
+    /**
+     * Записывает файл первой или второй версии формата: количество номеров занимает два байта,
+     * во второй версии после сигнатуры идет код алгоритма, а в заголовке блока &mdash; длина до сжатия.
+     */
+    private static byte[] legacyFile(int magic, List<Contact> contacts) throws IOException {
+        boolean v1 = magic == BlockFile.MAGIC_V1;
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(magic);
+        if (!v1) {
+            out.writeByte(BlockFile.Codec.NONE.id);
+        }
+        for (int start = 0; start < contacts.size(); start += 64) {
+            int end = Math.min(start + 64, contacts.size());
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(block);
+            for (Contact contact : contacts.subList(start, end)) {
+                records.writeBoolean(true);
+                records.writeUTF(contact.getName());
+                records.writeShort(contact.getPhoneNumbers().size());
+                for (PhoneNumber number : contact.getPhoneNumbers()) {
+                    records.writeBoolean(true);
+                    records.writeUTF(number.getNumber());
+                    records.writeBoolean(true);
+                    records.writeUTF(number.getType());
+                }
+            }
+            byte[] data = block.toByteArray();
+            CRC32C crc = new CRC32C();
+            crc.update(data);
+            out.writeInt(SYNC);
+            out.writeInt(end - start);
+            out.writeInt(data.length);
+            if (!v1) {
+                out.writeInt(data.length);
+            }
+            out.writeInt((int) crc.getValue());
+            out.write(data);
+        }
+        return file.toByteArray();
+    }
+}
@@ -0,0 +1,152 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты шины событий: синхронные слушатели, объединение событий в пакеты и отключение
+ * отставшего подписчика с {@link ContactEventBus.OverflowException}.
+ */
+class ContactEventBusTest {
+    @Test
+    void listenersSeeEventsAtOnceAndBatchListenersSeeWholeBatch() {
+        try (ContactEventBus bus = new ContactEventBus()) {
+            List<ContactEvent> events = new ArrayList<>();
+            List<List<ContactEvent>> batches = new ArrayList<>();
+            bus.addListener(events::add);
+            bus.addBatchListener(batches::add);
+
+            bus.batch(() -> {
+                bus.publish(ContactEvent.reordered());
+                // Вложенный пакет объединяется с внешним
+                bus.batch(() -> bus.publish(ContactEvent.reloaded()));
+                assertEquals(2, events.size());
+                assertTrue(batches.isEmpty());
+            });
+            bus.publish(ContactEvent.synced());
+
+            assertEquals(3, events.size());
+            assertEquals(2, batches.size());
+            assertEquals(events.subList(0, 2), batches.get(0));
+            assertEquals(List.of(events.get(2)), batches.get(1));
+        }
+    }
+
+    @Test
+    void failingListenerDoesNotStopOthers() {
+        try (ContactEventBus bus = new ContactEventBus()) {
+            List<ContactEvent> events = new ArrayList<>();
+            bus.addListener(event -> {
+                throw new IllegalStateException("сбой слушателя");
+            });
+            bus.addListener(events::add);
+
+            bus.publish(ContactEvent.reordered());
+            assertEquals(1, events.size());
+        }
+    }
+
+    @Test
+    void subscriberReceivesBatchesInOrder() throws InterruptedException {
+        try (ContactEventBus bus = new ContactEventBus()) {
+            BlockingQueue<List<ContactEvent>> received = new ArrayBlockingQueue<>(16);
+            BlockingQueue<Throwable> errors = new ArrayBlockingQueue<>(1);
+            bus.subscribe(new Flow.Subscriber<List<ContactEvent>>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(List<ContactEvent> events) {
+                    received.add(events);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    errors.add(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            bus.batch(() -> {
+                bus.publish(ContactEvent.reordered());
+                bus.publish(ContactEvent.reloaded());
+            });
+            bus.publish(ContactEvent.synced());
+
+            List<ContactEvent> first = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertEquals(2, first.size());
+            assertEquals(ContactEvent.Type.REORDERED, first.get(0).getType());
+            List<ContactEvent> second = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(second);
+            assertEquals(ContactEvent.Type.SYNCED, second.get(0).getType());
+            assertTrue(errors.isEmpty());
+        }
+    }
+
+    @Test
+    void laggingSubscriberGetsOverflowErrorAndNoMoreBatches() throws InterruptedException {
+        try (ContactEventBus bus = new ContactEventBus(4)) {
+            CountDownLatch subscribed = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch failed = new CountDownLatch(1);
+            List<Throwable> errors = new ArrayList<>();
+            int[] delivered = new int[1];
+            bus.subscribe(new Flow.Subscriber<List<ContactEvent>>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                    subscribed.countDown();
+                }
+
+                @Override
+                public void onNext(List<ContactEvent> events) {
+                    delivered[0]++;
+                    try {
+                        // Подписчик «зависает» на первом пакете, пока буфер не переполнится
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    errors.add(throwable);
+                    failed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 100; i++) {
+                bus.publish(ContactEvent.reordered());
+            }
+            assertTrue(bus.getDroppedBatches() > 0);
+            release.countDown();
+
+            assertTrue(failed.await(5, TimeUnit.SECONDS));
+            assertTrue(errors.get(0) instanceof ContactEventBus.OverflowException);
+            int before = delivered[0];
+            bus.publish(ContactEvent.reordered());
+            Thread.sleep(100);
+            assertEquals(before, delivered[0]);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты поиска дубликатов: нормализация ключей, цепочки совпадений через union-find,
+ * порог общих номеров, отмена, объединение групп и его отмена в истории изменений.
+ */
+class DeduplicatorTest {
+    @Test
+    void normalizesNamesAndNumbers() {
+        assertEquals(Deduplicator.normalizeName("Иванов Иван"), Deduplicator.normalizeName("иван,  иванов"));
+        assertEquals(Deduplicator.normalizeName("Сёмин Пётр"), Deduplicator.normalizeName("семин петр"));
+        assertEquals(Deduplicator.normalizeNumber("8 (912) 345-67-89"), Deduplicator.normalizeNumber("+7 912 345 67 89"));
+        assertNotEquals(Deduplicator.normalizeNumber("912-34-56"), Deduplicator.normalizeNumber("912-34-57"));
+        assertNull(Deduplicator.normalizeNumber("нет"));
+    }
+
+    @Test
+    void chainsOfMatchesFormOneGroup() {
+        Contact first = TestData.contact("Иван Петров", "1110000");
+        Contact second = TestData.contact("петров иван", "2220000");
+        Contact third = TestData.contact("Другой", "222-00-00");
+        Contact alone = TestData.contact("Одиночка", "3330000");
+        List<Contact> contacts = List.of(first, alone, second, third);
+
+        List<Deduplicator.DuplicateGroup> groups = find(contacts, Deduplicator.DEFAULT_SHARED_NUMBER_LIMIT);
+        assertEquals(1, groups.size());
+        assertEquals(List.of(first, second, third), groups.get(0).getContacts());
+        assertSame(first, groups.get(0).getSurvivor());
+    }
+
+    @Test
+    void numberSharedByManyContactsDoesNotLinkThem() {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            contacts.add(TestData.contact("Сотрудник " + i, "5550000", String.valueOf(1_000_000 + i)));
+        }
+        // Двое из них совпадают еще и по личному номеру
+        contacts.get(3).addPhoneNumber(new PhoneNumber("1000001", "Мобильный"));
+
+        List<Deduplicator.DuplicateGroup> groups = find(contacts, 3);
+        assertEquals(1, groups.size());
+        assertEquals(List.of(contacts.get(1), contacts.get(3)), groups.get(0).getContacts());
+
+        assertEquals(5, find(contacts, 5).get(0).getContacts().size());
+    }
+
+    @Test
+    void cancelledSearchThrows() {
+        List<Contact> contacts = TestData.contacts(10);
+        assertThrows(CancellationException.class,
+                () -> Deduplicator.find(contacts, Deduplicator.DEFAULT_SHARED_NUMBER_LIMIT, p -> { }, () -> true));
+    }
+
+    @Test
+    void rejectsTooLowSharedNumberLimit() {
+        ContactDirectory directory = directory(List.of());
+        assertThrows(IllegalArgumentException.class, () -> new Deduplicator(directory, 1));
+    }
+
+    @Test
+    void mergeMovesNumbersToSurvivorAndCanBeUndone() throws IOException, InterruptedException, ExecutionException {
+        ContactDirectory directory = directory(List.of(
+                TestData.contact("Иван Петров", "8 111 00 00"),
+                TestData.contact("Анна", "4440000"),
+                TestData.contact("Петров Иван", "2220000", "+7 111 00 00"),
+                TestData.contact("Иван Петров", "2220000", "3330000")));
+        directory.load();
+        EditHistory history = new EditHistory(directory, EditHistory.DEFAULT_LIMIT);
+        List<String> initial = TestData.describe(directory.copyContacts());
+        Deduplicator deduplicator = new Deduplicator(directory);
+
+        List<Deduplicator.DuplicateGroup> groups = deduplicator.findAsync(p -> { }, () -> false).get();
+        assertEquals(1, groups.size());
+        assertEquals(2, deduplicator.merge(groups));
+
+        assertEquals(List.of("Иван Петров=8 111 00 00/Домашний,2220000/Домашний,3330000/Домашний,", "Анна=4440000/Домашний,"),
+                TestData.describe(directory.copyContacts()));
+        assertTrue(history.undo());
+        assertEquals(initial, TestData.describe(directory.copyContacts()));
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void mergeSkipsContactsRemovedAfterSearch() throws IOException, InterruptedException, ExecutionException {
+        ContactDirectory directory = directory(List.of(
+                TestData.contact("Иван Петров", "1110000"),
+                TestData.contact("Петров Иван", "2220000")));
+        directory.load();
+        Deduplicator deduplicator = new Deduplicator(directory);
+        List<Deduplicator.DuplicateGroup> groups = deduplicator.findAsync(p -> { }, () -> false).get();
+
+        directory.removeContact(directory.getContacts().get(0));
+        assertEquals(0, deduplicator.merge(groups));
+        assertEquals(List.of("Петров Иван=2220000/Домашний,"), TestData.describe(directory.copyContacts()));
+    }
+    /**
+     * Ищет дубликаты без отчета о прогрессе и без отмены.
+     *
+     * @param contacts контакты
+     * @param sharedNumberLimit порог общих номеров
+     * @return группы дубликатов
+     */
+    private static List<Deduplicator.DuplicateGroup> find(List<Contact> contacts, int sharedNumberLimit) {
+        return Deduplicator.find(contacts, sharedNumberLimit, p -> { }, () -> false);
+    }
+    /**
+     * Создает телефонную книгу, загружающую указанные контакты.
+     *
+     * @param contacts контакты хранилища
+     * @return телефонная книга (еще не загруженная)
+     */
+    private static ContactDirectory directory(List<Contact> contacts) {
+        return new ContactDirectory(new ContactStorage() {
+            @Override
+            public List<Contact> load() {
+                return new ArrayList<>(contacts);
+            }
+
+            @Override
+            public void save(List<Contact> contacts) {
+            }
+        });
+    }
+}
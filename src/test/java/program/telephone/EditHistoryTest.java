@@ -0,0 +1,137 @@
+package program.telephone;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты истории изменений: отмена и повтор, пакеты как одно действие, ограничение глубины,
+ * удаление действий, затронутых изменениями другого экземпляра, и проверка потока.
+ */
+class EditHistoryTest {
+    private ContactDirectory directory;
+    private EditHistory history;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = new ContactDirectory(new ContactStorage() {
+            @Override
+            public List<Contact> load() {
+                return TestData.contacts(5);
+            }
+
+            @Override
+            public void save(List<Contact> contacts) {
+            }
+        });
+        directory.load();
+        history = new EditHistory(directory, EditHistory.DEFAULT_LIMIT);
+    }
+
+    @Test
+    void undoAndRedoRestoreEveryStep() {
+        List<String> initial = TestData.describe(directory.copyContacts());
+        Contact contact = directory.getContacts().get(2);
+        directory.renameContact(contact, "Переименованный");
+        directory.addNumber(contact, new PhoneNumber("555", "Рабочий"));
+        Contact added = directory.addContact("Новый").orElseThrow();
+        directory.removeContact(directory.getContacts().get(0));
+        List<String> changed = TestData.describe(directory.copyContacts());
+
+        int undone = 0;
+        while (history.undo()) {
+            undone++;
+        }
+        assertEquals(4, undone);
+        assertEquals(initial, TestData.describe(directory.copyContacts()));
+        assertFalse(directory.getContacts().contains(added));
+
+        while (history.redo()) {
+            undone--;
+        }
+        assertEquals(0, undone);
+        assertEquals(changed, TestData.describe(directory.copyContacts()));
+    }
+
+    @Test
+    void batchIsUndoneAsOneAction() {
+        List<String> initial = TestData.describe(directory.copyContacts());
+        directory.batch(() -> {
+            directory.renameContact(directory.getContacts().get(0), "Первый");
+            directory.renameContact(directory.getContacts().get(1), "Второй");
+        });
+
+        assertTrue(history.undo());
+        assertFalse(history.canUndo());
+        assertEquals(initial, TestData.describe(directory.copyContacts()));
+    }
+
+    @Test
+    void newActionClearsRedo() {
+        directory.renameContact(directory.getContacts().get(0), "Первый");
+        history.undo();
+        assertTrue(history.canRedo());
+
+        directory.renameContact(directory.getContacts().get(1), "Второй");
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    void keepsOnlyLimitedNumberOfActions() {
+        history = new EditHistory(directory, 2);
+        Contact contact = directory.getContacts().get(0);
+        for (int i = 0; i < 5; i++) {
+            directory.renameContact(contact, "Имя " + i);
+        }
+
+        int undone = 0;
+        while (history.undo()) {
+            undone++;
+        }
+        assertEquals(2, undone);
+        assertEquals("Имя 2", contact.getName());
+    }
+
+    @Test
+    void syncedChangesDropActionsOnSameContacts() {
+        Contact mine = directory.getContacts().get(0);
+        Contact theirs = directory.getContacts().get(1);
+        String mineName = mine.getName();
+        directory.renameContact(theirs, "Мое изменение");
+        directory.renameContact(mine, "Мое имя");
+
+        // Так другой экземпляр применяет свои изменения (см. InstanceSync)
+        directory.batch(() -> {
+            directory.getEvents().publish(ContactEvent.synced());
+            directory.renameContact(theirs, "Имя другого экземпляра");
+        });
+
+        assertTrue(history.undo());
+        assertEquals(mineName, mine.getName());
+        assertFalse(history.canUndo());
+        assertEquals("Имя другого экземпляра", theirs.getName());
+    }
+
+    @Test
+    void rejectsUseFromAnotherThread() throws InterruptedException {
+        directory.renameContact(directory.getContacts().get(0), "Первый");
+        List<Throwable> errors = new ArrayList<>();
+        Thread other = new Thread(() -> {
+            try {
+                history.undo();
+            } catch (RuntimeException e) {
+                errors.add(e);
+            }
+        });
+        other.start();
+        other.join();
+
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalStateException);
+        assertTrue(history.canUndo());
+    }
+}
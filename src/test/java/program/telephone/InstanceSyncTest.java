@@ -0,0 +1,146 @@
+package program.telephone;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты согласования двух экземпляров, работающих с одним каталогом: трехстороннее
+ * объединение при сохранении и разрешение конфликта удаления с изменением.
+ */
+class InstanceSyncTest {
+    @TempDir
+    Path dir;
+    private ContactDirectory first;
+    private ContactDirectory second;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ShardedStorage seed = new ShardedStorage(dir, null, 8);
+        seed.load();
+        seed.save(TestData.contacts(10));
+        first = open();
+        second = open();
+    }
+
+    @Test
+    void saveMergesChangesOfAnotherInstance() throws IOException {
+        first.renameContact(find(first, "Контакт 0"), "Переименован первым");
+        first.addNumber(find(first, "Контакт 1"), new PhoneNumber("111", "Рабочий"));
+        first.removeContact(find(first, "Контакт 2"));
+        // Пустые контакты не сохраняются, поэтому новым контактам добавляются номера
+        first.addNumber(first.addContact("Новый первого").orElseThrow(), new PhoneNumber("333", "Домашний"));
+        first.save();
+
+        second.addNumber(find(second, "Контакт 1"), new PhoneNumber("222", "Мобильный"));
+        second.renameContact(find(second, "Контакт 4"), "Переименован вторым");
+        second.addNumber(second.addContact("Новый второго").orElseThrow(), new PhoneNumber("555", "Домашний"));
+        second.save();
+
+        List<String> merged = sorted(second);
+        assertTrue(merged.contains("Переименован первым=1000000/Домашний,"));
+        // Номера другого экземпляра добавляются после локальных
+        assertTrue(merged.contains("Контакт 1=1000001/Домашний,222/Мобильный,111/Рабочий,"));
+        assertTrue(merged.contains("Переименован вторым=1000004/Домашний,"));
+        assertTrue(merged.contains("Новый первого=333/Домашний,"));
+        assertTrue(merged.contains("Новый второго=555/Домашний,"));
+        assertNull(findOrNull(second, "Контакт 0"));
+        assertNull(findOrNull(second, "Контакт 2"));
+        assertEquals(11, merged.size());
+
+        assertEquals(merged, sorted(open()));
+    }
+
+    @Test
+    void contactDeletedByOneAndEditedByOtherIsKept() throws IOException {
+        first.removeContact(find(first, "Контакт 3"));
+        first.save();
+
+        second.addNumber(find(second, "Контакт 3"), new PhoneNumber("444", "Рабочий"));
+        second.save();
+
+        assertEquals("Контакт 3=1000003/Домашний,444/Рабочий,", TestData.describe(find(second, "Контакт 3")));
+        assertEquals(sorted(second), sorted(open()));
+    }
+
+    @Test
+    void contactDeletedByOneAndUntouchedByOtherIsRemoved() throws IOException {
+        first.removeContact(find(first, "Контакт 5"));
+        first.save();
+
+        second.renameContact(find(second, "Контакт 6"), "Другое имя");
+        second.save();
+
+        assertNull(findOrNull(second, "Контакт 5"));
+        assertNull(findOrNull(open(), "Контакт 5"));
+    }
+
+    @Test
+    void bothInstancesConvergeAfterSaving() throws IOException {
+        first.addNumber(find(first, "Контакт 7"), new PhoneNumber("777", "Рабочий"));
+        first.save();
+        second.addNumber(find(second, "Контакт 8"), new PhoneNumber("888", "Рабочий"));
+        second.save();
+        // Первый экземпляр узнает об изменениях второго при следующем сохранении
+        first.save();
+
+        assertEquals(sorted(second), sorted(first));
+        assertEquals(sorted(second), sorted(open()));
+    }
+    /**
+     * Создает и загружает новый экземпляр телефонной книги над общим каталогом.
+     *
+     * @return загруженная телефонная книга
+     * @throws IOException если данные не удалось прочитать
+     */
+    private ContactDirectory open() throws IOException {
+        ContactDirectory directory = new ContactDirectory(new ShardedStorage(dir, null, 8));
+        directory.load();
+        return directory;
+    }
+    /**
+     * Находит контакт по имени.
+     *
+     * @param directory телефонная книга
+     * @param name имя
+     * @return контакт
+     */
+    private static Contact find(ContactDirectory directory, String name) {
+        Contact contact = findOrNull(directory, name);
+        assertNotNull(contact, name);
+        return contact;
+    }
+    /**
+     * Находит контакт по имени.
+     *
+     * @param directory телефонная книга
+     * @param name имя
+     * @return контакт или null, если его нет
+     */
+    private static Contact findOrNull(ContactDirectory directory, String name) {
+        for (Contact contact : directory.copyContacts()) {
+            if (contact.getName().equals(name)) {
+                return contact;
+            }
+        }
+        return null;
+    }
+    /**
+     * Описывает контакты телефонной книги без учета порядка.
+     *
+     * @param directory телефонная книга
+     * @return отсортированные описания
+     */
+    private static List<String> sorted(ContactDirectory directory) {
+        List<String> result = new ArrayList<>(TestData.describe(directory.copyContacts()));
+        Collections.sort(result);
+        return result;
+    }
+}
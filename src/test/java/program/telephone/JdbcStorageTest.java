@@ -0,0 +1,127 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты хранилища в базе H2: запись только измененных контактов, сохранение порядка
+ * и удалений, однократный импорт и поиск по списку с несохраненными изменениями.
+ */
+class JdbcStorageTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void savedContactsReloadInOrder() throws IOException {
+        List<Contact> contacts = TestData.contacts(50);
+        JdbcStorage storage = new JdbcStorage(url(), null);
+        assertTrue(storage.load().isEmpty());
+        storage.save(contacts);
+
+        assertEquals(TestData.describe(contacts), TestData.describe(new JdbcStorage(url(), null).load()));
+    }
+
+    @Test
+    void saveWritesOnlyChangedContacts() throws IOException, SQLException {
+        JdbcStorage storage = new JdbcStorage(url(), null);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(10);
+        storage.save(contacts);
+        // Строка неизмененного контакта подменяется в обход хранилища: если сохранение
+        // перезапишет ее, подмена пропадет
+        rename("Контакт 3", "Подмена");
+
+        contacts.get(5).setName("Новое имя");
+        storage.save(contacts);
+
+        List<String> names = new ArrayList<>();
+        for (Contact contact : new JdbcStorage(url(), null).load()) {
+            names.add(contact.getName());
+        }
+        assertEquals("Подмена", names.get(3));
+        assertEquals("Новое имя", names.get(5));
+    }
+
+    @Test
+    void removedAndMovedContactsAreStored() throws IOException {
+        JdbcStorage storage = new JdbcStorage(url(), null);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(20);
+        storage.save(contacts);
+
+        contacts.remove(4);
+        contacts.add(0, contacts.remove(10));
+        contacts.add(TestData.contact("Добавленный", "42"));
+        storage.save(contacts);
+
+        assertEquals(TestData.describe(contacts), TestData.describe(new JdbcStorage(url(), null).load()));
+    }
+
+    @Test
+    void seedIsImportedOnlyOnce() throws IOException {
+        ContactStorage seed = new ContactStorage() {
+            @Override
+            public List<Contact> load() {
+                return TestData.contacts(3);
+            }
+
+            @Override
+            public void save(List<Contact> contacts) {
+                fail("Исходное хранилище не должно изменяться");
+            }
+        };
+        JdbcStorage storage = new JdbcStorage(url(), seed);
+        assertEquals(3, storage.load().size());
+        storage.save(new ArrayList<>());
+
+        assertTrue(new JdbcStorage(url(), seed).load().isEmpty());
+    }
+
+    @Test
+    void searchSeesUnsavedChanges() throws IOException {
+        JdbcStorage storage = new JdbcStorage(url(), null);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(30);
+        storage.save(contacts);
+        assertEquals(List.of(contacts.get(7)), storage.search(contacts, "контакт 7", () -> false));
+
+        contacts.get(7).setName("Переименованный");
+        assertTrue(storage.search(contacts, "контакт 7", () -> false).isEmpty());
+        assertEquals(List.of(contacts.get(7)), storage.search(contacts, "переимен", () -> false));
+    }
+    /**
+     * Возвращает адрес файловой базы во временном каталоге теста.
+     *
+     * @return JDBC-адрес
+     */
+    private String url() {
+        return "jdbc:h2:" + dir.resolve("phonebook-db").toAbsolutePath();
+    }
+    /**
+     * Переименовывает строку контакта напрямую в базе.
+     *
+     * @param from текущее имя
+     * @param to новое имя
+     * @throws SQLException при ошибке запроса
+     */
+    private void rename(String from, String to) throws SQLException {
+        try (Connection db = DriverManager.getConnection(url());
+             PreparedStatement statement = db.prepareStatement(
+                     "UPDATE contacts SET name = ?, name_lower = ? WHERE name = ?")) {
+            statement.setString(1, to);
+            statement.setString(2, to.toLowerCase());
+            statement.setString(3, from);
+            assertEquals(1, statement.executeUpdate());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты разбора и записи JSON: значения всех типов, экранирование, ошибки
+ * и ограничение глубины вложенности.
+ */
+class JsonTest {
+    @Test
+    void parsesAllValueTypes() {
+        Object value = Json.parse(" {\"name\": \"Иван\", \"age\": 42, \"tags\": [true, false, null], \"empty\": {}} ");
+
+        assertTrue(value instanceof Map);
+        Map<?, ?> object = (Map<?, ?>) value;
+        assertEquals(List.of("name", "age", "tags", "empty"), List.copyOf(object.keySet()));
+        assertEquals("Иван", object.get("name"));
+        assertEquals(42.0, object.get("age"));
+        assertEquals(Arrays.asList(true, false, null), object.get("tags"));
+        assertEquals(Map.of(), object.get("empty"));
+    }
+
+    @Test
+    void writtenContactParsesBack() throws IOException {
+        Contact contact = TestData.contact("Кавычка \" и \\ слеш\n\u0001", "+7 912");
+        StringBuilder out = new StringBuilder();
+        Json.writeContact(out, contact);
+
+        Map<?, ?> object = (Map<?, ?>) Json.parse(out.toString());
+        assertEquals(contact.getName(), object.get("name"));
+        List<?> numbers = (List<?>) object.get("numbers");
+        assertEquals(1, numbers.size());
+        assertEquals(Map.of("number", "+7 912", "type", "Домашний"), numbers.get(0));
+    }
+
+    @Test
+    void rejectsMalformedDocuments() {
+        for (String text : List.of("", "{", "[1,]", "{\"a\" 1}", "tru", "\"без конца", "1 2", "{1: 2}", "\"\\u12\"")) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parse(text), text);
+        }
+    }
+
+    @Test
+    void acceptsMaximumDepth() {
+        assertNotNull(Json.parse(nested(Json.MAX_DEPTH)));
+        assertNotNull(Json.parse("{\"a\":" + nested(Json.MAX_DEPTH - 1) + "}"));
+    }
+
+    @Test
+    void rejectsDeeperNesting() {
+        assertThrows(IllegalArgumentException.class, () -> Json.parse(nested(Json.MAX_DEPTH + 1)));
+        // Глубина считается по вложенности, а не по количеству массивов в документе
+        String wide = "[" + String.join(",", Collections.nCopies(Json.MAX_DEPTH * 2, "[]")) + "]";
+        assertEquals(Json.MAX_DEPTH * 2, ((List<?>) Json.parse(wide)).size());
+        // Очень глубокий документ отклоняется, а не переполняет стек
+        assertThrows(IllegalArgumentException.class, () -> Json.parse(nested(100_000)));
+    }
+    /**
+     * Строит массивы, вложенные друг в друга.
+     *
+     * @param depth глубина вложенности
+     * @return текст документа
+     */
+    private static String nested(int depth) {
+        return "[".repeat(depth) + "]".repeat(depth);
+    }
+}
@@ -0,0 +1,113 @@
+package program.telephone;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты файла вытеснения номеров: запись и чтение списков, поиск прямо в файле,
+ * переход на новый сегмент и вытеснение номеров контакта с возвратом в кучу.
+ */
+class NumberSpillTest {
+    @TempDir
+    Path dir;
+    private NumberSpill spill;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        spill = new NumberSpill(dir.resolve("numbers.spill"));
+    }
+
+    @Test
+    void readReturnsWrittenNumbers() {
+        List<PhoneNumber> numbers = Arrays.asList(
+                new PhoneNumber("+7 912 345-67-89", "Мобильный"),
+                new PhoneNumber("", "Домашний"),
+                new PhoneNumber(null, null));
+        long address = spill.write(numbers);
+        long empty = spill.write(List.of());
+
+        assertEquals(describe(numbers), describe(spill.read(address)));
+        assertTrue(spill.read(empty).isEmpty());
+    }
+
+    @Test
+    void containsSearchesNumbersOnly() {
+        long address = spill.write(List.of(
+                new PhoneNumber("8 (912) 555", "Рабочий"),
+                new PhoneNumber("доб. 42", "Мобильный")));
+
+        assertTrue(spill.contains(address, "912"));
+        assertTrue(spill.contains(address, ") 5"));
+        assertTrue(spill.contains(address, "доб"));
+        assertFalse(spill.contains(address, "раб"));
+        assertFalse(spill.contains(address, "913"));
+    }
+
+    @Test
+    void recordsContinueInNextSegment() {
+        String longNumber = "7".repeat(60_000);
+        List<PhoneNumber> numbers = List.of(new PhoneNumber(longNumber, "Рабочий"));
+        long first = spill.write(numbers);
+        long last = first;
+        while ((last >>> 32) == 0) {
+            last = spill.write(numbers);
+        }
+
+        assertEquals(1, last >>> 32);
+        assertEquals(longNumber, spill.read(first).get(0).getNumber());
+        assertEquals(longNumber, spill.read(last).get(0).getNumber());
+        assertTrue(spill.contains(last, "777"));
+    }
+
+    @Test
+    void tooLongNumberIsNotWritten() {
+        long written = spill.getWrittenBytes();
+        assertEquals(-1, spill.write(List.of(new PhoneNumber("1".repeat(70_000), "Рабочий"))));
+        assertEquals(written, spill.getWrittenBytes());
+    }
+
+    @Test
+    void evictedContactIsSearchedInFileAndFaultedBackOnAccess() {
+        Contact contact = TestData.contact("Иван", "1234567", "7654321");
+        List<String> numbers = describe(contact.getPhoneNumbers());
+
+        assertNotNull(contact.evict(spill));
+        assertTrue(contact.isEvicted());
+        assertTrue(contact.hasNumberContaining("765"));
+        assertEquals(numbers, describe(contact.peekPhoneNumbers()));
+        assertEquals(0, spill.getFaults());
+
+        assertEquals(numbers, describe(contact.getPhoneNumbers()));
+        assertFalse(contact.isEvicted());
+        assertEquals(1, spill.getFaults());
+
+        // Неизмененный список повторно не записывается
+        long written = spill.getWrittenBytes();
+        contact.evict(spill);
+        assertEquals(written, spill.getWrittenBytes());
+        contact.addPhoneNumber(new PhoneNumber("555", "Рабочий"));
+        contact.evict(spill);
+        assertTrue(spill.getWrittenBytes() > written);
+        assertEquals(3, contact.peekPhoneNumbers().size());
+    }
+    /**
+     * Описывает номера строками вида {@code номер/тип}.
+     *
+     * @param numbers номера
+     * @return описания по порядку
+     */
+    private static List<String> describe(List<PhoneNumber> numbers) {
+        String[] result = new String[numbers.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = numbers.get(i).getNumber() + "/" + numbers.get(i).getType();
+        }
+        return Arrays.asList(result);
+    }
+}
@@ -0,0 +1,109 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты кэша поиска: поиск по префиксу, защита от устаревших результатов, точная
+ * инвалидация по событиям и вытеснение по суммарному размеру результатов.
+ */
+class SearchCacheTest {
+    private final SearchCache cache = new SearchCache(SearchCache.DEFAULT_CAPACITY);
+
+    @Test
+    void findParentReturnsLongestCachedPrefix() {
+        List<Contact> wide = TestData.contacts(3);
+        List<Contact> narrow = wide.subList(0, 1);
+        cache.put("к", wide, cache.version());
+        cache.put("ко", narrow, cache.version());
+
+        assertEquals(narrow, cache.findParent("кон"));
+        assertEquals(wide, cache.findParent("ко"));
+        assertNull(cache.findParent("к"));
+        assertNull(cache.findParent("а"));
+    }
+
+    @Test
+    void resultOfSearchStartedBeforeChangeIsNotStored() {
+        long start = cache.version();
+        cache.onEvent(ContactEvent.contactAdded(TestData.contact("Иван"), 0));
+
+        List<Contact> result = cache.put("ив", TestData.contacts(1), start);
+        assertEquals(1, result.size());
+        assertNull(cache.get("ив"));
+    }
+
+    @Test
+    void addedContactInvalidatesOnlyMatchingRequests() {
+        cache.put("ив", List.of(), cache.version());
+        cache.put("пе", List.of(), cache.version());
+        cache.put("123", List.of(), cache.version());
+
+        cache.onEvent(ContactEvent.contactAdded(TestData.contact("Иван", "551234"), 0));
+        assertNull(cache.get("ив"));
+        assertNull(cache.get("123"));
+        assertNotNull(cache.get("пе"));
+    }
+
+    @Test
+    void renameInvalidatesRequestsWhoseMatchChanged() {
+        Contact contact = TestData.contact("Иван", "700");
+        for (String request : List.of("ив", "ан", "нн", "70")) {
+            cache.put(request, List.of(), cache.version());
+        }
+
+        contact.setName("Анна");
+        cache.onEvent(ContactEvent.contactRenamed(contact, "Иван"));
+        assertNull(cache.get("ив"));
+        assertNull(cache.get("нн"));
+        assertNotNull(cache.get("ан"));
+        assertNotNull(cache.get("70"));
+    }
+
+    @Test
+    void numberChangesInvalidateOnlyMatchingRequests() {
+        Contact contact = TestData.contact("Иван", "1234");
+        for (String request : List.of("123", "999", "555", "ив")) {
+            cache.put(request, List.of(), cache.version());
+        }
+
+        cache.onEvent(ContactEvent.numberAdded(contact, new PhoneNumber("9990", "Рабочий")));
+        assertNull(cache.get("999"));
+        assertNotNull(cache.get("123"));
+
+        PhoneNumber old = contact.getPhoneNumbers().get(0);
+        cache.onEvent(ContactEvent.numberEdited(contact, old, new PhoneNumber("5550", "Домашний"), 0));
+        assertNull(cache.get("123"));
+        assertNull(cache.get("555"));
+        assertNotNull(cache.get("ив"));
+    }
+
+    @Test
+    void reorderAndReloadClearEverything() {
+        cache.put("ив", List.of(), cache.version());
+        cache.onEvent(ContactEvent.reordered());
+        assertNull(cache.get("ив"));
+
+        cache.put("пе", List.of(), cache.version());
+        cache.onEvent(ContactEvent.reloaded());
+        assertNull(cache.get("пе"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenTotalSizeExceedsCapacity() {
+        SearchCache small = new SearchCache(10);
+        small.put("а", TestData.contacts(3), small.version());
+        small.put("б", TestData.contacts(3), small.version());
+        small.get("а");
+        small.put("в", TestData.contacts(3), small.version());
+
+        assertNotNull(small.get("а"));
+        assertNull(small.get("б"));
+        assertNotNull(small.get("в"));
+        // Результат больше половины емкости не кэшируется, чтобы не вытеснять все остальное
+        small.put("г", TestData.contacts(5), small.version());
+        assertNull(small.get("г"));
+    }
+}
@@ -0,0 +1,218 @@
+package program.telephone;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Тесты шардированного хранилища: порядок контактов, перезапись только измененных шардов,
+ * миграция из старого формата и восстановление после повреждений.
+ */
+class ShardedStorageTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesAndLoadsContactsInOriginalOrder() throws IOException {
+        List<Contact> contacts = TestData.contacts(500);
+        ShardedStorage storage = new ShardedStorage(dir, null, 8);
+        storage.load();
+        storage.save(contacts);
+
+        List<Contact> loaded = new ShardedStorage(dir, null, 8).load();
+        assertEquals(TestData.describe(contacts), TestData.describe(loaded));
+    }
+
+    @Test
+    void unchangedSaveEncodesNoShards() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 8);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(200);
+        assertEquals(8, countWritten(storage.saveShards(contacts)));
+        Set<String> files = shardFiles();
+
+        assertEquals(0, countWritten(storage.saveShards(contacts)));
+        assertEquals(files, shardFiles());
+    }
+
+    @Test
+    void onlyShardOfChangedContactIsRewritten() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 8);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(200);
+        storage.save(contacts);
+
+        Contact changed = contacts.get(17);
+        changed.addPhoneNumber(new PhoneNumber("555", "Рабочий"));
+        List<List<Contact>> written = storage.saveShards(contacts);
+        assertEquals(1, countWritten(written));
+        List<Contact> shard = written.get(storage.shardOf(changed.getName()));
+        assertNotNull(shard);
+        assertTrue(shard.stream().anyMatch(c -> TestData.describe(c).equals(TestData.describe(changed))));
+
+        List<Contact> loaded = new ShardedStorage(dir, null, 8).load();
+        assertEquals(TestData.describe(contacts), TestData.describe(loaded));
+    }
+
+    @Test
+    void removalAndReorderingAreSaved() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 4);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(100);
+        storage.save(contacts);
+
+        contacts.remove(50);
+        contacts.add(0, contacts.remove(contacts.size() - 1));
+        storage.save(contacts);
+
+        List<Contact> loaded = new ShardedStorage(dir, null, 4).load();
+        assertEquals(TestData.describe(contacts), TestData.describe(loaded));
+    }
+
+    @Test
+    void loadedContactsAreTrackedForTheNextSave() throws IOException {
+        ShardedStorage writer = new ShardedStorage(dir, null, 8);
+        writer.load();
+        writer.save(TestData.contacts(100));
+
+        ShardedStorage reader = new ShardedStorage(dir, null, 8);
+        List<Contact> loaded = reader.load();
+        assertEquals(0, countWritten(reader.saveShards(loaded)));
+        loaded.get(3).setName("Переименован");
+        assertTrue(countWritten(reader.saveShards(loaded)) >= 1);
+    }
+
+    @Test
+    void migratesLegacyFile() throws IOException {
+        Path legacy = dir.resolve("contacts.bin");
+        ArrayList<Contact> contacts = new ArrayList<>(TestData.contacts(10));
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(legacy))) {
+            out.writeObject(contacts);
+        }
+        ShardedStorage storage = new ShardedStorage(dir.resolve("shards"), legacy, 4);
+        List<Contact> loaded = storage.load();
+        assertEquals(TestData.describe(contacts), TestData.describe(loaded));
+
+        storage.save(loaded);
+        assertEquals(TestData.describe(contacts),
+                TestData.describe(new ShardedStorage(dir.resolve("shards"), null, 4).load()));
+    }
+
+    @Test
+    void damagedManifestFallsBackToBackup() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 4);
+        storage.load();
+        List<Contact> first = TestData.contacts(50);
+        storage.save(first);
+        List<Contact> second = new ArrayList<>(first);
+        second.add(TestData.contact("Новый", "42"));
+        storage.save(second);
+
+        Path manifest = dir.resolve("manifest.bin");
+        byte[] bytes = Files.readAllBytes(manifest);
+        bytes[bytes.length / 2] ^= 0x55;
+        Files.write(manifest, bytes);
+
+        ShardedStorage reader = new ShardedStorage(dir, null, 4);
+        assertEquals(TestData.describe(first), TestData.describe(reader.load()));
+        assertTrue(reader.isRecovered());
+    }
+
+    @Test
+    void version1ManifestWithBadCountFallsBackToBackup() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 4);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(30);
+        storage.save(contacts);
+        storage.save(contacts.subList(0, 20));
+
+        for (int count : new int[] {-1, Integer.MAX_VALUE}) {
+            ByteBuffer manifest = ByteBuffer.allocate(16);
+            manifest.putInt(0x54504D31).putLong(3).putInt(count);
+            Files.write(dir.resolve("manifest.bin"), manifest.array());
+
+            ShardedStorage reader = new ShardedStorage(dir, null, 4);
+            assertEquals(TestData.describe(contacts), TestData.describe(reader.load()));
+            assertTrue(reader.isRecovered());
+        }
+    }
+
+    @Test
+    void missingShardLosesOnlyItsContacts() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 4);
+        storage.load();
+        List<Contact> contacts = TestData.contacts(100);
+        storage.save(contacts);
+
+        Contact victim = contacts.get(0);
+        int shard = storage.shardOf(victim.getName());
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                if (file.getFileName().toString().startsWith(String.format("shard-%03d-", shard))) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        ShardedStorage reader = new ShardedStorage(dir, null, 4);
+        List<Contact> loaded = reader.load();
+        assertTrue(reader.isRecovered());
+        List<String> expected = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (reader.shardOf(contact.getName()) != shard) {
+                expected.add(TestData.describe(contact));
+            }
+        }
+        assertEquals(expected, TestData.describe(loaded));
+        // Поврежденный шард перезаписывается при следующем сохранении
+        assertNotNull(reader.saveShards(loaded).get(shard));
+    }
+
+    @Test
+    void failedLoadForbidsSave() throws IOException {
+        ShardedStorage storage = new ShardedStorage(dir, null, 4);
+        storage.load();
+        storage.save(TestData.contacts(10));
+        storage.save(TestData.contacts(11));
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                if (file.getFileName().toString().startsWith("manifest")) {
+                    Files.write(file, new byte[] {1, 2, 3});
+                }
+            }
+        }
+
+        ShardedStorage reader = new ShardedStorage(dir, null, 4);
+        assertThrows(IOException.class, reader::load);
+        assertThrows(IOException.class, () -> reader.save(new ArrayList<>()));
+    }
+
+    private static int countWritten(List<List<Contact>> written) {
+        int count = 0;
+        for (List<Contact> shard : written) {
+            if (shard != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Set<String> shardFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith("shard-"))
+                    .collect(Collectors.toSet());
+        }
+    }
+}
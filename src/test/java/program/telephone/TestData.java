@@ -0,0 +1,66 @@
+package program.telephone;
+
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * Вспомогательные методы тестов: создание контактов и их текстовое описание для сравнения.
+ */
+final class TestData {
+    private TestData() {
+    }
+    /**
+     * Создает контакт с домашними номерами.
+     *
+     * @param name имя контакта
+     * @param numbers номера
+     * @return контакт
+     */
+    static Contact contact(String name, String... numbers) {
+        Contact contact = new Contact(name);
+        List<PhoneNumber> list = new ArrayList<>(numbers.length);
+        for (String number : numbers) {
+            list.add(new PhoneNumber(number, "Домашний"));
+        }
+        contact.setPhoneNumbers(list);
+        return contact;
+    }
+    /**
+     * Создает указанное количество контактов с разными именами и номерами.
+     *
+     * @param count количество контактов
+     * @return контакты
+     */
+    static List<Contact> contacts(int count) {
+        List<Contact> contacts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            contacts.add(contact("Контакт " + i, String.valueOf(1_000_000 + i)));
+        }
+        return contacts;
+    }
+    /**
+     * Описывает контакт строкой вида {@code имя=номер/тип,номер/тип}.
+     *
+     * @param contact контакт
+     * @return описание
+     */
+    static String describe(Contact contact) {
+        StringBuilder text = new StringBuilder(contact.getName()).append('=');
+        for (PhoneNumber number : contact.getPhoneNumbers()) {
+            text.append(number.getNumber()).append('/').append(number.getType()).append(',');
+        }
+        return text.toString();
+    }
+    /**
+     * Описывает список контактов с сохранением порядка.
+     *
+     * @param contacts контакты
+     * @return описания по порядку
+     */
+    static List<String> describe(List<Contact> contacts) {
+        List<String> result = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) {
+            result.add(describe(contact));
+        }
+        return result;
+    }
+}